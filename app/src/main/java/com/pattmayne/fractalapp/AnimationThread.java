@@ -0,0 +1,178 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.os.SystemClock;
+import android.view.SurfaceHolder;
+
+import com.pattmayne.fractalapp.engine.FrameScheduler;
+
+/**
+ * The part of the animation threads (TriangleThread and BranchingThread) that starts, pauses and stops them.
+ *
+ * One thread lives as long as its view. While the app is in the background (or the surface is being recreated)
+ * the thread is paused instead of stopped, so the animation carries on exactly where it left off when it comes back.
+ * A thread starts out paused, and only draws while resumeDrawing has been called more recently than pauseDrawing.
+ *
+ * pauseDrawing waits until the thread has finished the frame it is drawing, because once surfaceDestroyed returns
+ * the surface can't be drawn on any more. A frame is "being drawn" from the moment the thread decides to draw it
+ * until the canvas has been posted, and the thread checks whether it is paused (under the same lock) before starting one,
+ * so after pauseDrawing returns true the surface won't be touched again until resumeDrawing.
+ * The time between frames (spent in the FrameScheduler) doesn't count, so pausing never waits for the next frame.
+ *
+ * stopDrawing ends the thread for good, and waits a limited time for it to finish.
+ */
+public abstract class AnimationThread extends Thread {
+
+    protected final SurfaceHolder surfaceHolder;
+    protected final FrameScheduler frameScheduler;
+
+    private final Object lock = new Object();
+
+    //running is read on every frame without the lock, so it is volatile. The other flags are only used under the lock.
+    private volatile boolean running = true;
+    private boolean paused = true;
+    private boolean drawing = false;
+
+
+    public AnimationThread(SurfaceHolder surfaceHolder, FrameScheduler frameScheduler)
+    {
+        super();
+        this.surfaceHolder = surfaceHolder;
+        this.frameScheduler = frameScheduler;
+    }
+
+    /**
+     * Draw one frame onto the surface, and post it.
+     * Only called by this thread, while it isn't paused.
+     */
+    protected abstract void drawFrame();
+
+    /**
+     * Called by this thread before the first frame after it has been paused (including the very first frame).
+     * The frame deadlines have already been started over.
+     */
+    protected void onResumed()
+    {
+    }
+
+    /**
+     * This method contains statements which are repeatedly called by the Thread,
+     * each of which draws one frame and then waits until the next one is due.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            boolean wasPaused = false;
+            synchronized (lock) {
+                while (paused && running) {
+                    wasPaused = true;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {}
+                }
+                if (!running) {
+                    break;
+                }
+                drawing = true;
+            }
+
+            if (wasPaused) {
+                //Don't rush through all the frames that were due while the thread was paused.
+                frameScheduler.reset();
+                onResumed();
+            }
+
+            try {
+                drawFrame();
+            } finally {
+                synchronized (lock) {
+                    drawing = false;
+                    lock.notifyAll();
+                }
+            }
+
+            frameScheduler.waitForNextFrame();
+        }
+    }
+
+    /**
+     * Let the thread draw (again). Called on the UI thread.
+     */
+    public void resumeDrawing()
+    {
+        synchronized (lock) {
+            paused = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop the thread from drawing, and wait for it to finish the frame it is drawing. Called on the UI thread.
+     * @param timeoutMillis the longest to wait
+     * @return true if the thread has stopped drawing, false if it was still drawing when the time ran out
+     */
+    public boolean pauseDrawing(long timeoutMillis)
+    {
+        synchronized (lock) {
+            paused = true;
+
+            long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+            while (drawing) {
+                long timeLeft = deadline - SystemClock.uptimeMillis();
+                if (timeLeft <= 0) {
+                    return false;
+                }
+                try {
+                    lock.wait(timeLeft);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * End the thread for good, and wait for it to finish. Called on the UI thread.
+     * The thread is interrupted, so it doesn't sleep until its next frame is due first.
+     * @param timeoutMillis the longest to wait
+     * @return true if the thread has finished, false if it was still running when the time ran out
+     */
+    public boolean stopDrawing(long timeoutMillis)
+    {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        interrupt();
+
+        try {
+            join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !isAlive();
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+}
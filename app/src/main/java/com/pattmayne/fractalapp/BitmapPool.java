@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * This class keeps full-screen bitmaps that are no longer being drawn on, so the next view that needs one can have it
+ * instead of allocating another. Every time a surface is created (when the app comes back from the background,
+ * or the screen is rotated and the activity is created again) the animation needs a bitmap the size of the screen,
+ * and allocating a new one each time is what pushes small devices into running out of memory.
+ *
+ * A bitmap is handed back out if it has the same size and config as the one asked for.
+ * From KitKat on, a bitmap with enough memory behind it can be reconfigured to a different size instead
+ * (so rotating the screen reuses the same memory, since the width and height just swap).
+ *
+ * There is one shared pool for the whole app. It only keeps a couple of bitmaps; any more are recycled.
+ * The views take their bitmaps from the animation thread (which also gives back the old one when the bitmap is resized),
+ * and give them back from release() on the main thread when the activity is destroyed, so everything is synchronized.
+ */
+public class BitmapPool {
+
+    private static final BitmapPool shared = new BitmapPool(2);
+
+    private final int maxBitmaps;
+    private final ArrayList<Bitmap> freeBitmaps = new ArrayList<Bitmap>();
+
+
+    /**
+     * Constructor
+     * @param maxBitmaps how many unused bitmaps to keep
+     */
+    public BitmapPool(int maxBitmaps)
+    {
+        this.maxBitmaps = maxBitmaps;
+    }
+
+    public static BitmapPool getShared()
+    {
+        return shared;
+    }
+
+    /**
+     * Get a bitmap with every pixel set to zero, as if it had just been created.
+     * @param width
+     * @param height
+     * @param config
+     * @return
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config)
+    {
+        Bitmap bitmap = takeMatching(width, height, config);
+
+        if (bitmap == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+        {
+            bitmap = takeLargeEnough(width, height, config);
+            if (bitmap != null)
+            {
+                bitmap.reconfigure(width, height, config);
+            }
+        }
+
+        if (bitmap == null)
+        {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        bitmap.eraseColor(0);
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap back to the pool. Nothing should draw on it afterwards.
+     * If the pool is already full, the bitmap that has been waiting longest is recycled.
+     * @param bitmap
+     */
+    public synchronized void release(Bitmap bitmap)
+    {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable())
+        {
+            return;
+        }
+
+        freeBitmaps.add(bitmap);
+        while (freeBitmaps.size() > maxBitmaps)
+        {
+            freeBitmaps.remove(0).recycle();
+        }
+    }
+
+    /**
+     * Recycle every bitmap in the pool, such as when the system is running low on memory.
+     */
+    public synchronized void clear()
+    {
+        for (int i = 0; i < freeBitmaps.size(); i++)
+        {
+            freeBitmaps.get(i).recycle();
+        }
+        freeBitmaps.clear();
+    }
+
+    private Bitmap takeMatching(int width, int height, Bitmap.Config config)
+    {
+        for (int i = 0; i < freeBitmaps.size(); i++)
+        {
+            Bitmap bitmap = freeBitmaps.get(i);
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config)
+            {
+                return freeBitmaps.remove(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find a bitmap whose memory can hold a bitmap of the given size and config.
+     * Only call this on KitKat or later.
+     */
+    private Bitmap takeLargeEnough(int width, int height, Bitmap.Config config)
+    {
+        int bytesPerPixel = (config == Bitmap.Config.ARGB_8888) ? 4 : 2;
+        int bytesNeeded = width * height * bytesPerPixel;
+
+        for (int i = 0; i < freeBitmaps.size(); i++)
+        {
+            if (freeBitmaps.get(i).getAllocationByteCount() >= bytesNeeded)
+            {
+                return freeBitmaps.remove(i);
+            }
+        }
+        return null;
+    }
+}
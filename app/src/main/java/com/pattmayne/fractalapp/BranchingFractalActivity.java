@@ -85,6 +85,24 @@ public class BranchingFractalActivity extends ActionBarActivity {
         } else if (id == R.id.rainbow_color) {
             branchingFractalView.setRainbow();
             return true;
+        } else if (id == R.id.toggle_depth_first) {
+            branchingFractalView.toggleDepthFirst();
+            return true;
+        } else if (id == R.id.more_branches) {
+            branchingFractalView.moreBranches();
+            return true;
+        } else if (id == R.id.fewer_branches) {
+            branchingFractalView.fewerBranches();
+            return true;
+        } else if (id == R.id.toggle_frame_stats) {
+            branchingFractalView.toggleFrameStats();
+            return true;
+        } else if (id == R.id.toggle_audio_reactive) {
+            branchingFractalView.toggleAudioReactive();
+            return true;
+        } else if (id == R.id.toggle_synth) {
+            branchingFractalView.toggleSynth();
+            return true;
         } else if (id == R.id.toggle_music)
         {
             branchingFractalView.toggleMusic();
@@ -101,12 +119,30 @@ public class BranchingFractalActivity extends ActionBarActivity {
     @Override
     public void onPause() {
         super.onPause();
-            finish();
+        branchingFractalView.stopMusic();
+        //The animation waits where it is, so coming back to the app carries on from there.
+        branchingFractalView.onPause();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        branchingFractalView.release();
+    }
+
+    /**
+     * The bitmaps waiting in the pool can be allocated again when they are needed.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapPool.getShared().clear();
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        branchingFractalView.onResume();
     }
 
     @Override
@@ -119,7 +155,6 @@ public class BranchingFractalActivity extends ActionBarActivity {
     public void onStop()
     {
         super.onStop();
-        finish();
     }
 
 }
\ No newline at end of file
@@ -20,23 +20,37 @@ package com.pattmayne.fractalapp;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-import java.util.Random;
-import java.util.ArrayList;
+import com.pattmayne.fractalapp.engine.AudioEnvelope;
+import com.pattmayne.fractalapp.engine.BranchingScene;
+import com.pattmayne.fractalapp.engine.CommandQueue;
+import com.pattmayne.fractalapp.engine.FrameScheduler;
+import com.pattmayne.fractalapp.engine.FrameStats;
+import com.pattmayne.fractalapp.engine.RenderScale;
+import com.pattmayne.fractalapp.engine.SegmentSink;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class creates a canvas and draws a branching fractal animation.
  * The animation consists of lines stemming out from a center point,
  * where each line generates two more lines reaching out toward the edge at a semi-random angle.
  *
+ * The tree itself is worked out by a BranchingScene from the engine module, which doesn't know anything about Android.
+ * This class only paints the lines the scene hands it onto a Canvas, controls the speed of the animation, and plays the music.
+ *
  * The user can control certain elements of the animation by pressing buttons in the menu.
+ * The menu and the touchscreen are handled on the UI thread, but the scene is only ever changed by the animation thread.
+ * So every change is put in a CommandQueue, and the animation thread carries them all out at the beginning of each iteration.
  *
  * Created by Matt on 2014-10-04.
  * This class creates a surfaceView,
@@ -45,31 +59,29 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
 
     //Variables
 
+    private static final String TAG = "BranchingFractalView";
+
     Context thisContext;
-    private Random randomizer;
+
+    //The tree, and everything the menu can change about it.
+    private BranchingScene scene;
 
     private Paint paint;
 
-    private float canvasHeight;
-    private float canvasWidth;
-    private float centerX;
-    private float centerY;
+    //How many lines the depth-first walk collects before drawing them, so memory never grows with the size of the tree.
+    private static final int STREAM_BATCH_SEGMENTS = 4096;
 
-    Point centerPoint;
-    Point endPoint;
+    //Every line of a generation is collected here, then drawn with a single drawLines call.
+    private SegmentBatch segmentBatch;
 
-    private ArrayList<Point> startPoints;
-    private ArrayList<Point> endPoints;
-    private ArrayList<Point> newEndPoints;
+    //In depth-first mode, the scene walks the tree and hands each line to the streamSink,
+    //which draws the segmentBatch whenever it fills up.
+    private SegmentSink streamSink;
 
-    private int iterations = 1;
-    private int maxIterations = 4;
+    //How long each frame lasts, in milliseconds, from the start of one frame to the start of the next.
+    //The frameScheduler subtracts the time spent drawing, so the frame rate doesn't depend on how big the tree is.
     private int speed = 140;
-    private int lineLength = 70;
-    private int colorTicker = 0;
-    private boolean firstTime = true;
-    private boolean reset = false;
-    private boolean rainbow = false;
+    private FrameScheduler frameScheduler;
 
 
     //specific SurfaceHolder variables
@@ -77,15 +89,97 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
     private SurfaceHolder surfaceHolder;
     public BranchingThread thread;
 
+    //The thread lives as long as the view, and only draws while there is a surface and the activity is in the foreground.
+    //(Both flags are only used on the UI thread.)
+    private boolean surfaceReady = false;
+    private boolean visible = false;
+
+    //How long the UI thread waits for the animation thread to finish a frame (when pausing) or to end (when released).
+    private static final long THREAD_TIMEOUT_MILLIS = 1000;
+
+    //The bitmap comes from the shared BitmapPool, and goes back to it in release() when the activity is destroyed.
+    //It is kept while the surface is destroyed and created again, so the animation carries on where it left off.
     private Bitmap activeBitmap;
     private Canvas activeCanvas;
-    private Matrix identityMatrix;
+    private Bitmap.Config bitmapConfig;
+
+    //The activeBitmap can have fewer pixels than the screen (see RenderScale).
+    //The scene always works in screen coordinates: the renderMatrix shrinks everything drawn on the activeCanvas to fit
+    //the activeBitmap, and the blitMatrix stretches the activeBitmap back over the whole screen.
+    //Touches are in screen coordinates too, so they go straight to the scene.
+    //The render scale, the matrices and the surface size are only used on the animation thread (after makeThread).
+    private RenderScale renderScale;
+    private Matrix renderMatrix;
+    private Matrix blitMatrix;
+    private Paint blitPaint;
+    private int surfaceWidth;
+    private int surfaceHeight;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    //Only the part of the screen where the new generation was drawn needs to be copied onto the SurfaceView.
+    //fullFrame means the whole activeBitmap has changed (on the first frame, after a reset, or after a color change).
+    //The dirtyRect is in screen coordinates. The blitSource is the part of the activeBitmap that covers it,
+    //and the blitDestination is where that part goes on the screen (the dirtyRect, give or take a fraction of a pixel).
+    private Rect dirtyRect;
+    private Rect blitSource;
+    private RectF blitDestination;
+    private boolean fullFrame = true;
+
+    //Times each stage of every frame. Every few seconds the times are written to the log (at DEBUG level),
+    //and they can be shown on top of the animation from the menu.
+    private static final int FRAME_STATS_INTERVAL = 5000;
+    private FrameStats frameStats;
+    private FrameStatsOverlay frameStatsOverlay;
+    private boolean showFrameStats = false;
+
+    //Measures how long the screen takes to show its first frame.
+    private FirstFrameTimer firstFrameTimer;
+
+    //Every change the user asks for waits here until the beginning of the next iteration.
+    //Touches stop being queued once there is only room for TOUCH_RESERVE more commands, so there's always room for the menu.
+    private static final int COMMAND_CAPACITY = 64;
+    private static final int TOUCH_RESERVE = 16;
+    private CommandQueue commandQueue;
+    private CommandQueue.Consumer commandConsumer;
+
+    //The newest surface size, width in the top 32 bits and height in the bottom 32, or NO_RESIZE.
+    //It isn't queued like the other commands, because a full queue would lose it, and the bitmap would never match the surface again.
+    //Only the newest size matters, so the render thread takes it at the start of every frame.
+    private static final long NO_RESIZE = -1;
+    private final AtomicLong pendingSize = new AtomicLong(NO_RESIZE);
+
+    //The commands
+    private static final int CHANGE_CENTER = 1;
+    private static final int CHANGE_COLOR = 2;
+    private static final int BIGGER = 3;
+    private static final int SMALLER = 4;
+    private static final int TOGGLE_DEPTH_FIRST = 5;
+    private static final int MORE_BRANCHES = 6;
+    private static final int FEWER_BRANCHES = 7;
+    private static final int FASTER = 8;
+    private static final int SLOWER = 9;
+    private static final int LONGER_LINES = 10;
+    private static final int SHORTER_LINES = 11;
+    private static final int RESET_IMAGE = 12;
+    private static final int TOGGLE_FRAME_STATS = 13;
+    private static final int SET_RAINBOW = 14;
+    private static final int TOGGLE_AUDIO_REACTIVE = 16;
 
     //Variables to control the music
 
     private MusicPlayer musicPlayer;
     private boolean playMusic = false;
 
+    //Plays sound made from the animation. The animation thread only feeds it while it is on.
+    private SynthPlayer synthPlayer;
+
+    //In audio-reactive mode, new generations come faster when the music is loud (only used on the animation thread).
+    //Silence runs at MIN_MUSIC_DRIVE times the chosen speed, the loudest part of a track one more than that,
+    //and a beat adds up to one more again.
+    private static final float MIN_MUSIC_DRIVE = 0.5f;
+    private boolean audioReactive = false;
+
 
 
     //Constructors
@@ -120,290 +214,284 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
         surfaceHolder.addCallback(this);
         setFocusable(true);
         makeThread();
+        surfaceReady = true;
+        updateDrawing();
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder,
                                int format, int width, int height) {
+        //The animation thread is drawing on the activeBitmap, so it swaps it for one of the new size itself.
+        pendingSize.set(((long) width << 32) | (height & 0xffffffffL));
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        boolean retry = true;
-        while (retry) {
-            try{
-                thread.join();
-                retry = false;
-            } catch (InterruptedException e){}
-        }
+        //The surface can't be drawn on once this method returns, so wait for the thread to finish its frame.
+        surfaceReady = false;
+        updateDrawing();
     }
 
     /**
      * Here we create a thread from our own dedicated BranchingThread class.
      * This thread controls the timing of the animation and calls each iteration.
+     * When the surface is created again (after the app has been in the background), the same thread and bitmap
+     * are kept, so the tree carries on growing where it left off.
+     * The bitmap is taken from the BitmapPool, so a new activity doesn't necessarily allocate a new one.
      */
     public void makeThread() {
 
-        activeBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-        activeCanvas = new Canvas();
-        activeCanvas.setBitmap(activeBitmap);
-        identityMatrix = new Matrix();
-
-        thread = new BranchingThread(getHolder(), this);
-        thread.setRunning(true);
-        thread.start();
-    }
+        if (activeBitmap == null) {
+            surfaceWidth = getWidth();
+            surfaceHeight = getHeight();
+            activeBitmap = BitmapPool.getShared().acquire(renderScale.getScaledSize(surfaceWidth),
+                    renderScale.getScaledSize(surfaceHeight), bitmapConfig);
+            activeCanvas = new Canvas();
+            activeCanvas.setBitmap(activeBitmap);
+            renderMatrix = new Matrix();
+            blitMatrix = new Matrix();
+            setRenderMatrix();
+            setBlitMatrix();
+            dirtyRect = new Rect();
+            blitSource = new Rect();
+            blitDestination = new RectF();
+        }
 
+        //A new surface starts out blank, so the whole activeBitmap has to be copied onto it.
+        //(The thread is paused until updateDrawing, so it can't be using fullFrame now.)
+        fullFrame = true;
 
-    private void initializeVariables()
-    {
-        startPoints = new ArrayList<Point>();
-        endPoints = new ArrayList<Point>();
-        newEndPoints = new ArrayList<Point>();
-        paint = new Paint();
-        randomizer = new Random();
-        paint.setColor(0xffe1e1e1);
-        paint.setStrokeWidth(3);
-        rainbow = false;
+        if (thread == null) {
+            thread = new BranchingThread(getHolder(), this, frameScheduler);
+            thread.start();
+        }
+    }
 
-        musicPlayer = new MusicPlayer(thisContext);
+    /**
+     * Call this from the activity's onResume.
+     */
+    public void onResume() {
+        visible = true;
+        updateDrawing();
+    }
 
-        surfaceHolder = getHolder();
-        surfaceHolder.addCallback(this);
-        setFocusable(true);
+    /**
+     * Call this from the activity's onPause. The tree stops growing where it is, and carries on from there in onResume.
+     */
+    public void onPause() {
+        synthPlayer.stop();
+        visible = false;
+        updateDrawing();
     }
 
+    /**
+     * Call this from the activity's onDestroy. It ends the animation thread and gives the bitmap back to the BitmapPool.
+     */
+    public void release() {
+        musicPlayer.release();
+
+        if (thread != null) {
+            if (!thread.stopDrawing(THREAD_TIMEOUT_MILLIS)) {
+                //The thread may still be drawing on the bitmap, so it can't go back in the pool.
+                Log.w(TAG, "The animation thread didn't stop in time");
+                thread = null;
+                return;
+            }
+            thread = null;
+        }
 
+        BitmapPool.getShared().release(activeBitmap);
+        activeBitmap = null;
+    }
 
     /**
-     * This Point class defines each point at the beginning and end of every line.
-     * It also includes information for which direction new points should aim when they are generated from this Point.
-     * Each point contains two new directions for two new points.
+     * Let the thread draw if there is a surface to draw on and the activity is in the foreground, otherwise pause it.
      */
-    public class Point
-    {
-        //
-        public float pointX;
-        public float pointY;
-        public float direction1;
-        public float direction2;
-
-        public Point(float newPointX, float newPointY, float newDirection1, float newDirection2)
-        {
-            pointX = newPointX;
-            pointY = newPointY;
-            direction1 = newDirection1;
-            direction2 = newDirection2;
+    private void updateDrawing() {
+        if (thread == null) {
+            return;
         }
 
-        public void setPoints(float newPointX, float newPointY, float newDirection1, float newDirection2) {
-            pointX = newPointX;
-            pointY = newPointY;
-            direction1 = newDirection1;
-            direction2 = newDirection2;
+        if (surfaceReady && visible) {
+            thread.resumeDrawing();
+        } else if (!thread.pauseDrawing(THREAD_TIMEOUT_MILLIS)) {
+            Log.w(TAG, "The animation thread didn't pause in time");
         }
     }
 
-
-
-    //The animation methods
-
     /**
-     * This method is called for each iteration of the animation.
-     * @param canvas
+     * Called by the animation thread when a generation was drawn onto the activeBitmap but couldn't be shown,
+     * so the whole activeBitmap is copied onto the surface next time.
      */
-    protected void onDrawSomething(Canvas canvas) {
+    void invalidateFrame() {
+        fullFrame = true;
+    }
 
-        //There are a few conditional functions which need to be checked each iteration.
-        //I put them in a separate method to maintain readability.
-        loopConditionals(canvas);
 
-        //The drawLines method takes the startPoints and calculates new endPoints for each one,
-        //then draws the actual lines on an arbitrary canvas (activeCanvas) which we provide.
-            for (int i = 0; i < startPoints.size(); i++) {
-                drawLines(activeCanvas, i);
+    private void initializeVariables()
+    {
+        firstFrameTimer = new FirstFrameTimer(TAG);
+        scene = new BranchingScene();
+
+        //Each generation has twice as many points as the one before,
+        //so the deepest breadth-first generation has 2^MAX_ITERATIONS lines.
+        segmentBatch = new SegmentBatch(1 << BranchingScene.MAX_ITERATIONS);
+
+        streamSink = new SegmentSink() {
+            @Override
+            public void addSegment(float startX, float startY, float endX, float endY) {
+                segmentBatch.addSegment(startX, startY, endX, endY);
+                if (segmentBatch.getSegmentCount() >= STREAM_BATCH_SEGMENTS) {
+                    frameStats.endStage(FrameStats.GEOMETRY);
+                    segmentBatch.flush(activeCanvas, paint);
+                    frameStats.endStage(FrameStats.RASTER);
                 }
-
-        //Remove all the current "startPoints,"
-        // and then turn each new "endPoint" into a "startPoint" for the next iteration.
-            startPoints.clear();
-
-            for (int i = 0; i < endPoints.size(); i++) {
-                startPoints.add(endPoints.get(i));
             }
+        };
+        paint = new Paint();
+        paint.setStrokeWidth(3);
 
-            endPoints.clear();
-            iterations++;
+        //Nothing is ever see-through on the activeBitmap, so it can use 16-bit pixels if the resources ask for them.
+        bitmapConfig = getResources().getBoolean(R.bool.low_color_bitmaps) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
 
-        // Now that we've drawn all the lines to an arbitrary canvas (activeCanvas),
-        // we take that activeCanvas and draw it's information onto the SurfaceView's default canvas to be displayed.
-            canvas.drawBitmap(activeBitmap, identityMatrix, null);
-            surfaceHolder.unlockCanvasAndPost(canvas);
-            try {thread.sleep(speed);} catch (InterruptedException e) {}
-    }
+        renderScale = new RenderScale(getResources().getInteger(R.integer.render_scale_percent) / 100f,
+                getResources().getBoolean(R.bool.auto_render_scale));
+        blitPaint = new Paint();
+        blitPaint.setFilterBitmap(getResources().getBoolean(R.bool.filter_render_scale));
 
-    /**
-     * For every iteration, check all these conditions to see if certain functions should be performed.
-     * @param canvas
-     */
-    private void loopConditionals(Canvas canvas)
-    {
+        frameScheduler = new FrameScheduler(speed);
+        frameStats = new FrameStats(FRAME_STATS_INTERVAL);
+        frameStatsOverlay = new FrameStatsOverlay(getResources().getDisplayMetrics().density);
 
-        if (firstTime==true) {
+        commandQueue = new CommandQueue(COMMAND_CAPACITY);
+        commandConsumer = new CommandQueue.Consumer() {
+            @Override
+            public void onCommand(int code, float x, float y) {
+                carryOutCommand(code, x, y);
+            }
+        };
 
-            doFirstTimeStuff(canvas);
-        }
+        //The MusicPlayer doesn't open any tracks until the music is turned on.
+        musicPlayer = new MusicPlayer(thisContext);
+        synthPlayer = new SynthPlayer();
 
-        if (rainbow)
-        {changeColor(false);}
+        surfaceHolder = getHolder();
+        surfaceHolder.addCallback(this);
+        setFocusable(true);
+    }
 
-        if (iterations > maxIterations) {
-            clearIterations();
-        }
 
-        if (startPoints.size() == 0) {
-            startPoints.add(new Point(centerX, centerY, getDirection(), getDirection()));
-        }
 
-    }
+    //The animation methods
 
     /**
-     * Set up the conditions for the first iteration,
-     * or recreate those conditions.
-     * @param canvas
+     * This method is called for each iteration of the animation, before the SurfaceView's canvas is locked.
+     * It draws the next generation onto an arbitrary canvas (activeCanvas),
+     * and works out which part of the screen has changed.
+     * @return the part of the screen to update, or null if the whole screen needs updating
      */
-    private void doFirstTimeStuff(Canvas canvas)
-    {
-        canvasHeight = canvas.getHeight();
-        canvasWidth = canvas.getWidth();
-
-        centerPoint = new Point((canvasWidth / 2), (canvasHeight / 2), 0, 0);
-        endPoint = new Point((canvasWidth / 2), (canvasHeight / 2), 0, 0);
-
-        if (reset==false) {
-            //centerX and centerY will be the center of the fractal.
-            //starts in the center of the canvas,
-            //but onTouch can move it
-            centerX = canvasWidth / 2;
-            centerY = canvasHeight / 2;
-        }
+    protected Rect prepareFrame() {
 
-        clearIterations();
+        frameStats.startStage();
 
-        activeCanvas.drawColor(0xff0066ff);
-        firstTime=false;
-        reset=false;
-    }
+        //Carry out everything the user asked for since the last iteration.
+        takePendingResize();
+        commandQueue.drain(commandConsumer);
+        if (audioReactive) {
+            followMusic();
+        }
 
-    /**
-     * This method is called for every single Point object in the "startPoints" ArrayList.
-     * It draws two lines branching out from a single point,
-     * headed in the two directions that are contained in the Point object.
-     *
-     * @param canvas
-     * @param i
-     */
-    private void drawLines(Canvas canvas, int i)
-    {
-        newEndPoints.clear();
-        //The newEndPoints will be two new Point objects created at locations defined by the values contained in the startPoint's direction variables.
-        createNewEndPoints(i);
+        //The scene makes any changes the user asked for, and tells us when to start over with a clean canvas.
+        if (scene.beginFrame(surfaceWidth, surfaceHeight)) {
+            frameStats.endStage(FrameStats.GEOMETRY);
+            activeCanvas.drawColor(BranchingScene.BACKGROUND_COLOR);
+            frameStats.endStage(FrameStats.RASTER);
+            fullFrame = true;
+        }
 
-        //Draw lines from the startPoint to the two newEndPoints
-            canvas.drawLine(startPoints.get(i).pointX, startPoints.get(i).pointY, newEndPoints.get(0).pointX, newEndPoints.get(0).pointY, paint);
-            canvas.drawLine(startPoints.get(i).pointX, startPoints.get(i).pointY, newEndPoints.get(1).pointX, newEndPoints.get(1).pointY, paint);
+        //Every line in a generation shares the same color (rainbow mode only changes the color between generations).
+        paint.setColor(scene.getColor());
 
-        //Add the newEndPoints to the endPoints ArrayList, so that later on we can add all the endPoints to the startPoints ArrayList for the next iteration.
-        endPoints.add(newEndPoints.get(0));
-        endPoints.add(newEndPoints.get(1));
-    }
+        segmentBatch.resetBounds();
 
-    /**
-     * This method creates two new Points objects at locations defined
-     * by the values contained in a startPoint's direction variables.
-     *
-     * The specified startPoint is supplied by providing this method with an index (int i)
-     * which refers to a Point object in the startPoints ArrayList.
-     * @param i
-     */
-    private void createNewEndPoints(int i)
-    {
-        double xx1=(centerX)+(lineLength*iterations*1.55) * Math.sin(Math.PI*startPoints.get(i).direction1);
-        double yy1=(centerY)+(lineLength*iterations*1.55) * Math.cos(Math.PI*startPoints.get(i).direction1);
-        double xx2=(centerX)+(lineLength*iterations*1.55) * Math.sin(Math.PI*startPoints.get(i).direction2);
-        double yy2=(centerY)+(lineLength*iterations*1.55) * Math.cos(Math.PI*startPoints.get(i).direction2);
-
-        float x1 = (float)xx1;
-        float y1 = (float)yy1;
-        float x2 = (float)xx2;
-        float y2 = (float)yy2;
+        //Draw the new generation onto an arbitrary canvas (activeCanvas).
+        //A breadth-first generation is collected whole and drawn with one call.
+        //The depth-first walk can produce far more lines, so they are drawn in batches as they arrive.
+            if (scene.isDepthFirst()) {
+                scene.drawGeneration(streamSink);
+            } else {
+                scene.drawGeneration(segmentBatch);
+            }
+            if (synthPlayer.isPlaying()) {
+                synthPlayer.getSonifier().onGeneration(scene);
+            }
+            frameStats.endStage(FrameStats.GEOMETRY);
+            segmentBatch.flush(activeCanvas, paint);
+            frameStats.endStage(FrameStats.RASTER);
 
-        newEndPoints.add(new Point(x1,y1,getNewDirection(startPoints.get(i).direction1),getNewDirection(startPoints.get(i).direction1)));
-        newEndPoints.add(new Point(x2,y2,getNewDirection(startPoints.get(i).direction2),getNewDirection(startPoints.get(i).direction2)));
-    }
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, scene.getCuller().getReport());
+            }
 
+        if (fullFrame) {
+            return null;
+        }
 
-    /**
-     * This method generates and returns a random number between 0 and 2
-     * to plug into a formula which decides the location around a circumference
-     * where new Points should be generated.
-     *
-     * This method is used during a "first iteration," when the primary center Point generates two new Points.
-     * The two new Points are free to aim in any direction around the circle.
-     * @return float newDirection
-     */
-    private float getDirection()
-    {
-        return (randomizer.nextFloat()*2);
+        //Grow the rectangle by the stroke width, so the ends of the lines aren't cut off.
+        if (!segmentBatch.getBounds(dirtyRect, paint.getStrokeWidth())) {
+            //Nothing visible was drawn, so just update a single pixel.
+            dirtyRect.set(0, 0, 1, 1);
+        }
+        if (showFrameStats) {
+            //The overlay is redrawn every frame, so the part of the screen under it always needs updating too.
+            dirtyRect.union(frameStatsOverlay.getBounds(surfaceWidth, frameStats.getReportLines().length));
+        }
+        dirtyRect.intersect(0, 0, surfaceWidth, surfaceHeight);
+        return dirtyRect;
     }
 
     /**
-     * This method provides Point objects with a new direction which is based on the direction
-     * which created this Point object's location.
-     *
-     * This new location will be random within a certain range,
-     * to make sure that the lines travel generally outward from the center,
-     * rather than turning backwards towards the center.
-     *
-     * @param oldDirection
-     * @return
+     * This method is called for each iteration of the animation, with the SurfaceView's canvas
+     * locked to the rectangle that prepareFrame returned.
+     * @param canvas
      */
-    private float getNewDirection(float oldDirection)
-    {
-        double directionVariation = oldDirection + randomizer.nextFloat()/(5+iterations)*getSign();
-        float newDirection = (float)directionVariation;
-        return newDirection;
-    }
+    protected void onDrawSomething(Canvas canvas) {
 
-    /**
-     * generates and returns either (1) or (-1) to give a random direction, either left or right along the circumference
-     * @return int theSign
-     */
-    public int getSign()
-    {
-        int negativityDecider = randomizer.nextInt(2);
-        int theSign = 1;
+        // Now that we've drawn all the lines to an arbitrary canvas (activeCanvas),
+        // we take that activeCanvas and draw it's information onto the SurfaceView's default canvas to be displayed.
+        // lockCanvas may have grown dirtyRect (if the surface couldn't keep the rest of the last frame),
+        // so copying exactly that rectangle always leaves the whole screen correct.
+            frameStats.startStage();
+            if (fullFrame) {
+                canvas.drawBitmap(activeBitmap, blitMatrix, blitPaint);
+                fullFrame = false;
+            } else {
+                setBlitRects();
+                canvas.drawBitmap(activeBitmap, blitSource, blitDestination, blitPaint);
+            }
+            if (showFrameStats) {
+                frameStatsOverlay.draw(canvas, frameStats.getReportLines());
+            }
+            frameStats.endStage(FrameStats.BLIT);
+            surfaceHolder.unlockCanvasAndPost(canvas);
+            frameStats.endStage(FrameStats.POST);
+            firstFrameTimer.onFramePosted(this);
 
-        if(negativityDecider == 1)
-        {
-            theSign = (-1);
-        }
-        return theSign;
-    }
+            if (frameStats.endFrame() && Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, frameStats.getReport());
+            }
 
-    /**
-     * This method starts the animation back at the center.
-     * Otherwise the animation would keep growing, and wreak havoc on the user's computer.
-     */
-    private void clearIterations()
-    {
-        iterations = 1;
-        startPoints.clear();
-        endPoints.clear();
+            //Only drawing the lines and copying them to the screen take longer with more pixels.
+            long pixelNanos = frameStats.getLastStageTime(FrameStats.RASTER) + frameStats.getLastStageTime(FrameStats.BLIT);
+            if (renderScale.onFrame(pixelNanos, frameScheduler.getIntervalMillis() * NANOS_PER_MILLI)) {
+                resizeBitmap(surfaceWidth, surfaceHeight);
+            }
     }
 
 
     //Stuff to call from the Activity to effect the animation
+    //These are called on the UI thread, so they only queue a command.
+    //The animation thread carries it out at the beginning of the next iteration.
 
 
     /**
@@ -428,86 +516,82 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
     /**
      * Creates a new center for the animation,
      * based on information fed in through parameters.
+     * When the animation is running slowly, a finger moving across the screen can produce touches faster than they are used up,
+     * so touches are dropped once the queue is nearly full.
      * @param nx
      * @param ny
      */
     public void changeCenter(int nx, int ny)
     {
-        centerX += (nx-centerX)/13.1;
-        centerY += (ny-centerY)/13.1;
+        if (commandQueue.getFreeSpace() > TOUCH_RESERVE) {
+            commandQueue.offer(CHANGE_CENTER, nx, ny);
+        }
     }
 
 
     /**
-     * This method is either called when the user uses the menu to request a color change (masterColor == true),
-     * or this method is called on every iteration when rainbow is set to true for a constantly changing color pattern (masterColor == false).
+     * This method is called when the user uses the menu to request a color change (masterColor == true).
+     * In rainbow mode the scene changes the color itself on every iteration.
      *
      * @param masterColor
      */
     public void changeColor(boolean masterColor){
-        if (masterColor) {rainbow=false;}
-
-        colorTicker++;
-
-        if(colorTicker==1){
-        paint.setColor(Color.WHITE);}
-        else if(colorTicker==2){
-            paint.setColor(0xfff71300);}
-        else if(colorTicker==3){
-            paint.setColor(0xffeae000);}
-        else if (colorTicker==4){
-            paint.setColor(0xff006a28);}
-        else if(colorTicker==5){
-            paint.setColor(0xffff65a3);}
-        else if(colorTicker==6){
-            paint.setColor(Color.BLACK);}
-        else if(colorTicker==7){
-            paint.setColor(0xff009d0e);}
-        else if(colorTicker==8){
-            paint.setColor(0xff8fbbff);}
-        else if(colorTicker==9){
-            paint.setColor(0xffd59200);}
-        else if (colorTicker==10) {
-            paint.setColor(0xff4100ff);}
-        else {
-            paint.setColor(0xffe1e1e1);
-            colorTicker=0;}
+        commandQueue.offer(CHANGE_COLOR, masterColor ? 1 : 0, 0);
     }
 
     /**
      * This method is called when the user requests more iterations in the animation from the menu.
      */
     public void bigger(){
-        maxIterations ++;
-        if(maxIterations>11)
-        {maxIterations=12;}
+        commandQueue.offer(BIGGER);
+    }
+
+    /**
+     * This method is called when the user switches between breadth-first and depth-first drawing from the menu.
+     * The switch happens at the beginning of the next iteration.
+     */
+    public void toggleDepthFirst()
+    {
+        commandQueue.offer(TOGGLE_DEPTH_FIRST);
+    }
+
+    /**
+     * This method is called when the user requests more branches from every point.
+     * Only depth-first drawing can create more than two branches.
+     */
+    public void moreBranches()
+    {
+        commandQueue.offer(MORE_BRANCHES);
+    }
+
+    /**
+     * This method is called when the user requests fewer branches from every point.
+     */
+    public void fewerBranches()
+    {
+        commandQueue.offer(FEWER_BRANCHES);
     }
 
     /**
      * This method is called when the user requests fewer iterations in the animation from the menu.
      */
     public void smaller(){
-        maxIterations --;
-        if(maxIterations<3)
-        {maxIterations=3;}
+        commandQueue.offer(SMALLER);
     }
 
     /**
      * This method is called when the user requests a faster animation from the menu.
+     * Each frame will last exactly "speed" milliseconds (unless the frames take even longer than that to draw).
      */
     public void faster() {
-        speed-=45;
-        if (speed<7)
-        {speed=7;}
+        commandQueue.offer(FASTER);
     }
 
     /**
      * This method is called when the user requests a slower animation from the menu.
      */
     public void slower() {
-        speed += 65;
-        if (speed>1000)
-        {speed=1000;}
+        commandQueue.offer(SLOWER);
     }
 
     /**
@@ -515,9 +599,7 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
      */
     public void longerLines()
     {
-        lineLength += 9;
-        if (lineLength > 370)
-        {lineLength = 370;}
+        commandQueue.offer(LONGER_LINES);
     }
 
     /**
@@ -525,25 +607,205 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
      */
     public void shorterLines()
     {
-        lineLength -= 9;
-        if (lineLength < 15)
-        {lineLength = 10;}
+        commandQueue.offer(SHORTER_LINES);
     }
 
     /**
      * This method is called when the user requests for the animation to be reset.
      */
     public void resetImage() {
-        firstTime=true;
-        reset=true;
-            }
+        commandQueue.offer(RESET_IMAGE);
+    }
+
+    /**
+     * This method is called when the user turns the frame times on or off from the menu.
+     * The whole screen is updated when they are turned off, to get rid of the last overlay.
+     */
+    public void toggleFrameStats() {
+        commandQueue.offer(TOGGLE_FRAME_STATS);
+    }
+
+    /**
+     * This method is called when the user turns the audio-reactive mode on or off from the menu.
+     * In audio-reactive mode the tree grows faster when the music is loud, with a burst on every beat.
+     * It only does anything while the music is on.
+     */
+    public void toggleAudioReactive() {
+        commandQueue.offer(TOGGLE_AUDIO_REACTIVE);
+    }
 
     /**
      * This method sets the rainbow variable to true,
      * so each iteration will have a different color.
      */
     public void setRainbow() {
-        rainbow=true;
+        commandQueue.offer(SET_RAINBOW);
+    }
+
+    /**
+     * Carry out one command from the menu or the touchscreen. Only called by the animation thread.
+     * Apart from the speed, the frame times and the audio-reactive mode, these are all passed on to the scene.
+     * @param code
+     * @param x
+     * @param y
+     */
+    private void carryOutCommand(int code, float x, float y) {
+        switch (code) {
+            case CHANGE_CENTER:
+                scene.changeCenter((int) x, (int) y);
+                break;
+            case CHANGE_COLOR:
+                boolean masterColor = (x != 0);
+                if (masterColor) {fullFrame=true;}
+                scene.changeColor(masterColor);
+                break;
+            case BIGGER:
+                scene.bigger();
+                break;
+            case SMALLER:
+                scene.smaller();
+                break;
+            case TOGGLE_DEPTH_FIRST:
+                scene.toggleDepthFirst();
+                break;
+            case MORE_BRANCHES:
+                scene.moreBranches();
+                break;
+            case FEWER_BRANCHES:
+                scene.fewerBranches();
+                break;
+            case FASTER:
+                speed-=45;
+                if (speed<7)
+                {speed=7;}
+                frameScheduler.setInterval(speed);
+                break;
+            case SLOWER:
+                speed += 65;
+                if (speed>1000)
+                {speed=1000;}
+                frameScheduler.setInterval(speed);
+                break;
+            case LONGER_LINES:
+                scene.longerLines();
+                break;
+            case SHORTER_LINES:
+                scene.shorterLines();
+                break;
+            case RESET_IMAGE:
+                scene.resetImage();
+                break;
+            case TOGGLE_FRAME_STATS:
+                showFrameStats = !showFrameStats;
+                if (!showFrameStats) {
+                    fullFrame = true;
+                }
+                break;
+            case SET_RAINBOW:
+                scene.setRainbow();
+                break;
+            case TOGGLE_AUDIO_REACTIVE:
+                audioReactive = !audioReactive;
+                if (!audioReactive) {
+                    frameScheduler.setInterval(speed);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Shorten or lengthen the next frame by how loud the music is at this moment, and whether a beat is starting.
+     * Until the envelope of the playing track is ready (or when there is no music), the chosen speed is used.
+     * Only called by the animation thread.
+     */
+    private void followMusic() {
+        int frameLength = speed;
+
+        AudioEnvelope envelope = musicPlayer.getPlayingEnvelope();
+        if (envelope != null) {
+            long position = musicPlayer.getPlayingPosition();
+            float drive = MIN_MUSIC_DRIVE + envelope.getEnergy(position) + envelope.getOnset(position);
+            frameLength = Math.max(1, Math.round(speed / drive));
+        }
+
+        frameScheduler.setInterval(frameLength);
+    }
+
+    /**
+     * Move the animation onto a bitmap of the newest surface size, if the surface has changed size since the last frame.
+     * Only called by the animation thread.
+     */
+    private void takePendingResize() {
+        long size = pendingSize.getAndSet(NO_RESIZE);
+        if (size != NO_RESIZE) {
+            resizeBitmap((int) (size >>> 32), (int) size);
+        }
+    }
+
+    /**
+     * Move the animation onto a bitmap for a new surface size or a new render scale.
+     * When the surface changes size the tree starts over (from the same center), since it was only worked out to fill the old size.
+     * When only the render scale changes, the tree carries on, and the old picture is stretched or shrunk onto the new bitmap.
+     * Only called by the animation thread.
+     * @param width the surface width
+     * @param height the surface height
+     */
+    private void resizeBitmap(int width, int height) {
+        int bitmapWidth = renderScale.getScaledSize(width);
+        int bitmapHeight = renderScale.getScaledSize(height);
+        boolean surfaceChanged = (width != surfaceWidth || height != surfaceHeight);
+        if (width <= 0 || height <= 0 || (!surfaceChanged
+                && bitmapWidth == activeBitmap.getWidth() && bitmapHeight == activeBitmap.getHeight())) {
+            return;
+        }
+
+        Bitmap oldBitmap = activeBitmap;
+        activeBitmap = BitmapPool.getShared().acquire(bitmapWidth, bitmapHeight, bitmapConfig);
+        surfaceWidth = width;
+        surfaceHeight = height;
+
+        //setBitmap resets the activeCanvas, so it needs the renderMatrix again.
+        activeCanvas.setBitmap(activeBitmap);
+        setRenderMatrix();
+        if (surfaceChanged) {
+            scene.resetImage();
+        } else {
+            //The old blitMatrix stretches the old picture over the screen, and the new renderMatrix shrinks it to fit.
+            activeCanvas.drawBitmap(oldBitmap, blitMatrix, blitPaint);
+        }
+        setBlitMatrix();
+
+        BitmapPool.getShared().release(oldBitmap);
+        fullFrame = true;
+    }
+
+    /**
+     * Make everything drawn on the activeCanvas (in screen coordinates) shrink to fit the activeBitmap.
+     */
+    private void setRenderMatrix() {
+        renderMatrix.setScale(activeBitmap.getWidth() / (float) surfaceWidth, activeBitmap.getHeight() / (float) surfaceHeight);
+        activeCanvas.setMatrix(renderMatrix);
+    }
+
+    /**
+     * Make the activeBitmap stretch over the whole screen when it is drawn.
+     */
+    private void setBlitMatrix() {
+        blitMatrix.setScale(surfaceWidth / (float) activeBitmap.getWidth(), surfaceHeight / (float) activeBitmap.getHeight());
+    }
+
+    /**
+     * Find the whole pixels of the activeBitmap that cover the dirtyRect, and where they go on the screen.
+     * The destination can reach a little past the dirtyRect, but the surface's canvas is clipped to it anyway.
+     */
+    private void setBlitRects() {
+        float scaleX = activeBitmap.getWidth() / (float) surfaceWidth;
+        float scaleY = activeBitmap.getHeight() / (float) surfaceHeight;
+        blitSource.set((int) Math.floor(dirtyRect.left * scaleX), (int) Math.floor(dirtyRect.top * scaleY),
+                (int) Math.ceil(dirtyRect.right * scaleX), (int) Math.ceil(dirtyRect.bottom * scaleY));
+        blitSource.intersect(0, 0, activeBitmap.getWidth(), activeBitmap.getHeight());
+        blitDestination.set(blitSource.left / scaleX, blitSource.top / scaleY,
+                blitSource.right / scaleX, blitSource.bottom / scaleY);
     }
 
 
@@ -578,6 +840,14 @@ public class BranchingFractalView extends SurfaceView implements SurfaceHolder.C
         }
     }
 
+    /**
+     * Turn the sound made from the tree on or off. Each new generation plays the notes its branches point to.
+     */
+    public void toggleSynth()
+    {
+        synthPlayer.toggle();
+    }
+
     public void stopMusic()
     {
         playMusic = false;
@@ -18,47 +18,42 @@
 package com.pattmayne.fractalapp;
 
 import android.graphics.Canvas;
+import android.graphics.Rect;
 import android.view.SurfaceHolder;
 
+import com.pattmayne.fractalapp.engine.FrameScheduler;
+
 /**
  * This Thread class continuously calls the onDrawSomething method of the BranchingFractalView class.
+ * Each new generation is drawn first, so that only the part of the screen it changed needs to be locked and updated.
+ * Then the frameScheduler waits until the next frame is due, however long the drawing took.
+ * Pausing, resuming and stopping the thread is handled by AnimationThread.
  * Created by Matt on 2014-10-07.
  */
-public class BranchingThread extends Thread {
+public class BranchingThread extends AnimationThread {
 
-    private SurfaceHolder surfaceHolder;
     private BranchingFractalView branchingFractalView;
-    Canvas canvas;
 
 
-    public BranchingThread(SurfaceHolder surfaceHolder, BranchingFractalView branchingFractalView)
+    public BranchingThread(SurfaceHolder surfaceHolder, BranchingFractalView branchingFractalView, FrameScheduler frameScheduler)
     {
-        super();
+        super(surfaceHolder, frameScheduler);
         this.branchingFractalView = branchingFractalView;
-        this.surfaceHolder = surfaceHolder;
     }
 
-// flag to hold game state
-	    private boolean running;
-
-	    public void setRunning(boolean running) {
-	        this.running = running;
-	    }
-
-	    @Override
-	    public void run() {
-	        while (running) {
-                    canvas = surfaceHolder.lockCanvas();
-                if (canvas != null) {
-                    branchingFractalView.onDrawSomething(canvas);
-                }
-                else {running=false;}
-                }
-	    }
-
-    public boolean isRunning()
-    {
-        return running;
+    /**
+     * Draw the next generation, then copy the part of the screen it changed onto the surface.
+     * If the surface can't be locked (it is just being destroyed), the generation stays on the activeBitmap,
+     * and the whole screen is copied the next time the surface is ready.
+     */
+    @Override
+    protected void drawFrame() {
+        Rect dirtyRect = branchingFractalView.prepareFrame();
+        Canvas canvas = surfaceHolder.lockCanvas(dirtyRect);
+        if (canvas != null) {
+            branchingFractalView.onDrawSomething(canvas);
+        } else {
+            branchingFractalView.invalidateFrame();
+        }
     }
-
 }
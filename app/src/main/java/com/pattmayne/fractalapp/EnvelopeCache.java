@@ -0,0 +1,411 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.pattmayne.fractalapp.engine.AudioEnvelope;
+import com.pattmayne.fractalapp.engine.EnvelopeBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class works out the AudioEnvelope of each music track, so the animations can follow the music.
+ *
+ * The first time a track is asked for, the whole track is decoded with a MediaCodec (from Jelly Bean on)
+ * on the cache's own background thread, and its envelope is written to a file in the app's cache directory,
+ * named after the track's resource id. After that, the envelope is simply read from the file.
+ * The file also holds the length of the track it was made from, so it is made again if the track changes
+ * (an update of the app can give a resource id to a different track).
+ *
+ * request and get can be called from any thread. get never waits: it returns null until the envelope is ready.
+ */
+public class EnvelopeCache {
+
+    private static final String TAG = "EnvelopeCache";
+
+    private static final int FRAME_MILLIS = 20;
+
+    //How long the decoder waits for a buffer before going round the loop again
+    private static final long DECODER_TIMEOUT_MICROS = 10000;
+
+    private final Context context;
+
+    //Guarded by this
+    private final Map<Integer, AudioEnvelope> envelopes = new HashMap<Integer, AudioEnvelope>();
+    private final Set<Integer> requested = new HashSet<Integer>();
+    private HandlerThread cacheThread;
+    private Handler cacheHandler;
+
+
+    /**
+     * Constructor. Nothing is read or decoded until an envelope is requested.
+     * @param context
+     */
+    public EnvelopeCache(Context context)
+    {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * The envelope of a track, if it is ready.
+     * @param resourceId the track's raw resource
+     * @return null if the envelope hasn't been requested, is still being worked out, or couldn't be made
+     */
+    public synchronized AudioEnvelope get(int resourceId)
+    {
+        return envelopes.get(resourceId);
+    }
+
+    /**
+     * Start working out the envelope of a track in the background, unless it has already been requested.
+     * @param resourceId the track's raw resource
+     */
+    public synchronized void request(final int resourceId)
+    {
+        if (!requested.add(resourceId))
+        {
+            return;
+        }
+
+        if (cacheHandler == null)
+        {
+            cacheThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            cacheThread.start();
+            cacheHandler = new Handler(cacheThread.getLooper());
+        }
+        cacheHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                AudioEnvelope envelope = load(resourceId);
+                synchronized (EnvelopeCache.this)
+                {
+                    if (envelope != null)
+                    {
+                        envelopes.put(resourceId, envelope);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * End the background thread once it has finished the envelope it is working on.
+     * The envelopes that are ready are kept, and anything still waiting can be requested again.
+     */
+    public synchronized void release()
+    {
+        if (cacheHandler == null)
+        {
+            return;
+        }
+        cacheHandler.removeCallbacksAndMessages(null);
+        cacheThread.quit();
+        cacheThread = null;
+        cacheHandler = null;
+
+        requested.clear();
+        requested.addAll(envelopes.keySet());
+    }
+
+    /**
+     * Read a track's envelope from its file, or make it (and the file) if there isn't a good one.
+     * Only called on the cacheThread.
+     * @param resourceId
+     * @return null if the track can't be decoded
+     */
+    private AudioEnvelope load(int resourceId)
+    {
+        AssetFileDescriptor track = context.getResources().openRawResourceFd(resourceId);
+        if (track == null)
+        {
+            //Compressed resources can't be opened this way.
+            Log.w(TAG, "Can't open track " + resourceId);
+            return null;
+        }
+
+        File file = new File(context.getCacheDir(), "envelope_" + resourceId + ".bin");
+        try
+        {
+            AudioEnvelope envelope = readFile(file, track.getLength());
+            if (envelope == null)
+            {
+                long startMillis = System.currentTimeMillis();
+                envelope = decode(track);
+                if (envelope != null)
+                {
+                    writeFile(file, track.getLength(), envelope);
+                    Log.d(TAG, "Made the envelope of track " + resourceId + " in "
+                            + (System.currentTimeMillis() - startMillis) + " ms");
+                }
+            }
+            return envelope;
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Can't make the envelope of track " + resourceId, e);
+            return null;
+        }
+        catch (RuntimeException e)
+        {
+            //MediaCodec reports a broken decoder with IllegalStateException.
+            Log.w(TAG, "Can't decode track " + resourceId, e);
+            return null;
+        }
+        finally
+        {
+            try
+            {
+                track.close();
+            }
+            catch (IOException e)
+            {
+                //Nothing more can be done with it.
+            }
+        }
+    }
+
+    /**
+     * @param file
+     * @param trackLength
+     * @return null if there is no file, it can't be read, or it was made from a different track
+     */
+    private static AudioEnvelope readFile(File file, long trackLength)
+    {
+        if (!file.exists())
+        {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readLong() != trackLength)
+            {
+                return null;
+            }
+            return AudioEnvelope.read(in);
+        }
+        catch (IOException e)
+        {
+            Log.w(TAG, "Ignoring the envelope file " + file, e);
+            return null;
+        }
+        finally
+        {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the file under a temporary name first, so a half-written file is never read.
+     * @param file
+     * @param trackLength
+     * @param envelope
+     * @throws IOException
+     */
+    private static void writeFile(File file, long trackLength, AudioEnvelope envelope) throws IOException
+    {
+        File partFile = new File(file.getPath() + ".part");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partFile)));
+        try
+        {
+            out.writeLong(trackLength);
+            envelope.write(out);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!partFile.renameTo(file))
+        {
+            partFile.delete();
+            throw new IOException("Can't rename " + partFile);
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in)
+    {
+        if (in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException e)
+            {
+                //It has been read already.
+            }
+        }
+    }
+
+    /**
+     * Decode the whole track, feeding the samples to an EnvelopeBuilder as they come out of the decoder.
+     * @param track
+     * @return null before Jelly Bean, which has no MediaCodec
+     * @throws IOException
+     */
+    private static AudioEnvelope decode(AssetFileDescriptor track) throws IOException
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+        {
+            return null;
+        }
+
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        boolean started = false;
+        try
+        {
+            extractor.setDataSource(track.getFileDescriptor(), track.getStartOffset(), track.getLength());
+            MediaFormat format = selectAudioTrack(extractor);
+
+            decoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            decoder.configure(format, null, null, 0);
+            decoder.start();
+            started = true;
+
+            ByteBuffer[] inputBuffers = decoder.getInputBuffers();
+            ByteBuffer[] outputBuffers = decoder.getOutputBuffers();
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            EnvelopeBuilder builder = null;
+            short[] samples = new short[0];
+
+            boolean inputDone = false;
+            boolean outputDone = false;
+            while (!outputDone)
+            {
+                if (!inputDone)
+                {
+                    int inputIndex = decoder.dequeueInputBuffer(DECODER_TIMEOUT_MICROS);
+                    if (inputIndex >= 0)
+                    {
+                        int size = extractor.readSampleData(inputBuffers[inputIndex], 0);
+                        if (size < 0)
+                        {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        }
+                        else
+                        {
+                            decoder.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = decoder.dequeueOutputBuffer(info, DECODER_TIMEOUT_MICROS);
+                if (outputIndex >= 0)
+                {
+                    //The decoder usually reports its output format first, but the track's own format will do if it doesn't.
+                    if (builder == null)
+                    {
+                        builder = makeBuilder(format);
+                    }
+
+                    int count = info.size / 2;
+                    if (samples.length < count)
+                    {
+                        samples = new short[count];
+                    }
+                    ByteBuffer output = outputBuffers[outputIndex];
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    output.order(ByteOrder.nativeOrder()).asShortBuffer().get(samples, 0, count);
+                    builder.addSamples(samples, 0, count);
+
+                    decoder.releaseOutputBuffer(outputIndex, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+                else if (outputIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED)
+                {
+                    outputBuffers = decoder.getOutputBuffers();
+                }
+                else if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED && builder == null)
+                {
+                    builder = makeBuilder(decoder.getOutputFormat());
+                }
+            }
+
+            return (builder == null) ? null : builder.build();
+        }
+        finally
+        {
+            if (decoder != null)
+            {
+                if (started)
+                {
+                    decoder.stop();
+                }
+                decoder.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Choose the first audio track in the file.
+     * @param extractor
+     * @return its format
+     * @throws IOException if there is no audio track
+     */
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) throws IOException
+    {
+        for (int i = 0; i < extractor.getTrackCount(); i++)
+        {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/"))
+            {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException("No audio in the track");
+    }
+
+    private static EnvelopeBuilder makeBuilder(MediaFormat format)
+    {
+        return new EnvelopeBuilder(format.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                format.getInteger(MediaFormat.KEY_CHANNEL_COUNT), FRAME_MILLIS);
+    }
+}
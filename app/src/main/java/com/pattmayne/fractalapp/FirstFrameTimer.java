@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * This class measures how long a fractal screen takes to show its first frame, from the moment its view was created.
+ * The time is written to the log (at INFO level), and from KitKat on the activity also reports itself fully drawn,
+ * so the time shows up in the system log next to the activity's own launch time.
+ */
+public class FirstFrameTimer {
+
+    private final String tag;
+    private final long startMillis;
+
+    //Only used on the animation thread
+    private boolean firstFramePosted = false;
+
+
+    /**
+     * Constructor. The timer starts straight away.
+     * @param tag the log tag to write the time under
+     */
+    public FirstFrameTimer(String tag)
+    {
+        this.tag = tag;
+        startMillis = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Call this on the animation thread every time a frame has been posted. Only the first call does anything.
+     * @param view the view the frame was posted to
+     */
+    public void onFramePosted(final View view)
+    {
+        if (firstFramePosted)
+        {
+            return;
+        }
+        firstFramePosted = true;
+
+        Log.i(tag, "First frame shown " + (SystemClock.uptimeMillis() - startMillis) + " ms after the view was created");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && view.getContext() instanceof Activity)
+        {
+            //reportFullyDrawn has to be called on the UI thread.
+            view.post(new Runnable() {
+                @Override
+                public void run() {
+                    ((Activity) view.getContext()).reportFullyDrawn();
+                }
+            });
+        }
+    }
+}
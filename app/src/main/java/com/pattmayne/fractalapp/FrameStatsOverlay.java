@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * This class draws the frame-time report from a FrameStats object in a dark box at the top of the screen.
+ * It is drawn straight onto the SurfaceView's canvas, after the animation's bitmap, so it never becomes part of the picture.
+ */
+public class FrameStatsOverlay {
+
+    private Paint textPaint;
+    private Paint backgroundPaint;
+    private float padding;
+    private Rect bounds;
+
+
+    /**
+     * Constructor
+     * @param density the screen density, so the text is the same size on every screen
+     */
+    public FrameStatsOverlay(float density)
+    {
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(0xffffffff);
+        textPaint.setTypeface(Typeface.MONOSPACE);
+        textPaint.setTextSize(11 * density);
+
+        backgroundPaint = new Paint();
+        backgroundPaint.setColor(0xb0000000);
+
+        padding = 4 * density;
+        bounds = new Rect();
+    }
+
+    /**
+     * The part of the screen the overlay covers.
+     * @param canvasWidth
+     * @param lineCount how many lines of the report will be drawn
+     * @return
+     */
+    public Rect getBounds(int canvasWidth, int lineCount)
+    {
+        bounds.set(0, 0, canvasWidth, (int) Math.ceil(lineCount * textPaint.getFontSpacing() + padding * 2));
+        return bounds;
+    }
+
+    /**
+     * Draw the report lines, one under another, on a dark background.
+     * @param canvas
+     * @param lines
+     */
+    public void draw(Canvas canvas, String[] lines)
+    {
+        canvas.drawRect(getBounds(canvas.getWidth(), lines.length), backgroundPaint);
+
+        float lineHeight = textPaint.getFontSpacing();
+        for (int i = 0; i < lines.length; i++)
+        {
+            canvas.drawText(lines[i], padding, padding + lineHeight * (i + 1), textPaint);
+        }
+    }
+}
@@ -22,23 +22,19 @@ import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.graphics.Color;
 import android.view.View;
 
 /**
  * This Activity displays a title screen
  * and buttons so the user can choose which animation to generate.
+ * It only builds the title screen itself. Each animation (and its music) is only set up when its activity is opened.
  */
 public class MainActivity extends ActionBarActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        View branchingFractalView = new BranchingFractalView(this);
-        View triangleFractalView = new TriangleFractalView(this);
         setContentView(R.layout.activity_main);
-        branchingFractalView.setBackgroundColor(Color.WHITE);
-        triangleFractalView.setBackgroundColor(Color.WHITE);
     }
 
     @Override
@@ -19,20 +19,71 @@ package com.pattmayne.fractalapp;
 
 import android.content.Context;
 import android.media.MediaPlayer;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.pattmayne.fractalapp.engine.AudioEnvelope;
 
 import java.util.Random;
 
 /**
  * Created by Matt on 2014-11-25.
+ *
+ * Creating a MediaPlayer decodes the start of its track, which is far too slow for the UI thread,
+ * so every MediaPlayer is created, started and released on the MusicPlayer's own thread.
+ * The public methods can be called from the UI thread: they only post the work to that thread.
+ * Nothing is created (not even the thread) until the music is first turned on,
+ * so opening a screen that might play music costs nothing until it does.
+ * The MediaPlayer's completion callbacks arrive on the same thread, since that is where it was created.
+ *
+ * While one track plays, the next one in the sequence is already created and prepared (nextPlayer).
+ * From Jelly Bean on, it is chained to the playing track with setNextMediaPlayer, so it starts the moment the other one ends,
+ * without any gap. On older versions it is started from the completion callback, which is still quick since it is ready to go.
+ * Skipping a track starts the prepared one straight away.
+ *
+ * For the audio-reactive modes, the animation thread can ask for the envelope of the playing track and how far into it
+ * the music is. The position is worked out from the time the track started, which is checked against the MediaPlayer
+ * every SYNC_INTERVAL, so the animation thread never has to touch the MediaPlayer itself.
+ * Envelopes are only worked out (by an EnvelopeCache) once something asks for them.
  */
 public class MusicPlayer {
 
     //Variables
 
+    //How often the position of the playing track is checked against the MediaPlayer, in milliseconds
+    private static final long SYNC_INTERVAL = 1000;
+
     private Random randomizer;
     private Context context;
 
+    //Only used on the audioThread. Null when nothing is playing.
     private MediaPlayer musicPlayer;
+    private MediaPlayer nextPlayer;
+    private MediaPlayer.OnCompletionListener completionListener;
+    private Runnable syncPosition;
+
+    //Created on the audioThread the first time a track begins, to run syncPosition.
+    //audioHandler can't be used for that, since release forgets it before the thread has finished.
+    private Handler syncHandler;
+
+    //The resource ids of the playing and prepared tracks (zero when there isn't one),
+    //and the uptime at which the playing track was (or would have been) at its start.
+    //Written on the audioThread and read by the animation thread.
+    private volatile int playingTrack = 0;
+    private volatile int preparedTrack = 0;
+    private volatile long playingSince = 0;
+
+    //The resource id of the track createNextTrack last opened
+    private int createdTrack = 0;
+
+    private EnvelopeCache envelopeCache;
+
+    //Created the first time the music is turned on, and ended by release.
+    private HandlerThread audioThread;
+    private Handler audioHandler;
 
     private int[] drumTrackList = {0,0,0,0,0,0,0,0,0};
     private int[] noiseTrackList = {0,0,0,0,0,0,0,0};
@@ -51,9 +102,70 @@ public class MusicPlayer {
      */
     public MusicPlayer(Context context)
     {
-        this.context = context;
+        this.context = context.getApplicationContext();
         randomizer = new Random();
         prepareTracks();
+
+        //When the track is over I want the OnCompletionListener to move on to the next track.
+        completionListener = new MediaPlayer.OnCompletionListener() {
+            public void onCompletion(MediaPlayer mp) {
+                onTrackFinished(mp);
+            };
+        };
+
+        syncPosition = new Runnable() {
+            @Override
+            public void run() {
+                if (musicPlayer != null)
+                {
+                    playingSince = SystemClock.uptimeMillis() - musicPlayer.getCurrentPosition();
+                    syncHandler.postDelayed(this, SYNC_INTERVAL);
+                }
+            }
+        };
+
+        envelopeCache = new EnvelopeCache(this.context);
+    }
+
+    /**
+     * Start the audioThread, unless it is already running.
+     * @return the Handler that runs things on the audioThread
+     */
+    private Handler getAudioHandler()
+    {
+        if (audioHandler == null)
+        {
+            audioThread = new HandlerThread("MusicPlayer", Process.THREAD_PRIORITY_AUDIO);
+            audioThread.start();
+            audioHandler = new Handler(audioThread.getLooper());
+        }
+        return audioHandler;
+    }
+
+    /**
+     * End the audioThread, after stopping the music. Call this when the screen that plays the music is destroyed.
+     * The MusicPlayer can still be used afterwards; it starts a new thread if it needs one.
+     */
+    public void release()
+    {
+        envelopeCache.release();
+        if (audioHandler == null)
+        {
+            return;
+        }
+
+        //The thread ends itself once the player is released, after anything already posted to it.
+        final HandlerThread finishingThread = audioThread;
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releasePlayers();
+                syncHandler = null;
+                finishingThread.quit();
+            }
+        });
+        audioThread = null;
+        audioHandler = null;
     }
 
 
@@ -65,6 +177,7 @@ public class MusicPlayer {
      * This method fills values in the integer arrays for drumTrackList and noiseTrackList.
      * The integer values refer to audio resource files.
      * The MediaPlayer object can now access those audio files through these integer arrays.
+     * None of the files are opened until a track is played.
      */
     public void prepareTracks()
     {
@@ -86,9 +199,6 @@ public class MusicPlayer {
         noiseTrackList[5] = R.raw.noise_6;
         noiseTrackList[6] = R.raw.noise_7;
         noiseTrackList[7] = R.raw.noise_8;
-
-        //create a dummy MediaPlayer object, just so the variable is not null.
-        musicPlayer = MediaPlayer.create(context, drumTrackList[0]);
     }
 
     /**
@@ -96,13 +206,42 @@ public class MusicPlayer {
      */
     public void shuffleTracks()
     {
-        musicPlayer.release();
+        getAudioHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                releasePlayers();
+
+                currentDrumTrack = 0;
+                currentNoiseTrack = 0;
+
+                shuffleArray(noiseTrackList);
+                shuffleArray(drumTrackList);
+            }
+        });
+    }
 
-        currentDrumTrack = 0;
-        currentNoiseTrack = 0;
+    /**
+     * Release the playing MediaPlayer and the prepared one, if there are any. Only called on the audioThread.
+     */
+    private void releasePlayers()
+    {
+        playingTrack = 0;
+        preparedTrack = 0;
+        if (syncHandler != null)
+        {
+            syncHandler.removeCallbacks(syncPosition);
+        }
 
-        shuffleArray(noiseTrackList);
-        shuffleArray(drumTrackList);
+        if (musicPlayer != null)
+        {
+            musicPlayer.release();
+            musicPlayer = null;
+        }
+        if (nextPlayer != null)
+        {
+            nextPlayer.release();
+            nextPlayer = null;
+        }
     }
 
     /**
@@ -130,10 +269,140 @@ public class MusicPlayer {
      * The OnCompletionListener should tell the next loop to play another track.
      */
     public void playTrack()
+    {
+        getAudioHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                startNextTrack();
+            }
+        });
+    }
+
+    /**
+     * Stop the playing track and start the next one straight away (it is already prepared).
+     */
+    public void skipTrack()
+    {
+        getAudioHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                startNextTrack();
+            }
+        });
+    }
+
+    public void stopMusic()
+    {
+        playMusic = false;
+
+        //If the thread was never started, no music was ever played.
+        if (audioHandler == null)
+        {
+            return;
+        }
+        audioHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releasePlayers();
+            }
+        });
+    }
+
+    /**
+     * Stop whatever is playing, and start the prepared track (or create one, if there isn't one ready).
+     * Only called on the audioThread.
+     */
+    private void startNextTrack()
+    {
+        if (musicPlayer != null)
+        {
+            musicPlayer.release();
+            musicPlayer = null;
+        }
+
+        MediaPlayer player = nextPlayer;
+        int track = preparedTrack;
+        nextPlayer = null;
+        if (player == null)
+        {
+            player = createNextTrack();
+            track = createdTrack;
+        }
+        beginTrack(player, track, true);
+    }
+
+    /**
+     * The playing track has finished. From Jelly Bean on, the prepared track has already taken over by itself.
+     * Only called on the audioThread.
+     * @param finished
+     */
+    private void onTrackFinished(MediaPlayer finished)
+    {
+        finished.release();
+        if (finished == musicPlayer)
+        {
+            musicPlayer = null;
+        }
+
+        MediaPlayer player = nextPlayer;
+        int track = preparedTrack;
+        nextPlayer = null;
+        boolean alreadyStarted = (player != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+        if (player == null)
+        {
+            player = createNextTrack();
+            track = createdTrack;
+        }
+        beginTrack(player, track, !alreadyStarted);
+    }
+
+    /**
+     * Make a track the playing one, and prepare the track after it.
+     * @param player null if the track couldn't be opened, in which case there is simply no music
+     * @param track the resource id of the track
+     * @param start false if the track is already playing
+     */
+    private void beginTrack(MediaPlayer player, int track, boolean start)
+    {
+        musicPlayer = player;
+        if (syncHandler == null)
+        {
+            syncHandler = new Handler();
+        }
+        syncHandler.removeCallbacks(syncPosition);
+        if (player == null)
+        {
+            playingTrack = 0;
+            preparedTrack = 0;
+            return;
+        }
+
+        if (start)
+        {
+            player.start();
+        }
+        player.setOnCompletionListener(completionListener);
+        syncPosition.run();
+        playingTrack = track;
+
+        nextPlayer = createNextTrack();
+        preparedTrack = (nextPlayer == null) ? 0 : createdTrack;
+        if (nextPlayer != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            player.setNextMediaPlayer(nextPlayer);
+        }
+    }
+
+    /**
+     * Create and prepare a MediaPlayer for the next track in the sequence, alternating between drums and noise.
+     * Only called on the audioThread.
+     * @return null if the track can't be opened
+     */
+    private MediaPlayer createNextTrack()
     {
         if (trackSwitcher)
         {
-            musicPlayer = MediaPlayer.create(context, drumTrackList[currentDrumTrack]);
+            createdTrack = drumTrackList[currentDrumTrack];
 
             currentDrumTrack++;
             if (currentDrumTrack >= drumTrackList.length)
@@ -143,7 +412,7 @@ public class MusicPlayer {
         }
         else
         {
-            musicPlayer = MediaPlayer.create(context, noiseTrackList[currentNoiseTrack]);
+            createdTrack = noiseTrackList[currentNoiseTrack];
 
             currentNoiseTrack++;
             if (currentNoiseTrack >= noiseTrackList.length)
@@ -154,29 +423,48 @@ public class MusicPlayer {
 
         trackSwitcher = !trackSwitcher;
 
-        musicPlayer.setVolume(0.047f, 0.047f);
-        musicPlayer.setLooping(false);
-        musicPlayer.start();
-
-        //When the track is over I want the OnCompletionListener to tell the Thread to play another track.
-        musicPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-            public void onCompletion(MediaPlayer mp) {
-
-                musicPlayer.release();
-                playTrack();
-            };
-        });
+        MediaPlayer player = MediaPlayer.create(context, createdTrack);
+        if (player != null)
+        {
+            player.setVolume(0.047f, 0.047f);
+            player.setLooping(false);
+        }
+        return player;
     }
 
-    public void skipTrack()
+    /**
+     * The envelope of the playing track, for making the animation follow the music. Can be called from any thread.
+     * The first time this is called for a track, its envelope (and the prepared track's) is worked out in the background,
+     * so it is usually ready by the time the prepared track starts.
+     * @return null if there's no music, or the envelope isn't ready yet
+     */
+    public AudioEnvelope getPlayingEnvelope()
     {
-        musicPlayer.release();
-        playTrack();
+        int track = playingTrack;
+        if (track == 0)
+        {
+            return null;
+        }
+
+        AudioEnvelope envelope = envelopeCache.get(track);
+        if (envelope == null)
+        {
+            envelopeCache.request(track);
+        }
+        int prepared = preparedTrack;
+        if (prepared != 0)
+        {
+            envelopeCache.request(prepared);
+        }
+        return envelope;
     }
 
-    public void stopMusic()
+    /**
+     * How far the playing track has got, in milliseconds. Can be called from any thread.
+     * @return
+     */
+    public long getPlayingPosition()
     {
-        playMusic = false;
-        musicPlayer.release();
+        return SystemClock.uptimeMillis() - playingSince;
     }
 }
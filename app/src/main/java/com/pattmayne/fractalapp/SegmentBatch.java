@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.pattmayne.fractalapp.engine.SegmentSink;
+
+/**
+ * This class collects line segments so they can all be drawn with a single Canvas.drawLines call,
+ * instead of calling Canvas.drawLine once for every segment.
+ *
+ * Every segment takes four floats in the vertex array (startX, startY, endX, endY),
+ * which is exactly the layout that drawLines expects.
+ * The array is allocated once and reused every time the batch is flushed.
+ *
+ * The batch also remembers the smallest rectangle containing every segment added since resetBounds was called,
+ * so only that part of the screen needs to be updated.
+ */
+public class SegmentBatch implements SegmentSink {
+
+    private float[] vertices;
+
+    //How many floats of the vertex array are currently used (four per segment).
+    private int vertexCount = 0;
+
+    //The rectangle around every segment added since the last resetBounds.
+    //When nothing has been added, left is greater than right.
+    private float boundsLeft;
+    private float boundsTop;
+    private float boundsRight;
+    private float boundsBottom;
+
+
+    /**
+     * Constructor
+     * @param segmentCapacity how many segments the batch should hold before it needs to grow
+     */
+    public SegmentBatch(int segmentCapacity)
+    {
+        vertices = new float[segmentCapacity * 4];
+        resetBounds();
+    }
+
+    /**
+     * Add one line segment to the batch.
+     * @param startX
+     * @param startY
+     * @param endX
+     * @param endY
+     */
+    @Override
+    public void addSegment(float startX, float startY, float endX, float endY)
+    {
+        if (vertexCount + 4 > vertices.length)
+        {
+            float[] bigger = new float[Math.max(4, vertices.length * 2)];
+            System.arraycopy(vertices, 0, bigger, 0, vertexCount);
+            vertices = bigger;
+        }
+
+        vertices[vertexCount] = startX;
+        vertices[vertexCount + 1] = startY;
+        vertices[vertexCount + 2] = endX;
+        vertices[vertexCount + 3] = endY;
+        vertexCount += 4;
+
+        boundsLeft = Math.min(boundsLeft, Math.min(startX, endX));
+        boundsRight = Math.max(boundsRight, Math.max(startX, endX));
+        boundsTop = Math.min(boundsTop, Math.min(startY, endY));
+        boundsBottom = Math.max(boundsBottom, Math.max(startY, endY));
+    }
+
+    public int getSegmentCount()
+    {
+        return vertexCount / 4;
+    }
+
+    /**
+     * Draw every segment in the batch with one drawLines call, in the paint's current color,
+     * then empty the batch so it can collect the next group of segments.
+     * @param canvas
+     * @param paint
+     */
+    public void flush(Canvas canvas, Paint paint)
+    {
+        if (vertexCount > 0)
+        {
+            canvas.drawLines(vertices, 0, vertexCount, paint);
+        }
+        vertexCount = 0;
+    }
+
+    /**
+     * Start measuring a new bounding rectangle. This doesn't affect the segments waiting to be drawn.
+     */
+    public void resetBounds()
+    {
+        boundsLeft = Float.POSITIVE_INFINITY;
+        boundsTop = Float.POSITIVE_INFINITY;
+        boundsRight = Float.NEGATIVE_INFINITY;
+        boundsBottom = Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Put the rectangle around every segment added since resetBounds into the given Rect,
+     * grown by a margin (for the stroke width) and rounded outwards to whole pixels.
+     * @param rect
+     * @param margin
+     * @return false if no segments have been added, in which case the Rect is left alone
+     */
+    public boolean getBounds(Rect rect, float margin)
+    {
+        if (boundsLeft > boundsRight)
+        {
+            return false;
+        }
+
+        rect.set((int) Math.floor(boundsLeft - margin), (int) Math.floor(boundsTop - margin),
+                (int) Math.ceil(boundsRight + margin), (int) Math.ceil(boundsBottom + margin));
+        return true;
+    }
+
+    /**
+     * Forget all the segments without drawing them.
+     */
+    public void clear()
+    {
+        vertexCount = 0;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Process;
+import android.util.Log;
+
+import com.pattmayne.fractalapp.engine.CommandQueue;
+import com.pattmayne.fractalapp.engine.Sonifier;
+import com.pattmayne.fractalapp.engine.Synth;
+
+/**
+ * This class plays sound made from the animation, alongside (or instead of) the MusicPlayer's tracks.
+ *
+ * The animation thread hands what it has drawn to the Sonifier, which offers notes and filter sweeps to a CommandQueue.
+ * The SynthPlayer's own thread drains that queue inside Synth.render, and writes the samples to a streaming AudioTrack.
+ * Neither thread ever waits for the other: the only place the audio thread waits is AudioTrack.write,
+ * which returns as soon as the device has room for the next buffer.
+ *
+ * The AudioTrack (and its thread) only exists while the synth is on.
+ * start and stop are called on the UI thread, and the Sonifier is only used on the animation thread.
+ */
+public class SynthPlayer {
+
+    private static final String TAG = "SynthPlayer";
+
+    public static final int SAMPLE_RATE = 22050;
+
+    //About a dozen milliseconds of sound in each buffer the synth renders
+    private static final int BUFFER_SAMPLES = 256;
+
+    //The AudioTrack holds at least this many buffers, so a late wake-up of the audio thread doesn't run it dry.
+    private static final int TRACK_BUFFERS = 4;
+
+    //Several seconds of events at the rate the animations offer them
+    private static final int EVENT_CAPACITY = 256;
+
+    //How long stop waits for the audio thread to finish its buffer, in milliseconds
+    private static final long STOP_TIMEOUT_MILLIS = 500;
+
+    private final Synth synth;
+    private final Sonifier sonifier;
+
+    private volatile boolean playing = false;
+
+    //Only used on the UI thread
+    private Thread audioThread;
+
+
+    /**
+     * Constructor. Nothing is played (and no thread is started) until start is called.
+     */
+    public SynthPlayer()
+    {
+        CommandQueue events = new CommandQueue(EVENT_CAPACITY);
+        synth = new Synth(SAMPLE_RATE, events);
+        sonifier = new Sonifier(events);
+    }
+
+    /**
+     * Whether the animation should feed the Sonifier. Can be called from any thread.
+     * @return
+     */
+    public boolean isPlaying()
+    {
+        return playing;
+    }
+
+    /**
+     * Only use this on the animation thread, and only while isPlaying, so the queue never has more than one producer.
+     * @return
+     */
+    public Sonifier getSonifier()
+    {
+        return sonifier;
+    }
+
+    /**
+     * Start the audio thread, unless it is already playing.
+     */
+    public void start()
+    {
+        if (playing)
+        {
+            return;
+        }
+        if (audioThread != null && audioThread.isAlive())
+        {
+            //The last thread didn't stop in time, and two threads can't share the synth.
+            Log.w(TAG, "The audio thread is still finishing");
+            return;
+        }
+        playing = true;
+
+        audioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                play();
+            }
+        }, TAG);
+        audioThread.start();
+    }
+
+    /**
+     * Stop the sound, and wait a moment for the audio thread to finish its last buffer.
+     * If it takes longer than that, the synth can't be started again until it has.
+     */
+    public void stop()
+    {
+        playing = false;
+        if (audioThread == null)
+        {
+            return;
+        }
+
+        try
+        {
+            audioThread.join(STOP_TIMEOUT_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void toggle()
+    {
+        if (playing)
+        {
+            stop();
+        }
+        else
+        {
+            start();
+        }
+    }
+
+    /**
+     * The audio thread's loop. Renders one buffer at a time until stop is called.
+     */
+    private void play()
+    {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        int minBufferBytes = AudioTrack.getMinBufferSize(SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC, SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBufferBytes, BUFFER_SAMPLES * 2 * TRACK_BUFFERS), AudioTrack.MODE_STREAM);
+        if (track.getState() != AudioTrack.STATE_INITIALIZED)
+        {
+            Log.w(TAG, "Can't open an AudioTrack");
+            track.release();
+            playing = false;
+            return;
+        }
+
+        short[] buffer = new short[BUFFER_SAMPLES];
+        try
+        {
+            track.play();
+            while (playing)
+            {
+                synth.render(buffer, 0, buffer.length);
+                track.write(buffer, 0, buffer.length);
+            }
+        }
+        finally
+        {
+            track.stop();
+            track.release();
+        }
+    }
+}
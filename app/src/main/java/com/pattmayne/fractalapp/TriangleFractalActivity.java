@@ -96,6 +96,18 @@ public class TriangleFractalActivity extends ActionBarActivity {
         } else if (id == R.id.triangle_toggle_equilateral) {
             triangleFractalView.toggleEquilateral();
             return true;
+        } else if (id == R.id.triangle_timed_mode) {
+            triangleFractalView.toggleTimed();
+            return true;
+        } else if (id == R.id.toggle_frame_stats) {
+            triangleFractalView.toggleFrameStats();
+            return true;
+        } else if (id == R.id.toggle_audio_reactive) {
+            triangleFractalView.toggleAudioReactive();
+            return true;
+        } else if (id == R.id.toggle_synth) {
+            triangleFractalView.toggleSynth();
+            return true;
         } else if (id == R.id.toggle_music)
         {
             triangleFractalView.toggleMusic();
@@ -112,7 +124,8 @@ public class TriangleFractalActivity extends ActionBarActivity {
     public void onPause() {
         super.onPause();
         triangleFractalView.stopMusic();
-        finish();
+        //The animation waits where it is, so coming back to the app carries on from there.
+        triangleFractalView.onPause();
     }
 
     @Override
@@ -120,12 +133,22 @@ public class TriangleFractalActivity extends ActionBarActivity {
     {
         super.onDestroy();
         triangleFractalView.stopMusic();
-        finish();
+        triangleFractalView.release();
+    }
+
+    /**
+     * The bitmaps waiting in the pool can be allocated again when they are needed.
+     */
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        BitmapPool.getShared().clear();
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        triangleFractalView.onResume();
     }
 
     @Override
@@ -138,6 +161,5 @@ public class TriangleFractalActivity extends ActionBarActivity {
     {
         super.onStop();
         triangleFractalView.stopMusic();
-        finish();
     }
 }
@@ -18,36 +18,39 @@
 package com.pattmayne.fractalapp;
 
 import android.content.Context;
-import android.media.MediaPlayer;
 import android.util.AttributeSet;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
+import android.util.Log;
 import android.view.MotionEvent;
 
-import java.util.Random;
-import java.util.ArrayList;
+import com.pattmayne.fractalapp.engine.AudioEnvelope;
+import com.pattmayne.fractalapp.engine.CommandQueue;
+import com.pattmayne.fractalapp.engine.FrameScheduler;
+import com.pattmayne.fractalapp.engine.FrameStats;
+import com.pattmayne.fractalapp.engine.RenderScale;
+import com.pattmayne.fractalapp.engine.TriangleScene;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Matt on 2014-10-11.
  * This class creates a surface to draw on, then draws triangles-within-triangles which grow larger (or smaller) with each repeating iteration in a running Thread.
- * When the triangles get to a certain size they are released from the ArrayList of triangle-objects, and a new one is created.
- *
- * I've created the options for two different kinds of triangles, with varying speeds and spin-rates, plus weird options for "crazy mode" and "seizure mode."
  *
- * This class contains two inner classes: a RightTriangle class for right-angled triangle objects,
- * and an EquilateralTriangle class for equilateral triangles.
+ * The triangles themselves (their sizes, colors, spin and all the different modes) are worked out by a TriangleScene
+ * from the engine module, which doesn't know anything about Android.
+ * This class only paints what the scene hands it onto a Canvas (all at once, through a TriangleMesh), controls the speed of the animation, and plays the music.
  *
- * The Triangles are drawn by creating circles and calculating three points along those circles which are the corners of the triangles.
- * The animation logic results from incrementing the size of the circles, and altering the angles of the points along the circles.
+ * The menu and the touchscreen are handled on the UI thread, but the scene is only ever changed by the animation thread.
+ * So every change is put in a CommandQueue, and the animation thread carries them all out at the beginning of each iteration.
  */
 public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Callback {
 
+    private static final String TAG = "TriangleFractalView";
 
     //PERMANENT and universal variables
 
@@ -55,119 +58,108 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
     //This canvas, bitmap, and Matrix are external to the SurfaceView's automatically created canvas.
     //We need this extra canvas and bitmap to draw on and manipulate, which WON'T be cleared after each loop,
     // and then we paste this bitmap onto the SurfaceView's default canvas after every iteration.
+    //The bitmap comes from the shared BitmapPool, and goes back to it in release() when the activity is destroyed.
+    //It is kept while the surface is destroyed and created again, so the animation carries on where it left off.
     private Bitmap activeBitmap;
     private Canvas activeCanvas;
-    private Matrix identityMatrix;
+    private Bitmap.Config bitmapConfig;
+
+    //The activeBitmap can have fewer pixels than the screen (see RenderScale).
+    //The scene always works in screen coordinates: the renderMatrix shrinks everything drawn on the activeCanvas to fit
+    //the activeBitmap, and the blitMatrix stretches the activeBitmap back over the whole screen.
+    //Touches are in screen coordinates too, so they go straight to the scene.
+    //The render scale, the matrices and the surface size are only used on the animation thread (after makeThread).
+    private RenderScale renderScale;
+    private Matrix renderMatrix;
+    private Matrix blitMatrix;
+    private Paint blitPaint;
+    private int surfaceWidth;
+    private int surfaceHeight;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
 
     private SurfaceHolder surfaceHolder;
-    private Random randomizer;
     private TriangleThread thread;
 
-    private float canvasHeight;
-    private float canvasWidth;
+    //The thread lives as long as the view, and only draws while there is a surface and the activity is in the foreground.
+    //(Both flags are only used on the UI thread.)
+    private boolean surfaceReady = false;
+    private boolean visible = false;
+
+    //How long the UI thread waits for the animation thread to finish a frame (when pausing) or to end (when released).
+    private static final long THREAD_TIMEOUT_MILLIS = 1000;
 
     private Context thisContext;
     private Paint paint;
 
-    private int[] colors = {0xffe1e1e1, 0xff000000, 0xff635ea7, 0xfff78e00, 0xffff1800, 0xffeae000, 0xffff5a88, 0xff33823a};
-    private int[] seizureColors = {Color.YELLOW,Color.YELLOW,0xffFF69B4,0xffFF69B4,0xff6B8E23,0xff6B8E23};
-
-    private int colorTicker = 0;
-    private int seizureColorTicker=0;
-
-
-    //Universal (equilateral OR right-angled) Changeable variables
-    //Includes mode-changers
+    //The triangles, and everything the menu can change about them.
+    private TriangleScene scene;
 
+    //Collects every triangle the scene hands over, then paints them all onto the activeCanvas in one go.
+    private TriangleMesh triangleMesh;
 
-    //these two center variables will always be the center of the circle within which the triangles are drawn.
-    private float centerX;
-    private float centerY;
-
-    private boolean firstIteration = true;
-    private int iterations = 1;
-
-    //The actual spin is decided by dividing the iterations by the "spin" variable... so a lower spin means faster actual spin...
-    //For zero spin I use (spin = iterations) in the algorithm.
-    private int[] spinPhaseArray = {2, 5, 11, 29, 41, 57};
-    private int spinPhaseSelector = 3;
-    private double spin = spinPhaseArray[spinPhaseSelector];
-    private boolean noSpin = false;
-    private boolean resetNoSpin = false;
-    private boolean spinChange = false;
-    private int newSpin = 0;
-
-    //The "antiSpeed" integer is how long the Thread waits before redrawing the next iteration.
+    //The "antiSpeed" integer is how long each iteration lasts, in milliseconds, from the start of one to the start of the next.
     //So a high antiSpeed integer causes a slow animation (that's why it's called "antiSpeed" instead of simply "speed").
+    //The frameScheduler subtracts the time spent drawing, so the animation runs at the same rate however many triangles there are.
     private int[] antiSpeedPhaseArray = {1, 9, 19, 29, 50, 90, 200, 500};
     private int antiSpeedPhaseSelector = 2;
     private int antiSpeed = antiSpeedPhaseArray[antiSpeedPhaseSelector];
-
-    private boolean eraseCanvas = true;
-    private boolean fill = true;
-
-    private boolean crazyMode = false;
-    private boolean seizureMode = false;
-    private boolean reverse = false;
-    private boolean reset = false;
-    private boolean equilateral = true;
-    private boolean equilateralReset = false;
-
-    private double accumulatedAngle = 1;
-    private double newAngle = 0;
-
-
-    //Changeable variables for the equilateral triangles
-
-
-    //The three corner-points for every triangle
-    private double x1;
-    private double y1;
-
-    private double x2;
-    private double y2;
-
-    private double x3;
-    private double y3;
-
-    private boolean equilateralRatioTicker = false;
-
-    private int baseRadius = 1;
-
-    //There will usually be many triangles on the screen, from smallest to largest. This ArrayList holds them all (if they are equilaterals).
-    private ArrayList<EquilateralTriangle> activeEquilateralTriangles;
-
-    //Equilateral ratioList.
-    //There are only two numbers, because these equilateral triangles only have two opposite phases... north and south.
-    //So each new EquilateralTriangle object can be upside down relative to the two triangles preceding and succeeding it.
-    private double[] equilateralRatioList = {2.0/3.0, 1.0/3.0};
-
-
-    //Changeable variables for the right-angled triangles
-
-
-    //There will usually be many triangles on the screen, from smallest to largest. This ArrayList holds them all (if they are right-angled).
-    private ArrayList<RightTriangle> activeRightTriangles;
-
-    //Four variables for four phases of the right-angled triangles... east, west, south, north.
-    private double[] rightRatioList = {0.5, 1.0, 1.5, 2.0};
-    private int rightRatioTicker=0;
-
-    //Three corner-points for the triangle
-    private float rx1;
-    private float ry1;
-
-    private float rx2;
-    private float ry2;
-
-    private float rx3;
-    private float ry3;
+    private FrameScheduler frameScheduler;
+
+    //Times each stage of every frame. Every few seconds the times are written to the log (at DEBUG level),
+    //and they can be shown on top of the animation from the menu.
+    private static final int FRAME_STATS_INTERVAL = 5000;
+    private FrameStats frameStats;
+    private FrameStatsOverlay frameStatsOverlay;
+    private boolean showFrameStats = false;
+
+    //Measures how long the screen takes to show its first frame.
+    private FirstFrameTimer firstFrameTimer;
+
+    //Every change the user asks for waits here until the beginning of the next iteration.
+    //Touches stop being queued once there is only room for TOUCH_RESERVE more commands, so there's always room for the menu.
+    private static final int COMMAND_CAPACITY = 64;
+    private static final int TOUCH_RESERVE = 16;
+    private CommandQueue commandQueue;
+    private CommandQueue.Consumer commandConsumer;
+
+    //The newest surface size, width in the top 32 bits and height in the bottom 32, or NO_RESIZE.
+    //It isn't queued like the other commands, because a full queue would lose it, and the bitmap would never match the surface again.
+    //Only the newest size matters, so the render thread takes it at the start of every frame.
+    private static final long NO_RESIZE = -1;
+    private final AtomicLong pendingSize = new AtomicLong(NO_RESIZE);
+
+    //The commands
+    private static final int TOGGLE_ERASE = 1;
+    private static final int TOGGLE_FILL = 2;
+    private static final int TOGGLE_REVERSE = 3;
+    private static final int TOGGLE_EQUILATERAL = 4;
+    private static final int TOGGLE_CRAZY = 5;
+    private static final int TOGGLE_SEIZURE_MODE = 6;
+    private static final int FASTER = 7;
+    private static final int SLOWER = 8;
+    private static final int RESET_CANVAS = 9;
+    private static final int TOGGLE_FRAME_STATS = 10;
+    private static final int MORE_SPIN = 11;
+    private static final int LESS_SPIN = 12;
+    private static final int CHANGE_CENTER = 13;
+    private static final int TOGGLE_TIMED = 14;
+    private static final int TOGGLE_AUDIO_REACTIVE = 16;
 
     //Variables to control the music
 
     private MusicPlayer musicPlayer;
     private boolean playMusic = false;
 
+    //Plays sound made from the animation. The animation thread only feeds it while it is on.
+    private SynthPlayer synthPlayer;
+
+    //In audio-reactive mode, the speed follows the envelope of the playing track (only used on the animation thread).
+    //Silence runs at MIN_MUSIC_DRIVE times the chosen speed, the loudest part of a track one more than that,
+    //and a beat adds up to one more again.
+    private static final float MIN_MUSIC_DRIVE = 0.5f;
+    private boolean audioReactive = false;
+
 
 //Multiple constructors:
 
@@ -199,732 +191,253 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
         surfaceHolder.addCallback(this);
         setFocusable(true);
         makeThread();
+        surfaceReady = true;
+        updateDrawing();
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder,
                                int format, int width, int height) {
+        //The animation thread is drawing on the activeBitmap, so it swaps it for one of the new size itself.
+        pendingSize.set(((long) width << 32) | (height & 0xffffffffL));
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        boolean retry = true;
-        while (retry) {
-            try{
-                thread.join();
-                retry = false;
-            } catch (InterruptedException e){}
-        }
+        //The surface can't be drawn on once this method returns, so wait for the thread to finish its frame.
+        surfaceReady = false;
+        updateDrawing();
     }
 
     /**
      * This creates the thread which runs the triangle animation. It also sets up the canvas, Matrix, and bitmaps.
      * This method is initially called by the SurfaceHolder's onCreate method.
+     * When the surface is created again (after the app has been in the background), the same thread and bitmap
+     * are kept, so the animation carries on where it left off.
+     * The bitmap is taken from the BitmapPool, so a new activity doesn't necessarily allocate a new one.
      */
     public void makeThread() {
-        activeBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-        //activeCanvas is NOT the SurfaceView's default canvas,
-        //it is the canvas which we will manipulate and draw on.
-        activeCanvas = new Canvas();
-        activeCanvas.setBitmap(activeBitmap);
-        identityMatrix = new Matrix();
-
-        thread = new TriangleThread(getHolder(), this);
-        thread.setRunning(true);
-        thread.start();
-    }
-
-    /**
-     * This method is called when a TriangleFractalView is first created.
-     * It sets up many of the objects required for the animation-logic.
-     */
-    private void initializeVariables()
-    {
-        musicPlayer = new MusicPlayer(thisContext);
-        randomizer = new Random();
-
-        paint = new Paint();
-        paint.setStrokeWidth(155);
-
-        surfaceHolder = getHolder();
-        surfaceHolder.addCallback(this);
-        setFocusable(true);
-
-        activeRightTriangles = new ArrayList<RightTriangle>();
-        activeRightTriangles.add(new RightTriangle(baseRadius));
-
-        activeEquilateralTriangles = new ArrayList<EquilateralTriangle>();
-        activeEquilateralTriangles.add(new EquilateralTriangle(equilateralRatioTicker, getEquilateralRatio(), baseRadius));
-    }
-
-
-    //These two inner-classes create objects which store vital information about individual triangles.
-    //I created them within the java file because they're so small, and they're only used locally.
-
-
-    public class EquilateralTriangle
-    {
-        public double piRatio;
-        public double radius;
-        public int color;
-        public boolean whichRatio;
-        //whichRatio refers to this Triangle's ratio's position in the equilateralRatioTicker
-        //This allows me to easily access the next appropriate ratio to follow any existing Triangle
-
-        public EquilateralTriangle(boolean whichRatio, double piRatio, double radius)
-        {
-            this.piRatio = piRatio;
-            this.radius = radius;
-            this.color = colors[colorTicker];
-            this.whichRatio = whichRatio;
-            increaseColorTicker();
+        if (activeBitmap == null) {
+            surfaceWidth = getWidth();
+            surfaceHeight = getHeight();
+            activeBitmap = BitmapPool.getShared().acquire(renderScale.getScaledSize(surfaceWidth),
+                    renderScale.getScaledSize(surfaceHeight), bitmapConfig);
+            //activeCanvas is NOT the SurfaceView's default canvas,
+            //it is the canvas which we will manipulate and draw on.
+            activeCanvas = new Canvas();
+            activeCanvas.setBitmap(activeBitmap);
+            renderMatrix = new Matrix();
+            blitMatrix = new Matrix();
+            setRenderMatrix();
+            setBlitMatrix();
         }
 
-        public void setColor(int newColor)
-        {
-            this.color=newColor;
+        if (thread == null) {
+            thread = new TriangleThread(getHolder(), this, frameScheduler);
+            thread.start();
         }
     }
 
     /**
-     * This right-angled triangle works a little differently, carrying around his three piRatio numbers,
-     * to show which direction to draw the hypotenuse.
+     * Call this from the activity's onResume.
      */
-    public class RightTriangle
-    {
-        public double radius;
-        public int color;
-        public double[] piRatio = {0,0,0};
-        public int whichRatio;
-
-        public RightTriangle(double radius)
-        {
-            this.radius = radius;
-            this.color = colors[colorTicker];
-            setPiRatios();
-
-            increaseColorTicker();
-        }
-
-        public void setPiRatios()
-        {
-            this.whichRatio = rightRatioTicker;
-            double x = getRightRatio();
-            double y = getRightRatio();
-            double z = getRightRatio();
-            piRatio = new double[]{x,y,z};
-        }
+    public void onResume() {
+        visible = true;
+        updateDrawing();
     }
 
-
     /**
-     * This is the primary method of the animation. It is repeatedly called by the Thread.
-     * This method calls for triangles to be drawn, and initiates calculations for where they should be drawn.
-     * The animation logic descends from this method.
-     * @param canvas
+     * Call this from the activity's onPause. The animation stops where it is, and carries on from there in onResume.
      */
-    public void onDrawSomething(Canvas canvas)
-    {
-        //There are so many conditional/optional functions for each iteration,
-        //that I decided to create a separate method to contain them, for the sake of readability.
-        //(some conditionals remain in the onDrawSomething method, because of their importance).
-        loopConditionals(canvas);
-
-        //Which kind of Triangle are we drawing?
-        if(equilateral) {
-            setupEquilaterals();
-        } else {
-            setupRights();
-        }
-
-        iterations++;
-
-        //The previous method calls have drawn triangles onto the activeCanvas.
-        //Now we need to transfer that information onto the SurfaceView's (TriangleFractalView's) default canvas.
-        canvas.drawBitmap(activeBitmap, identityMatrix, null);
-        surfaceHolder.unlockCanvasAndPost(canvas);
-
-        try {thread.sleep(antiSpeed);} catch (InterruptedException e) {}
-
-        if(equilateralReset)
-        {
-            //if the user has selected to change between right/equilateral
-            doEquilateralReset();
-        }
+    public void onPause() {
+        synthPlayer.stop();
+        visible = false;
+        updateDrawing();
     }
 
-    //These next few methods draw the triangles, then calculate their new locations for the next iteration.
-
     /**
-     * If we're dealing with equilateral triangles, this method directs the algorithm towards logic that
-     * either makes the triangles bigger or smaller.
+     * Call this from the activity's onDestroy. It ends the animation thread and gives the bitmap back to the BitmapPool.
      */
-    public void setupEquilaterals()
-    {
-        if (reverse == false) {
-            drawForwardEquilaterals();
-        } else {
-            drawReverseEquilaterals();
-        }
-    }
+    public void release() {
+        musicPlayer.release();
 
-    /**
-     * If we're dealing with right-angle triangles, this method directs the algorithm towards logic that
-     * either makes the triangles bigger or smaller.
-     */
-    public void setupRights()
-    {
-        if (reverse == false) {
-            drawForwardRights();
-        } else {
-            drawReverseRights();
-        }
-    }
-
-    /**
-     * This method takes the ArrayList of Active Equilateral Triangles, draws each one, and changes them for the next iteration.
-     */
-    private void drawForwardEquilaterals()
-    {
-        for (int i=0; i<activeEquilateralTriangles.size(); i++)
-        {
-            EquilateralTriangle currentTriangle = activeEquilateralTriangles.get(i);
-            drawOneEquilateralTriangle(currentTriangle.radius, Math.PI * currentTriangle.piRatio, currentTriangle.color);
-            changeEquilateralTriangle(currentTriangle);
-        }
-
-        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
-        if (activeEquilateralTriangles.get(activeEquilateralTriangles.size()-1).radius >= 2)
-        {
-            activeEquilateralTriangles.add(new EquilateralTriangle(equilateralRatioTicker, getEquilateralRatio(), activeEquilateralTriangles.get(activeEquilateralTriangles.size() - 1).radius / 2));
+        if (thread != null) {
+            if (!thread.stopDrawing(THREAD_TIMEOUT_MILLIS)) {
+                //The thread may still be drawing on the bitmap, so it can't go back in the pool.
+                Log.w(TAG, "The animation thread didn't stop in time");
+                thread = null;
+                return;
+            }
+            thread = null;
         }
 
-        if (activeEquilateralTriangles.get(0).radius>canvasWidth*5 && activeEquilateralTriangles.get(0).radius>canvasHeight*4)
-        {
-            activeEquilateralTriangles.remove(0);
-        }
+        BitmapPool.getShared().release(activeBitmap);
+        activeBitmap = null;
     }
 
     /**
-     * This method takes the ArrayList of Active Equilateral Triangles, draws each one, and changes them for the next iteration.
+     * Let the thread draw if there is a surface to draw on and the activity is in the foreground, otherwise pause it.
      */
-    private void drawReverseEquilaterals()
-    {
-        for (int i=0; i<activeEquilateralTriangles.size(); i++)
-        {
-            EquilateralTriangle currentTriangle = activeEquilateralTriangles.get(i);
-            drawOneEquilateralTriangle(currentTriangle.radius, Math.PI * currentTriangle.piRatio, currentTriangle.color);
-            reverseChangeEquilateralTriangle(currentTriangle);
-        }
-
-        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
-        if (activeEquilateralTriangles.get(activeEquilateralTriangles.size()-1).radius <= 1)
-        {
-            activeEquilateralTriangles.remove(activeEquilateralTriangles.size()-1);
+    private void updateDrawing() {
+        if (thread == null) {
+            return;
         }
 
-        if (activeEquilateralTriangles.get(0).radius<canvasWidth*3 && activeEquilateralTriangles.get(0).radius<canvasHeight*3)
-        {
-            activeEquilateralTriangles.add(0, new EquilateralTriangle(equilateralRatioTicker, getEquilateralRatio(),activeEquilateralTriangles.get(0).radius*2));
+        if (surfaceReady && visible) {
+            thread.resumeDrawing();
+        } else if (!thread.pauseDrawing(THREAD_TIMEOUT_MILLIS)) {
+            Log.w(TAG, "The animation thread didn't pause in time");
         }
     }
 
     /**
-     * This method takes the ArrayList of Active Right-Angled Triangles, draws each one, and changes them for the next iteration.
+     * Called by the animation thread before its first frame after being paused.
      */
-    private void drawForwardRights()
-    {
-        for (int i=0; i<activeRightTriangles.size(); i++)
-        {
-            RightTriangle currentTriangle = activeRightTriangles.get(i);
-            drawOneRightTriangle(currentTriangle);
-            changeRightTriangle(currentTriangle);
-        }
-
-        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
-        if (activeRightTriangles.get(activeRightTriangles.size()-1).radius >=2)
-        {
-            activeRightTriangles.add(new RightTriangle(activeRightTriangles.get(activeRightTriangles.size()-1).radius / 1.5));
-        }
-
-        if (activeRightTriangles.get(0).radius > (canvasWidth+canvasHeight)*4)
-        {
-            activeRightTriangles.remove(0);
-        }
+    public void onDrawingResumed() {
+        //In timed mode, the time spent paused shouldn't move the triangles.
+        scene.restartClock();
     }
 
     /**
-     * This method takes the ArrayList of Active Right-Angled Triangles, draws each one, and changes them for the next iteration.
-     */
-    private void drawReverseRights()
-    {
-        for (int i=0; i<activeRightTriangles.size(); i++)
-        {
-            RightTriangle currentTriangle = activeRightTriangles.get(i);
-            drawOneRightTriangle(currentTriangle);
-            reverseChangeRightTriangle(currentTriangle);
-        }
-
-        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
-        if (activeRightTriangles.get(activeRightTriangles.size()-1).radius <= 1)
-        {
-            activeRightTriangles.remove(activeRightTriangles.size() - 1);
-        }
-
-        if (activeRightTriangles.get(0).radius < canvasWidth*3 && activeRightTriangles.get(0).radius < canvasHeight*3)
-        {
-            activeRightTriangles.add(0, new RightTriangle(canvasHeight * 3));
-        }
-    }
-
-    /**
-     * This method is called for every individual Right-Angled triangle that needs to be drawn.
-     * So this method will be called a number of times for every iteration (if the equilateral boolean is false).
-     *
-     * Here, we use a diameter to define a circle. Then we create three points along that circle which become the triangle's corners.
-     * The diameter and phase (pole) of each triangle is contained in the triangle object itself.
-     * This method retrieves that information and calculates where the triangle should be drawn on the canvas.
-     *
-     * This method is called regardless of whether the triangles are growing smaller or larger.
-     * @param thisTriangle
-     */
-    private void drawOneRightTriangle(RightTriangle thisTriangle)
-    {
-        double diameter = thisTriangle.radius * 2.0;
-        int triangleColor = thisTriangle.color;
-
-        if(!noSpin)
-        {
-            //newAngle represents how much to spin the triangle.
-            newAngle = iterations/spin;
-        }
-
-        double ratio1 = thisTriangle.piRatio[0];
-        double ratio2 = thisTriangle.piRatio[1];
-        double ratio3 = thisTriangle.piRatio[2];
-
-        // The vital code.
-        // Calculating the x,y position for each point of right angled triangles:
-        // The three points of the triangle are a certain distance (diameter) from the arbitrary "center,"
-        // at a certain angle which is based on the piRatio, spin, and accumulated spin.
-        if(!crazyMode) {
-            rx1 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio1) - accumulatedAngle - newAngle));
-            ry1 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio1) - accumulatedAngle - newAngle));
-
-            rx2 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio2) - accumulatedAngle - newAngle));
-            ry2 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio2) - accumulatedAngle - newAngle));
-
-            rx3 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio3) - accumulatedAngle - newAngle));
-            ry3 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio3) - accumulatedAngle - newAngle));
-
-        } else {
-            //Crazy-Mode is just weird logic, which is probably not fractal, but which makes a cool animation.
-            rx1 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio1 + newAngle)));
-            ry1 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio1/1.1) - (newAngle-1)/randomizer.nextInt()));
-
-            rx2 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio2/iterations) - accumulatedAngle + newAngle));
-            ry2 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio2/(newAngle+1))));
-
-            rx3 = (float) (centerX + diameter * Math.sin(Math.PI * (ratio3) - ((newAngle=0.25) / randomizer.nextInt())));
-            ry3 = (float) (centerY + diameter * Math.cos(Math.PI * (ratio3/iterations - accumulatedAngle - newAngle)));
-          }
-
-        paint.setColor(triangleColor);
-        paint.setStrokeWidth(1);
-
-        //The logic is done. Now simply draw the triangles.
-        Path visibleTriangle = new Path();
-        visibleTriangle.moveTo(rx1,ry1);
-        visibleTriangle.lineTo(rx2,ry2);
-        visibleTriangle.lineTo(rx3,ry3);
-        visibleTriangle.lineTo(rx1,ry1);
-        visibleTriangle.close();
-
-        activeCanvas.drawPath(visibleTriangle, paint);
-
-        if(spinChange)
-        {
-            //onSpinChange() saves the current orientation of the triangle inside its circle, so the spin speed can change smoothly
-            //(saves the orientation to "accumulatedAngle")
-            onSpinChange();
-        }
-
-        //newAngle must always be reset to zero so it can be calculated fresh for each iteration.
-        newAngle=0;
-    }
-
-    /**
-     * This method is called for every individual equilateral triangle that needs to be drawn.
-     * So this method will be called a number of times for every iteration (if the equilateral boolean is false).
-     *
-     * Here, we use a diameter to define a circle. Then we create three points along that circle which become the triangle's corners.
-     * The diameter and phase (pole) of each triangle is contained in the triangle object itself.
-     * This method retrieves that information and calculates where the triangle should be drawn on the canvas.
-     *
-     * This method is called regardless of whether the triangles are growing smaller or larger.
-     * @param currentRadius
-     * @param currentAngle
-     * @param triangleColor
+     * This method is called when a TriangleFractalView is first created.
+     * It sets up many of the objects required for the animation-logic.
      */
-    private void drawOneEquilateralTriangle(double currentRadius, double currentAngle, int triangleColor)
+    private void initializeVariables()
     {
-        double radius = currentRadius;
-        double diameter = radius*2;
+        firstFrameTimer = new FirstFrameTimer(TAG);
+        //The MusicPlayer doesn't open any tracks until the music is turned on.
+        musicPlayer = new MusicPlayer(thisContext);
+        synthPlayer = new SynthPlayer();
+        scene = new TriangleScene();
+        scene.setIterationLength(antiSpeed);
+        frameScheduler = new FrameScheduler(antiSpeed);
+        frameStats = new FrameStats(FRAME_STATS_INTERVAL);
+        frameStatsOverlay = new FrameStatsOverlay(getResources().getDisplayMetrics().density);
+
+        commandQueue = new CommandQueue(COMMAND_CAPACITY);
+        commandConsumer = new CommandQueue.Consumer() {
+            @Override
+            public void onCommand(int code, float x, float y) {
+                carryOutCommand(code, x, y);
+            }
+        };
 
+        paint = new Paint();
         paint.setStrokeWidth(1);
 
-        if(!noSpin)
-        {
-            //newAngle represents how much to spin the triangle.
-            newAngle = iterations/spin;
-        }
-
-        // The vital code.
-        // Calculating the x,y position for each point of equilateral triangles.
-        // The three points of the triangle are a certain distance (diameter) from the arbitrary "center,"
-        // at a certain angle which is based on the piRatio, spin, and accumulated spin.
-            x1 = centerX + diameter * Math.sin(Math.PI * (2.0 / 3.0) + accumulatedAngle + newAngle + currentAngle);
-            y1 = centerY + diameter * Math.cos(Math.PI * (2.0 / 3.0) + accumulatedAngle + newAngle + currentAngle);
-
-            x2 = centerX + diameter * Math.sin(Math.PI * (4.0 / 3.0) + accumulatedAngle + newAngle + currentAngle);
-            y2 = centerY + diameter * Math.cos(Math.PI * (4.0 / 3.0) + accumulatedAngle + newAngle + currentAngle);
-
-            x3 = centerX + diameter * Math.sin(Math.PI * (2) + accumulatedAngle + newAngle + currentAngle);
-            y3 = centerY + diameter * Math.cos(Math.PI * (2) + accumulatedAngle + newAngle + currentAngle);
-
-             if(crazyMode) {
-                    //As I tried to find the logic for a right-angle triangle I accidentally created this weird animation.
-                    //I'm keeping it for the final product because it's fun.
-                    //
-                x1 = x1 + diameter * Math.sin(Math.PI * (1.0 / 3.0));
-                y1 = y1 + diameter * Math.cos(Math.PI * (1.0 / 3.1));
-
-                x2 = x2 + diameter * Math.sin(Math.PI * (4.3 / 3.0));
-                y2 = y2 + diameter * Math.cos(Math.PI * (4.0 / iterations));
-
-                x3 = x3 + diameter * Math.sin(Math.PI * (2.1));
-                y3 = y3 + diameter * Math.cos(Math.PI * (1.9));
-             }
-
-        if(spinChange)
-        {
-            //onSpinChange() saves the current orientation of the triangle inside its circle, so the spin speed can change smoothly.
-            //(saves the orientation to "accumulatedAngle")
-            onSpinChange();
-        }
-
-        //newAngle must always be reset to zero so it can be calculated fresh for each iteration.
-        newAngle=0;
-
-        //Convert the doubles into floats which can be drawn onto the canvas.
-        float tx1 = (float) x1;
-        float ty1 = (float) y1;
+        //Nothing is ever see-through on the activeBitmap, so it can use 16-bit pixels if the resources ask for them.
+        bitmapConfig = getResources().getBoolean(R.bool.low_color_bitmaps) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
 
-        float tx2 = (float) x2;
-        float ty2 = (float) y2;
+        renderScale = new RenderScale(getResources().getInteger(R.integer.render_scale_percent) / 100f,
+                getResources().getBoolean(R.bool.auto_render_scale));
+        blitPaint = new Paint();
+        blitPaint.setFilterBitmap(getResources().getBoolean(R.bool.filter_render_scale));
 
-        float tx3 = (float) x3;
-        float ty3 = (float) y3;
+        //There are rarely more than a few dozen triangles on the screen, but the mesh grows if it needs to.
+        triangleMesh = new TriangleMesh(64);
 
-        paint.setColor(triangleColor);
-
-        if(seizureMode)
-        {
-            //Seizure Mode is a horrible visual experience.
-            paint.setColor(colors[colorTicker]);
-            increaseColorTicker();
-        }
-
-        //Paints the actual three lines of the triangle based on the preceding calculations.
-        Path thisTriangle = new Path();
-        thisTriangle.moveTo(tx1,ty1);
-        thisTriangle.lineTo(tx2,ty2);
-        thisTriangle.lineTo(tx3,ty3);
-        thisTriangle.lineTo(tx1,ty1);
-        thisTriangle.close();
-
-        activeCanvas.drawPath(thisTriangle, paint);
+        surfaceHolder = getHolder();
+        surfaceHolder.addCallback(this);
+        setFocusable(true);
     }
 
 
-
-    //These next few methods are conditionals, called from somewhere in the loop when they are needed
-
     /**
-     * Every time the onDrawSomething method is called, there are several conditional functions that need to be checked.
-     * This method contains most of those functions.
-     *
-     * If the user presses a button which requests an alteration to the animation,
-     * the method which alters the animation will not be called immediately because that could crash the algorithm.
-     * Certain conditions must remain the same for the life of an iteration.
-     * Instead, when a user requests a change, a boolean is immediately set so that on the beginning of the next iteration,
-     * these conditionals will make the appropriate change before the calculations and drawings begin.
+     * This is the primary method of the animation. It is repeatedly called by the Thread.
+     * First it carries out every change the user asked for since the last iteration.
+     * Then the scene decides whether to clear the canvas,
+     * then hands over every triangle to be drawn onto the activeCanvas, and moves on to the next iteration.
      * @param canvas
      */
-    public void loopConditionals(Canvas canvas)
+    public void onDrawSomething(Canvas canvas)
     {
-        //If the user has requested that the canvas be reset.
-        if(reset==true)
-        {
-            resetConditions();
-        }
+        frameStats.startStage();
 
-        //If it's the first iteration of the animation, or if we want to re-create the conditions of a first iteration.
-        if(firstIteration)
+        takePendingResize();
+        commandQueue.drain(commandConsumer);
+        if (audioReactive)
         {
-            firstIteration(canvas);
-        }
-
-        if (eraseCanvas == true && seizureMode==false) {
-            activeCanvas.drawColor(0xff1e90ff);
+            followMusic();
         }
 
-        if (seizureMode==true)
+        //In timed mode the scene moves the triangles by the time since the last frame.
+        scene.setFrameTime(System.nanoTime());
+        int clearColor = scene.beginFrame(canvas.getWidth(), canvas.getHeight());
+        if (clearColor != TriangleScene.NO_CLEAR)
         {
-            doSeizureStuff();
+            frameStats.endStage(FrameStats.GEOMETRY);
+            activeCanvas.drawColor(clearColor);
+            frameStats.endStage(FrameStats.RASTER);
         }
 
-        if(fill==false)
+        boolean fill = scene.isFill();
+        scene.drawTriangles(triangleMesh);
+        if (synthPlayer.isPlaying())
         {
-            paint.setStyle(Paint.Style.STROKE);
+            synthPlayer.getSonifier().onTriangles(scene);
         }
-        else
-        {
-            paint.setStyle(Paint.Style.FILL);
-        }
-    }
+        scene.advance();
+        frameStats.endStage(FrameStats.GEOMETRY);
 
-    /**
-     * If the user has requested to reset the canvas, this method will be called.
-     */
-    private void resetConditions()
-    {
-        if(reverse)
-        {
-            resetCanvas();
-        }
-        else
-        {
-            if(equilateral) {
-                getCorrectEquilateralRatio();
-            }
-        }
-        reset=false;
-        iterations=1;
-        firstIteration=true;
-    }
+        triangleMesh.flush(activeCanvas, paint, fill);
+        frameStats.endStage(FrameStats.RASTER);
 
-    /**
-     * This method is called to change the speed of the spin.
-     * This method sets the accumulatedAngle variable so the triangle will keep its location.
-     */
-    private void onSpinChange()
-    {
-        if (!resetNoSpin)
+        if (Log.isLoggable(TAG, Log.VERBOSE))
         {
-            accumulatedAngle += iterations/spin;
+            Log.v(TAG, scene.getClipper().getReport());
         }
 
-        iterations = 0;
-        spin = newSpin;
-        spinChange = false;
-        resetNoSpin = false;
-    }
-
-    /**
-     * This method sets the triangle's center to the middle of the screen and erases anything that has been drawn.
-     * This method is called upon the very first iteration of the animation,
-     * and any time we want to recreate the conditions of the first iteration.
-     * @param canvas
-     */
-    private void firstIteration(Canvas canvas)
-    {
-        canvasWidth = canvas.getWidth();
-        canvasHeight = canvas.getHeight();
-        centerX = canvasWidth/2;
-        centerY = canvasHeight/2;
-        firstIteration = false;
-        eraseCanvas = true;
-    }
-
-    /**
-     * If the user has selected Seizure Mode, this method will be called during every iteration
-     * to display the animation in a disconcerting sequence of colours.
-     * Seizure Mode is a horrible visual experience where everything flashes a lot.
-     */
-    private void doSeizureStuff()
-    {
-        activeCanvas.drawColor(seizureColors[seizureColorTicker]);
-        seizureColorTicker++;
-        if(seizureColorTicker>=seizureColors.length)
-        {
-            seizureColorTicker=0;
-        }
-        toggleFill();
-    }
-
-
-    //End of conditional methods
-
-
-    /**
-     * This method chooses the color for the next triangle.
-     */
-    private void increaseColorTicker()
-    {
-        colorTicker++;
-        if (colorTicker >= colors.length)
+        //The triangles have been drawn onto the activeCanvas.
+        //Now we need to transfer that information onto the SurfaceView's (TriangleFractalView's) default canvas.
+        canvas.drawBitmap(activeBitmap, blitMatrix, blitPaint);
+        if (showFrameStats)
         {
-            colorTicker = 0;
+            frameStatsOverlay.draw(canvas, frameStats.getReportLines());
         }
-    }
-
-    /**
-     *This method flips the pole (phase/angle) of the next equilateral triangle.
-     * @return
-     */
-    private double getEquilateralRatio()
-    {
-        equilateralRatioTicker = !equilateralRatioTicker;
+        frameStats.endStage(FrameStats.BLIT);
+        surfaceHolder.unlockCanvasAndPost(canvas);
+        frameStats.endStage(FrameStats.POST);
+        firstFrameTimer.onFramePosted(this);
 
-        if(equilateralRatioTicker) {
-            return equilateralRatioList[0];
-        }
-        else
+        if (frameStats.endFrame() && Log.isLoggable(TAG, Log.DEBUG))
         {
-            return equilateralRatioList[1];
+            Log.d(TAG, frameStats.getReport());
         }
-    }
 
-    /**
-     * This method finds out the angle of the last right-angled triangle,
-     * so the next right-angle triangle can use the next angle in the sequence.
-     * @return
-     */
-    private double getRightRatio()
-    {
-        double newRatio = rightRatioList[rightRatioTicker];
-        rightRatioTicker++;
-        if (rightRatioTicker >= rightRatioList.length)
+        //Only drawing the triangles and copying them to the screen take longer with more pixels.
+        long pixelNanos = frameStats.getLastStageTime(FrameStats.RASTER) + frameStats.getLastStageTime(FrameStats.BLIT);
+        if (renderScale.onFrame(pixelNanos, frameScheduler.getIntervalMillis() * NANOS_PER_MILLI))
         {
-            rightRatioTicker=0;
+            resizeBitmap(surfaceWidth, surfaceHeight);
         }
-        return newRatio;
-    }
-
-    /**
-     * This method is for when the animation is changing from reverse to !reverse,
-     * and we need to fill the center with one giant full-screen triangle.
-     */
-    private void getCorrectEquilateralRatio()
-    {
-        equilateralRatioTicker = !activeEquilateralTriangles.get(activeEquilateralTriangles.size()-1).whichRatio;
-    }
-
-    //These next four methods increase or decrease the radius of the circle upon which the triangle is drawn.
-    //They receive a Triangle object as a parameter and perform a simple calculation to adjust its radius.
-
-
-    /**
-     * Increase the size of an equilateral triangle.
-     * @param becomingTriangle
-     */
-    public void changeEquilateralTriangle(EquilateralTriangle becomingTriangle)
-    {
-        becomingTriangle.radius = becomingTriangle.radius*1.04;
     }
 
-    /**
-     * Decrease the size of an equilateral triangle.
-     * @param becomingTriangle
-     */
-    public void reverseChangeEquilateralTriangle(EquilateralTriangle becomingTriangle)
-    {
-        becomingTriangle.radius = becomingTriangle.radius*0.95;
-    }
-
-    /**
-     * Increase the size of a right-angled triangle.
-     * @param becomingTriangle
-     */
-    public void changeRightTriangle(RightTriangle becomingTriangle)
-    {
-        becomingTriangle.radius = becomingTriangle.radius *1.04;
-    }
-
-    /**
-     * Decrease the size of a right-angled triangle.
-     * @param becomingTriangle
-     */
-    public void reverseChangeRightTriangle(RightTriangle becomingTriangle)
-    {
-        becomingTriangle.radius = becomingTriangle.radius *0.95;
-    }
-
-
-
-      //The following methods are called from the menu to alter the animation.
-
-      //These methods do not directly alter the animation because that could crash the algorithm.
-      //Certain conditions must remain the same for the life of an iteration.
-      //Instead, these methods set a boolean so that on the beginning of the next iteration,
-      //the appropriate alterations can be made before the calculations and drawings begin.
 
+      //The following methods are called from the menu (on the UI thread) to alter the animation.
+      //They only queue a command. The animation thread carries it out at the beginning of the next iteration.
 
 
     public void toggleErase()
     {
-        eraseCanvas = !eraseCanvas;
+        commandQueue.offer(TOGGLE_ERASE);
     }
 
     public void toggleFill()
     {
-        fill = !fill;
+        commandQueue.offer(TOGGLE_FILL);
     }
 
-
     public void toggleReverse()
     {
-        if (reverse==true)
-        {
-            reverse=false;
-        }
-        else
-        {
-            if(equilateral) {
-                reset = true;
-            }
-            reverse=true;
-        }
+        commandQueue.offer(TOGGLE_REVERSE);
     }
 
-
     /**
      * This method tells the next iteration to switch between equilateral and right triangles.
      */
     public void toggleEquilateral()
     {
-        reset = true;
-        equilateralReset = true;
-    }
-
-    /**
-     * Switching between equilateral and right triangles requires careful calculations
-     * to make sure nothing crashes. This method is part of that process.
-     */
-    private void doEquilateralReset()
-    {
-        resetConditions();
-        if (equilateral==true)
-        {
-            equilateral=false;
-        }
-        else
-        {
-            equilateral=true;
-        }
-        reset = true;
-        equilateralReset = false;
+        commandQueue.offer(TOGGLE_EQUILATERAL);
     }
 
     /**
@@ -932,67 +445,34 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
      */
     public void toggleCrazy()
     {
-        if (crazyMode==true)
-        {
-            crazyMode=false;
-        }
-        else
-        {
-            crazyMode=true;
-        }
+        commandQueue.offer(TOGGLE_CRAZY);
     }
 
     /**
      * Seizure Mode is a horrible visual experience.
+     * It always starts at the same speed.
      */
     public void toggleSeizureMode()
     {
-        if (seizureMode==true)
-        {
-            seizureMode=false;
-            eraseCanvas =false;
-            activeCanvas.drawColor(0xff1e90ff);
-            fill=false;
-        }
-        else
-        {
-            seizureMode=true;
-            eraseCanvas =true;
-            antiSpeedPhaseSelector = 2;
-            antiSpeed = antiSpeedPhaseArray[antiSpeedPhaseSelector];
-        }
+        commandQueue.offer(TOGGLE_SEIZURE_MODE);
     }
 
     /**
-     * Speed up the animation by decreasing the wait time (int antiSpeed)
-     * between iterations.
+     * Speed up the animation by decreasing the length (int antiSpeed)
+     * of each iteration.
      */
     public void faster()
     {
-        antiSpeedPhaseSelector--;
-
-        if (antiSpeedPhaseSelector < 0)
-        {
-            antiSpeedPhaseSelector = 0;
-        }
-
-        antiSpeed = antiSpeedPhaseArray[antiSpeedPhaseSelector];
+        commandQueue.offer(FASTER);
     }
 
     /**
-     * Slow down the animation by increasing the wait time (int antiSpeed)
-     * between iterations.
+     * Slow down the animation by increasing the length (int antiSpeed)
+     * of each iteration.
      */
     public void slower()
     {
-        antiSpeedPhaseSelector++;
-
-        if (antiSpeedPhaseSelector >= antiSpeedPhaseArray.length)
-        {
-            antiSpeedPhaseSelector = antiSpeedPhaseArray.length - 1;
-        }
-
-        antiSpeed = antiSpeedPhaseArray[antiSpeedPhaseSelector];
+        commandQueue.offer(SLOWER);
     }
 
 
@@ -1003,48 +483,33 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
      */
     public void resetCanvas()
     {
-        activeCanvas.drawColor(0xff1e90ff);
-
-        if(equilateral)
-        {
-           resetEquilateral();
-        }
-        else
-        {
-            resetRight();
-        }
+        commandQueue.offer(RESET_CANVAS);
     }
 
     /**
-     * Descending from resetCanvas()
-     * This method resets the animation for equilateral triangles.
+     * Show or hide the frame times on top of the animation.
      */
-    private void resetEquilateral()
+    public void toggleFrameStats()
     {
+        commandQueue.offer(TOGGLE_FRAME_STATS);
+    }
 
-        if (reverse == false) {
-            activeEquilateralTriangles.clear();
-            activeEquilateralTriangles.add(new EquilateralTriangle(equilateralRatioTicker, getEquilateralRatio(), baseRadius));
-        } else {
-            activeEquilateralTriangles.add(new EquilateralTriangle(equilateralRatioTicker, getEquilateralRatio(), canvasHeight * 4));
-            activeEquilateralTriangles.get(0).setColor(0x1E90FF);
-        }
-
+    /**
+     * In timed mode the triangles move by the time that has passed since the last frame, instead of one step per frame,
+     * so they keep moving at the same speed when frames are dropped.
+     */
+    public void toggleTimed()
+    {
+        commandQueue.offer(TOGGLE_TIMED);
     }
 
     /**
-     * Descending from resetCanvas()
-     * This method resets the animation for right-angled triangles.
+     * In audio-reactive mode the triangles speed up when the music gets louder, and rush outwards on every beat.
+     * It only does anything while the music is on.
      */
-    private void resetRight()
+    public void toggleAudioReactive()
     {
-        activeRightTriangles.clear();
-        if (reverse == false) {
-            activeRightTriangles.add(new RightTriangle(baseRadius));
-        } else {
-            activeRightTriangles.add(new RightTriangle(canvasHeight * 4));
-            activeRightTriangles.get(0).color = (0x1E90FF);
-        }
+        commandQueue.offer(TOGGLE_AUDIO_REACTIVE);
     }
 
     /**
@@ -1052,43 +517,14 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
      */
     public void moreSpin()
     {
-        spinPhaseSelector--;
-
-        if (spinPhaseSelector < 0)
-        {
-            spinPhaseSelector = 0;
-        }
-        else
-        {
-            spinChange = true;
-            newSpin = spinPhaseArray[spinPhaseSelector];
-        }
-
-        if(noSpin)
-        {
-            noSpin = false;
-            resetNoSpin=true;
-        }
+        commandQueue.offer(MORE_SPIN);
     }
 
     /**
      * Slow down the triangles' spin.
      */
     public void lessSpin() {
-
-        if (!noSpin)
-        {
-            spinPhaseSelector++;
-
-            if (spinPhaseSelector >= spinPhaseArray.length)
-            {
-                spinPhaseSelector = spinPhaseArray.length - 1;
-                noSpin = true;
-            }
-
-            newSpin = spinPhaseArray[spinPhaseSelector];
-            spinChange = true;
-        }
+        commandQueue.offer(LESS_SPIN);
     }
 
 
@@ -1120,13 +556,178 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
     /**
      * Changes the "center" of the animation... called after touchscreen is touched.
      * Places the new center somewhere between the old center and the user's finger.
+     * When the animation is running slowly, a finger moving across the screen can produce touches faster than they are used up,
+     * so touches are dropped once the queue is nearly full.
      * @param xTouched
      * @param yTouched
      */
     public void changeCenter(int xTouched, int yTouched)
     {
-        centerX += (xTouched-centerX)/10.1;
-        centerY += (yTouched-centerY)/10.1;
+        if (commandQueue.getFreeSpace() > TOUCH_RESERVE)
+        {
+            commandQueue.offer(CHANGE_CENTER, xTouched, yTouched);
+        }
+    }
+
+    /**
+     * Carry out one command from the menu or the touchscreen. Only called by the animation thread.
+     * @param code
+     * @param x
+     * @param y
+     */
+    private void carryOutCommand(int code, float x, float y)
+    {
+        switch (code)
+        {
+            case TOGGLE_ERASE:
+                scene.toggleErase();
+                break;
+            case TOGGLE_FILL:
+                scene.toggleFill();
+                break;
+            case TOGGLE_REVERSE:
+                scene.toggleReverse();
+                break;
+            case TOGGLE_EQUILATERAL:
+                scene.toggleEquilateral();
+                break;
+            case TOGGLE_CRAZY:
+                scene.toggleCrazy();
+                break;
+            case TOGGLE_SEIZURE_MODE:
+                scene.toggleSeizureMode();
+                if (scene.isSeizureMode())
+                {
+                    antiSpeedPhaseSelector = 2;
+                    setAntiSpeed();
+                }
+                break;
+            case FASTER:
+                antiSpeedPhaseSelector = Math.max(0, antiSpeedPhaseSelector - 1);
+                setAntiSpeed();
+                break;
+            case SLOWER:
+                antiSpeedPhaseSelector = Math.min(antiSpeedPhaseArray.length - 1, antiSpeedPhaseSelector + 1);
+                setAntiSpeed();
+                break;
+            case RESET_CANVAS:
+                scene.resetCanvas();
+                break;
+            case TOGGLE_FRAME_STATS:
+                showFrameStats = !showFrameStats;
+                break;
+            case MORE_SPIN:
+                scene.moreSpin();
+                break;
+            case LESS_SPIN:
+                scene.lessSpin();
+                break;
+            case CHANGE_CENTER:
+                scene.changeCenter((int) x, (int) y);
+                break;
+            case TOGGLE_TIMED:
+                scene.toggleTimed();
+                break;
+            case TOGGLE_AUDIO_REACTIVE:
+                audioReactive = !audioReactive;
+                if (!audioReactive)
+                {
+                    setAntiSpeed();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Move the animation onto a bitmap of the newest surface size, if the surface has changed size since the last frame.
+     * Only called by the animation thread.
+     */
+    private void takePendingResize()
+    {
+        long size = pendingSize.getAndSet(NO_RESIZE);
+        if (size != NO_RESIZE)
+        {
+            resizeBitmap((int) (size >>> 32), (int) size);
+        }
+    }
+
+    /**
+     * Move the animation onto a bitmap for a new surface size or a new render scale,
+     * keeping whatever has been drawn so far where it was on the screen (from the top left corner).
+     * Only called by the animation thread.
+     * @param width the surface width
+     * @param height the surface height
+     */
+    private void resizeBitmap(int width, int height)
+    {
+        int bitmapWidth = renderScale.getScaledSize(width);
+        int bitmapHeight = renderScale.getScaledSize(height);
+        if (width <= 0 || height <= 0 || (width == surfaceWidth && height == surfaceHeight
+                && bitmapWidth == activeBitmap.getWidth() && bitmapHeight == activeBitmap.getHeight()))
+        {
+            return;
+        }
+
+        Bitmap oldBitmap = activeBitmap;
+        activeBitmap = BitmapPool.getShared().acquire(bitmapWidth, bitmapHeight, bitmapConfig);
+        surfaceWidth = width;
+        surfaceHeight = height;
+
+        //setBitmap resets the activeCanvas, so it needs the renderMatrix again.
+        activeCanvas.setBitmap(activeBitmap);
+        setRenderMatrix();
+        activeCanvas.drawColor(TriangleScene.BACKGROUND_COLOR);
+
+        //The old blitMatrix stretches the old picture to where it was on the screen, and the new renderMatrix shrinks it to fit.
+        activeCanvas.drawBitmap(oldBitmap, blitMatrix, blitPaint);
+        setBlitMatrix();
+
+        BitmapPool.getShared().release(oldBitmap);
+    }
+
+    /**
+     * Make everything drawn on the activeCanvas (in screen coordinates) shrink to fit the activeBitmap.
+     */
+    private void setRenderMatrix()
+    {
+        renderMatrix.setScale(activeBitmap.getWidth() / (float) surfaceWidth, activeBitmap.getHeight() / (float) surfaceHeight);
+        activeCanvas.setMatrix(renderMatrix);
+    }
+
+    /**
+     * Make the activeBitmap stretch over the whole screen when it is drawn.
+     */
+    private void setBlitMatrix()
+    {
+        blitMatrix.setScale(surfaceWidth / (float) activeBitmap.getWidth(), surfaceHeight / (float) activeBitmap.getHeight());
+    }
+
+    private void setAntiSpeed()
+    {
+        antiSpeed = antiSpeedPhaseArray[antiSpeedPhaseSelector];
+        frameScheduler.setInterval(antiSpeed);
+        scene.setIterationLength(antiSpeed);
+    }
+
+    /**
+     * Shorten or lengthen the next iteration by how loud the music is at this moment, and whether a beat is starting.
+     * Until the envelope of the playing track is ready (or when there is no music), the chosen speed is used.
+     * Only called by the animation thread.
+     */
+    private void followMusic()
+    {
+        int iterationLength = antiSpeed;
+
+        AudioEnvelope envelope = musicPlayer.getPlayingEnvelope();
+        if (envelope != null)
+        {
+            long position = musicPlayer.getPlayingPosition();
+            float drive = MIN_MUSIC_DRIVE + envelope.getEnergy(position) + envelope.getOnset(position);
+            iterationLength = Math.max(1, Math.round(antiSpeed / drive));
+        }
+
+        frameScheduler.setInterval(iterationLength);
+        scene.setIterationLength(iterationLength);
     }
 
 
@@ -1157,6 +758,15 @@ public class TriangleFractalView extends SurfaceView implements SurfaceHolder.Ca
         }
     }
 
+    /**
+     * Turn the sound made from the triangles on or off. The smallest triangle sweeps a filter as it grows,
+     * and each new triangle plays a note.
+     */
+    public void toggleSynth()
+    {
+        synthPlayer.toggle();
+    }
+
     public void stopMusic()
     {
         playMusic = false;
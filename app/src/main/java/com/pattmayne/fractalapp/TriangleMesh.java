@@ -0,0 +1,209 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.pattmayne.fractalapp.engine.TriangleSink;
+
+/**
+ * This class collects every triangle of an iteration so they can all be drawn with as few Canvas calls as possible,
+ * instead of building a new Path and calling Canvas.drawPath for every triangle.
+ *
+ * Filled triangles are drawn with a single Canvas.drawVertices call, with every corner carrying its triangle's color.
+ * The triangles are nested inside each other, so they have to be drawn in the order they were added
+ * (largest first) for the smaller ones to show on top. drawVertices draws them in exactly that order.
+ *
+ * Outlined triangles are sorted by color, and each color is drawn with one drawLines call through a SegmentBatch.
+ * The edges of outlines too big to hand over whole (see TriangleClipper) go straight into the same batches.
+ * The outlines are only one pixel wide, so the order only matters for the odd pixel where two of them cross.
+ *
+ * The arrays are allocated once and reused for every iteration.
+ */
+public class TriangleMesh implements TriangleSink {
+
+    //Two floats (x, y) for each of the three corners of every triangle, which is the layout drawVertices expects.
+    private float[] vertices;
+
+    //One color for each corner
+    private int[] vertexColors;
+
+    private int triangleCount = 0;
+
+    //One SegmentBatch for each color seen so far, for drawing outlines.
+    //There are only ever a handful of colors, so they are simply searched in order.
+    private int[] batchColors = new int[8];
+    private SegmentBatch[] batches = new SegmentBatch[8];
+    private int batchCount = 0;
+
+
+    /**
+     * Constructor
+     * @param triangleCapacity how many triangles the mesh should hold before it needs to grow
+     */
+    public TriangleMesh(int triangleCapacity)
+    {
+        vertices = new float[triangleCapacity * 6];
+        vertexColors = new int[triangleCapacity * 3];
+    }
+
+    /**
+     * Add one triangle to the mesh.
+     */
+    @Override
+    public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color)
+    {
+        if ((triangleCount + 1) * 3 > vertexColors.length)
+        {
+            int capacity = Math.max(1, triangleCount * 2);
+
+            float[] biggerVertices = new float[capacity * 6];
+            System.arraycopy(vertices, 0, biggerVertices, 0, triangleCount * 6);
+            vertices = biggerVertices;
+
+            int[] biggerColors = new int[capacity * 3];
+            System.arraycopy(vertexColors, 0, biggerColors, 0, triangleCount * 3);
+            vertexColors = biggerColors;
+        }
+
+        int v = triangleCount * 6;
+        vertices[v] = x1;
+        vertices[v + 1] = y1;
+        vertices[v + 2] = x2;
+        vertices[v + 3] = y2;
+        vertices[v + 4] = x3;
+        vertices[v + 5] = y3;
+
+        int c = triangleCount * 3;
+        vertexColors[c] = color;
+        vertexColors[c + 1] = color;
+        vertexColors[c + 2] = color;
+
+        triangleCount++;
+    }
+
+    /**
+     * Add one edge of an outlined triangle that has been cut down to the guard band.
+     */
+    @Override
+    public void addEdge(float startX, float startY, float endX, float endY, int color)
+    {
+        getBatch(color).addSegment(startX, startY, endX, endY);
+    }
+
+    public int getTriangleCount()
+    {
+        return triangleCount;
+    }
+
+    /**
+     * Draw every triangle (and edge) in the mesh, then empty it so it can collect the next iteration.
+     * @param canvas
+     * @param paint its color is changed when drawing outlines
+     * @param fill true to fill the triangles, false to only draw their outlines
+     */
+    public void flush(Canvas canvas, Paint paint, boolean fill)
+    {
+        if (fill)
+        {
+            if (triangleCount > 0)
+            {
+                paint.setStyle(Paint.Style.FILL);
+                canvas.drawVertices(Canvas.VertexMode.TRIANGLES, triangleCount * 6, vertices, 0,
+                        null, 0, vertexColors, 0, null, 0, 0, paint);
+            }
+        }
+        else
+        {
+            //Even with no whole triangles, there can be edges waiting in the batches.
+            drawOutlines(canvas, paint);
+        }
+        triangleCount = 0;
+    }
+
+    /**
+     * Sort the outlines into one SegmentBatch per color, then draw each batch.
+     * @param canvas
+     * @param paint
+     */
+    private void drawOutlines(Canvas canvas, Paint paint)
+    {
+        for (int i = 0; i < triangleCount; i++)
+        {
+            int v = i * 6;
+            SegmentBatch batch = getBatch(vertexColors[i * 3]);
+            batch.addSegment(vertices[v], vertices[v + 1], vertices[v + 2], vertices[v + 3]);
+            batch.addSegment(vertices[v + 2], vertices[v + 3], vertices[v + 4], vertices[v + 5]);
+            batch.addSegment(vertices[v + 4], vertices[v + 5], vertices[v], vertices[v + 1]);
+        }
+
+        paint.setStyle(Paint.Style.STROKE);
+        for (int b = 0; b < batchCount; b++)
+        {
+            if (batches[b].getSegmentCount() > 0)
+            {
+                paint.setColor(batchColors[b]);
+                batches[b].flush(canvas, paint);
+            }
+        }
+    }
+
+    /**
+     * Find the SegmentBatch for a color, making a new one the first time the color is seen.
+     * @param color
+     * @return
+     */
+    private SegmentBatch getBatch(int color)
+    {
+        for (int b = 0; b < batchCount; b++)
+        {
+            if (batchColors[b] == color)
+            {
+                return batches[b];
+            }
+        }
+
+        if (batchCount == batches.length)
+        {
+            int[] biggerColors = new int[batchCount * 2];
+            System.arraycopy(batchColors, 0, biggerColors, 0, batchCount);
+            batchColors = biggerColors;
+
+            SegmentBatch[] biggerBatches = new SegmentBatch[batchCount * 2];
+            System.arraycopy(batches, 0, biggerBatches, 0, batchCount);
+            batches = biggerBatches;
+        }
+
+        batchColors[batchCount] = color;
+        batches[batchCount] = new SegmentBatch(vertexColors.length);
+        return batches[batchCount++];
+    }
+
+    /**
+     * Forget all the triangles and edges without drawing them.
+     */
+    public void clear()
+    {
+        triangleCount = 0;
+        for (int b = 0; b < batchCount; b++)
+        {
+            batches[b].clear();
+        }
+    }
+}
@@ -19,56 +19,42 @@ package com.pattmayne.fractalapp;
 
 import android.graphics.Canvas;
 import android.view.SurfaceHolder;
-import android.view.SurfaceView;
 
-import com.pattmayne.fractalapp.BranchingFractalView;
-import com.pattmayne.fractalapp.TriangleFractalView;
+import com.pattmayne.fractalapp.engine.FrameScheduler;
 
 /**
  * I use this Thread to control the animation in the TriangleFractalView class.
  * For every iteration in this Thread, we call the "onDrawSomething" method in the TriangleFractalView,
  * which calculates what needs to be drawn.
+ * Then the frameScheduler waits until the next frame is due, however long the drawing took.
+ * Pausing, resuming and stopping the thread is handled by AnimationThread.
  * Created by Matt on 2014-10-11.
  */
-public class TriangleThread extends Thread{
+public class TriangleThread extends AnimationThread {
 
-    //The surfaceHolder allows this class to use the TriangleFractalView's canvas.
-    private SurfaceHolder surfaceHolder;
     private TriangleFractalView triangleFractalView;
-    Canvas canvas;
 
 
-    public TriangleThread(SurfaceHolder surfaceHolder, TriangleFractalView triangleFractalView)
+    public TriangleThread(SurfaceHolder surfaceHolder, TriangleFractalView triangleFractalView, FrameScheduler frameScheduler)
     {
-        super();
+        super(surfaceHolder, frameScheduler);
         this.triangleFractalView = triangleFractalView;
-        this.surfaceHolder = surfaceHolder;
-    }
-
-    // flag to hold game state
-    private boolean running;
-
-    public void setRunning(boolean running) {
-        this.running = running;
     }
 
     /**
-     * This method contains statements which are repeatedly called by the Thread.
-     * Those statements initiate each iteration of the animation in the TriangleFractalView.
+     * This method initiates each iteration of the animation in the TriangleFractalView.
+     * If the surface can't be locked (it is just being destroyed), the frame is skipped.
      */
     @Override
-    public void run() {
-        while (running) {
-            canvas = surfaceHolder.lockCanvas();
-            if (canvas != null) {
-                triangleFractalView.onDrawSomething(canvas);
-            }
-            else {running=false;}
+    protected void drawFrame() {
+        Canvas canvas = surfaceHolder.lockCanvas();
+        if (canvas != null) {
+            triangleFractalView.onDrawSomething(canvas);
         }
     }
 
-    public boolean isRunning()
-    {
-        return running;
+    @Override
+    protected void onResumed() {
+        triangleFractalView.onDrawingResumed();
     }
 }
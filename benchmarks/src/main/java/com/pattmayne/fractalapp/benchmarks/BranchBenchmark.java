@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.benchmarks;
+
+import com.pattmayne.fractalapp.engine.BranchFrontier;
+import com.pattmayne.fractalapp.engine.BranchGenerator;
+import com.pattmayne.fractalapp.engine.BranchStreamer;
+import com.pattmayne.fractalapp.engine.SegmentSink;
+import com.pattmayne.fractalapp.engine.ViewportCuller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to calculate one generation of the branching fractal at each depth.
+ *
+ * The breadth-first benchmarks calculate generation "depth" from a frontier that has already been grown to the generation before it,
+ * which is exactly the work BranchingFractalView does for that frame.
+ * The depth-first benchmarks walk the whole tree from the center down to "depth", as the depth-first mode does every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BranchBenchmark {
+
+    private static final long SEED = 0x5EEDL;
+    private static final int LINE_LENGTH = 70;
+
+    //A portrait phone screen, with the tree growing from the middle.
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    @Param({"4", "8", "12"})
+    public int depth;
+
+    private BranchGenerator generator;
+    private BranchGenerator singleThreadGenerator;
+    private BranchStreamer streamer;
+    private ViewportCuller culler;
+    private BranchFrontier startPoints;
+    private BranchFrontier endPoints;
+    private ChecksumSink sink;
+
+
+    @Setup
+    public void setUp()
+    {
+        generator = new BranchGenerator();
+        singleThreadGenerator = new BranchGenerator(1);
+        streamer = new BranchStreamer();
+        culler = new ViewportCuller();
+        culler.setViewport(WIDTH, HEIGHT, 2);
+        sink = new ChecksumSink();
+
+        startPoints = new BranchFrontier(1 << depth);
+        endPoints = new BranchFrontier(1 << depth);
+        generator.plantRoot(startPoints, WIDTH / 2, HEIGHT / 2, SEED);
+
+        //Grow the frontier up to the generation just before the one being measured.
+        for (int iterations = 1; iterations < depth; iterations++)
+        {
+            generator.generate(startPoints, endPoints, WIDTH / 2, HEIGHT / 2, LINE_LENGTH * iterations * 1.55f, iterations, SEED);
+
+            BranchFrontier swapper = startPoints;
+            startPoints = endPoints;
+            endPoints = swapper;
+            endPoints.clear();
+        }
+    }
+
+    @Benchmark
+    public float breadthFirstGeneration()
+    {
+        generator.generate(startPoints, endPoints, WIDTH / 2, HEIGHT / 2, LINE_LENGTH * depth * 1.55f, depth, SEED);
+        return endPoints.pointX[endPoints.size - 1];
+    }
+
+    @Benchmark
+    public float breadthFirstGenerationOneThread()
+    {
+        singleThreadGenerator.generate(startPoints, endPoints, WIDTH / 2, HEIGHT / 2, LINE_LENGTH * depth * 1.55f, depth, SEED);
+        return endPoints.pointX[endPoints.size - 1];
+    }
+
+    @Benchmark
+    public float depthFirstTree()
+    {
+        sink.checksum = 0;
+        streamer.stream(depth, 2, WIDTH / 2, HEIGHT / 2, LINE_LENGTH, SEED, sink, null);
+        return sink.checksum;
+    }
+
+    @Benchmark
+    public float depthFirstTreeCulled()
+    {
+        sink.checksum = 0;
+        culler.startFrame();
+        streamer.stream(depth, 2, WIDTH / 2, HEIGHT / 2, LINE_LENGTH, SEED, sink, culler);
+        return sink.checksum;
+    }
+
+
+    /**
+     * Adds up the line ends, so the JIT can't decide the lines are never used.
+     */
+    private static class ChecksumSink implements SegmentSink {
+
+        float checksum;
+
+        @Override
+        public void addSegment(float startX, float startY, float endX, float endY)
+        {
+            checksum += endX + endY;
+        }
+    }
+}
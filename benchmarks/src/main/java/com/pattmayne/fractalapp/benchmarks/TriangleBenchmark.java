@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.benchmarks;
+
+import com.pattmayne.fractalapp.engine.TriangleScene;
+import com.pattmayne.fractalapp.engine.TriangleSink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the nested triangle animation: calculating the corners of every triangle (vertices),
+ * growing the triangles and creating or deleting them at either end (update), and both together with beginFrame (frame).
+ *
+ * How many triangles are on the screen at once depends on the size of the canvas, because the biggest triangle is only
+ * deleted once it has grown well past the edges. So the setup picks the smallest square canvas that holds triangleCount triangles,
+ * and lets the animation run until it does. From then on the count only wobbles by one as triangles come and go.
+ * (A 1080x1920 screen holds about 14 equilateral triangles, or about 24 right-angled ones.)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriangleBenchmark {
+
+    private static final long SEED = 0x5EEDL;
+
+    //How many frames to wait for the triangles to fill a canvas, before trying one twice as big.
+    private static final int MAX_GROWING_FRAMES = 5000;
+
+    @Param({"8", "16", "24"})
+    public int triangleCount;
+
+    @Param({"true", "false"})
+    public boolean equilateral;
+
+    @Param({"false", "true"})
+    public boolean crazy;
+
+    private TriangleScene scene;
+    private int canvasSize;
+    private ChecksumSink sink;
+
+
+    @Setup
+    public void setUp()
+    {
+        sink = new ChecksumSink();
+
+        for (canvasSize = 1; canvasSize < Integer.MAX_VALUE / 2; canvasSize *= 2)
+        {
+            scene = new TriangleScene(SEED);
+            if (!equilateral)
+            {
+                scene.toggleEquilateral();
+            }
+            if (crazy)
+            {
+                scene.toggleCrazy();
+            }
+
+            for (int frame = 0; frame < MAX_GROWING_FRAMES; frame++)
+            {
+                scene.beginFrame(canvasSize, canvasSize);
+                scene.advance();
+                if (frame > 0 && scene.getTriangleCount() >= triangleCount)
+                {
+                    return;
+                }
+            }
+        }
+
+        throw new IllegalStateException("Couldn't fit " + triangleCount + " triangles on any canvas");
+    }
+
+    @Benchmark
+    public float vertices()
+    {
+        sink.checksum = 0;
+        scene.drawTriangles(sink);
+        return sink.checksum;
+    }
+
+    @Benchmark
+    public int update()
+    {
+        scene.advance();
+        return scene.getTriangleCount();
+    }
+
+    @Benchmark
+    public float frame()
+    {
+        sink.checksum = 0;
+        scene.beginFrame(canvasSize, canvasSize);
+        scene.drawTriangles(sink);
+        scene.advance();
+        return sink.checksum;
+    }
+
+
+    /**
+     * Adds up the corners, so the JIT can't decide the triangles are never used.
+     */
+    private static class ChecksumSink implements TriangleSink {
+
+        float checksum;
+
+        @Override
+        public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color)
+        {
+            checksum += x1 + y2 + x3 + color;
+        }
+
+        @Override
+        public void addEdge(float startX, float startY, float endX, float endY, int color)
+        {
+            checksum += startX + endY + color;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class holds how loud a piece of music is at every moment, and how sharply it is getting louder (a beat starting),
+ * worked out once from the whole track by an EnvelopeBuilder.
+ * The animation only has to look up the moment the music has reached, so nothing is analyzed while it plays.
+ *
+ * The track is cut into frames a few milliseconds long, and each frame gets an energy and an onset between 0 and 1.
+ * Each value is kept in a single byte, so a three minute track takes less than 20 kilobytes,
+ * and that is also how it is written to a file.
+ *
+ * An envelope never changes once it is made, so it can be shared between threads.
+ */
+public class AudioEnvelope {
+
+    //"ENVL", at the start of every envelope file
+    private static final int MAGIC = 0x454e564c;
+    private static final int VERSION = 1;
+
+    private static final float BYTE_SCALE = 255f;
+
+    private final int frameMillis;
+    private final byte[] energies;
+    private final byte[] onsets;
+
+
+    /**
+     * Constructor
+     * @param frameMillis how long each frame is
+     * @param energies how loud each frame is, from 0 to 255
+     * @param onsets how sharply each frame gets louder, from 0 to 255
+     */
+    public AudioEnvelope(int frameMillis, byte[] energies, byte[] onsets)
+    {
+        if (frameMillis <= 0 || energies.length != onsets.length)
+        {
+            throw new IllegalArgumentException("Bad envelope: " + frameMillis + " ms, "
+                    + energies.length + " energies, " + onsets.length + " onsets");
+        }
+        this.frameMillis = frameMillis;
+        this.energies = energies;
+        this.onsets = onsets;
+    }
+
+    public int getFrameMillis()
+    {
+        return frameMillis;
+    }
+
+    public int getFrameCount()
+    {
+        return energies.length;
+    }
+
+    public long getDurationMillis()
+    {
+        return (long) energies.length * frameMillis;
+    }
+
+    /**
+     * How loud the music is at a moment in the track, from 0 (silent) to 1 (the loudest part of the track).
+     * Before the start and after the end, the music is silent.
+     * @param positionMillis
+     * @return
+     */
+    public float getEnergy(long positionMillis)
+    {
+        return getValue(energies, positionMillis);
+    }
+
+    /**
+     * How strongly a beat is starting at a moment in the track, from 0 (none) to 1 (the strongest beat in the track).
+     * Each beat fades out over the frames after it, so it isn't missed by an animation frame that comes a little late.
+     * @param positionMillis
+     * @return
+     */
+    public float getOnset(long positionMillis)
+    {
+        return getValue(onsets, positionMillis);
+    }
+
+    private float getValue(byte[] values, long positionMillis)
+    {
+        if (positionMillis < 0)
+        {
+            return 0;
+        }
+        long frame = positionMillis / frameMillis;
+        if (frame >= values.length)
+        {
+            return 0;
+        }
+        return (values[(int) frame] & 0xff) / BYTE_SCALE;
+    }
+
+    /**
+     * Write the envelope in the format read expects. The stream is not closed.
+     * @param out
+     * @throws IOException
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(frameMillis);
+        data.writeInt(energies.length);
+        data.write(energies);
+        data.write(onsets);
+        data.flush();
+    }
+
+    /**
+     * Read an envelope that was written by write. The stream is not closed.
+     * @param in
+     * @return
+     * @throws IOException if the stream doesn't hold an envelope, was written by a different version, or ends too soon
+     */
+    public static AudioEnvelope read(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC)
+        {
+            throw new IOException("Not an audio envelope");
+        }
+        int version = data.readInt();
+        if (version != VERSION)
+        {
+            throw new IOException("Unknown audio envelope version " + version);
+        }
+
+        int frameMillis = data.readInt();
+        int frameCount = data.readInt();
+        if (frameMillis <= 0 || frameCount < 0)
+        {
+            throw new IOException("Bad audio envelope: " + frameMillis + " ms, " + frameCount + " frames");
+        }
+
+        byte[] energies = new byte[frameCount];
+        byte[] onsets = new byte[frameCount];
+        data.readFully(energies);
+        data.readFully(onsets);
+        return new AudioEnvelope(frameMillis, energies, onsets);
+    }
+}
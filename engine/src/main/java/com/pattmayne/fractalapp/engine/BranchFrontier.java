@@ -0,0 +1,132 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class holds one generation of points at the outer edge of the branching fractal.
+ * Each point has a location, plus the two directions that its two new branches will aim towards.
+ *
+ * Instead of keeping one object per point, every value lives in its own primitive array,
+ * and the arrays are allocated once and reused for every generation.
+ * The BranchingFractalView keeps two of these and swaps them after each generation,
+ * so drawing the animation doesn't create any garbage for the garbage collector to clean up.
+ */
+public class BranchFrontier {
+
+    public float[] pointX;
+    public float[] pointY;
+    public float[] direction1;
+    public float[] direction2;
+
+    //Where each point sits in the whole tree: the point with index n creates the points with indexes 2n and 2n+1.
+    //This stays the same even when points that can't be seen are removed from the frontier.
+    public long[] pointIndex;
+
+    //How many points are currently stored in the arrays.
+    public int size = 0;
+
+
+    /**
+     * Constructor
+     * @param capacity how many points the arrays should hold before they need to grow
+     */
+    public BranchFrontier(int capacity)
+    {
+        pointX = new float[capacity];
+        pointY = new float[capacity];
+        direction1 = new float[capacity];
+        direction2 = new float[capacity];
+        pointIndex = new long[capacity];
+    }
+
+    /**
+     * Store a new point at the end of the arrays.
+     * @param newPointX
+     * @param newPointY
+     * @param newDirection1
+     * @param newDirection2
+     * @param newPointIndex
+     */
+    public void add(float newPointX, float newPointY, float newDirection1, float newDirection2, long newPointIndex)
+    {
+        if (size == pointX.length)
+        {
+            ensureCapacity(size + 1);
+        }
+
+        pointX[size] = newPointX;
+        pointY[size] = newPointY;
+        direction1[size] = newDirection1;
+        direction2[size] = newDirection2;
+        pointIndex[size] = newPointIndex;
+        size++;
+    }
+
+    /**
+     * Copy one point over another, so points can be removed without leaving gaps in the arrays.
+     * @param from
+     * @param to
+     */
+    public void move(int from, int to)
+    {
+        pointX[to] = pointX[from];
+        pointY[to] = pointY[from];
+        direction1[to] = direction1[from];
+        direction2[to] = direction2[from];
+        pointIndex[to] = pointIndex[from];
+    }
+
+    /**
+     * Forget all the points. The arrays are kept so they can be filled again.
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Make sure the arrays can hold at least this many points.
+     * The arrays are sized for the deepest allowed generation, so this should rarely need to do anything.
+     * If it does, the arrays at least double in size, and the stored points are kept.
+     * @param capacity
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if (capacity <= pointX.length)
+        {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, pointX.length * 2);
+        pointX = copyOf(pointX, newCapacity);
+        pointY = copyOf(pointY, newCapacity);
+        direction1 = copyOf(direction1, newCapacity);
+        direction2 = copyOf(direction2, newCapacity);
+
+        long[] biggerIndex = new long[newCapacity];
+        System.arraycopy(pointIndex, 0, biggerIndex, 0, size);
+        pointIndex = biggerIndex;
+    }
+
+    private float[] copyOf(float[] original, int newCapacity)
+    {
+        float[] copy = new float[newCapacity];
+        System.arraycopy(original, 0, copy, 0, size);
+        return copy;
+    }
+}
@@ -0,0 +1,379 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class calculates each new generation of the branching fractal.
+ *
+ * Instead of pulling numbers one after another out of a shared java.util.Random,
+ * every random choice is made by hashing the scene's seed together with the position of the point in the tree
+ * (its generation, its index within that generation, and which of its values is being chosen).
+ * So every point gets the same random numbers no matter what order the points are calculated in,
+ * and a large generation can be split up and calculated on every processor at once.
+ * The resulting tree is exactly the same, bit for bit, whether it is calculated on one thread or many.
+ *
+ * Generations are stored in BranchFrontier objects. The point stored at position i of one generation
+ * creates the points stored at positions 2i and 2i+1 of the next generation.
+ * Each point also carries its index in the whole tree, which is what its random numbers are based on,
+ * so points that can't be seen can be removed from a frontier without changing the rest of the tree.
+ */
+public class BranchGenerator {
+
+    //Generations with fewer start points than this aren't worth handing to other threads.
+    public static final int PARALLEL_THRESHOLD = 2048;
+
+    //Each thread takes this many start points at a time.
+    private static final int CHUNK_SIZE = 512;
+
+    //The worker threads are shared by every generator, and are created the first time they are needed.
+    //There is one for every processor except the one the calling thread runs on, and the pool is never replaced or shut down,
+    //so a generator can never hand work to a pool that another generator has just shut down.
+    private static final int WORKER_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static ExecutorService workerPool;
+
+    private final int threadCount;
+    private final GenerationTask[] helpers;
+
+    //The values for the generation currently being calculated.
+    private BranchFrontier startPoints;
+    private BranchFrontier endPoints;
+    private float centerX;
+    private float centerY;
+    private float reach;
+    private int iterations;
+    private long sceneSeed;
+
+    private final AtomicInteger nextChunk = new AtomicInteger();
+
+    //Each helper releases one permit when it has finished its share of a generation.
+    //Unlike a CountDownLatch, a Semaphore can be reused, so no new object is needed for each generation.
+    private final Semaphore finishedHelpers = new Semaphore(0);
+
+
+    /**
+     * Constructor. Uses every available processor.
+     */
+    public BranchGenerator()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param threadCount how many threads (including the calling thread) may work on one generation.
+     *                    No more helpers are used than the shared pool has threads.
+     */
+    public BranchGenerator(int threadCount)
+    {
+        this.threadCount = Math.max(1, threadCount);
+
+        helpers = new GenerationTask[this.threadCount - 1];
+        for (int i = 0; i < helpers.length; i++)
+        {
+            helpers[i] = new GenerationTask();
+        }
+    }
+
+
+    /**
+     * Create the first point of a new tree, at the center, aiming in two completely random directions.
+     * @param frontier an empty frontier to hold the point
+     * @param centerX
+     * @param centerY
+     * @param sceneSeed
+     */
+    public void plantRoot(BranchFrontier frontier, float centerX, float centerY, long sceneSeed)
+    {
+        frontier.add(centerX, centerY, getDirection(sceneSeed, 0), getDirection(sceneSeed, 1), 0);
+    }
+
+    /**
+     * Fill the endPoints frontier with the next generation, two new points for every point in startPoints.
+     * Large generations are split between several threads.
+     *
+     * @param startPoints the current generation, created during iteration (iterations - 1)
+     * @param endPoints an empty frontier to hold the new generation
+     * @param centerX
+     * @param centerY
+     * @param reach how far from the center the new points are placed
+     * @param iterations which generation is being created
+     * @param sceneSeed the seed of the whole tree
+     */
+    public void generate(BranchFrontier startPoints, BranchFrontier endPoints,
+                         float centerX, float centerY, float reach, int iterations, long sceneSeed)
+    {
+        int startCount = startPoints.size;
+        endPoints.ensureCapacity(startCount * 2);
+
+        this.startPoints = startPoints;
+        this.endPoints = endPoints;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.reach = reach;
+        this.iterations = iterations;
+        this.sceneSeed = sceneSeed;
+
+        if (threadCount == 1 || startCount < PARALLEL_THRESHOLD)
+        {
+            generateRange(0, startCount);
+        }
+        else
+        {
+            generateInParallel(startCount);
+        }
+
+        endPoints.size = startCount * 2;
+
+        this.startPoints = null;
+        this.endPoints = null;
+    }
+
+    /**
+     * Split the start points into chunks. The helper threads and this thread keep taking the next chunk
+     * until there are none left, so a slow thread never holds everyone else up.
+     * @param startCount
+     */
+    private void generateInParallel(int startCount)
+    {
+        ExecutorService pool = getWorkerPool();
+        int chunkCount = (startCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int helperCount = Math.min(Math.min(helpers.length, WORKER_COUNT), chunkCount - 1);
+
+        nextChunk.set(0);
+
+        for (int i = 0; i < helperCount; i++)
+        {
+            helpers[i].prepare(startCount, chunkCount);
+            pool.execute(helpers[i]);
+        }
+
+        generateChunks(startCount, chunkCount);
+
+        //An interruption doesn't stop the wait (the helpers are still writing into endPoints),
+        //but the thread is left interrupted afterwards.
+        finishedHelpers.acquireUninterruptibly(helperCount);
+    }
+
+    private void generateChunks(int startCount, int chunkCount)
+    {
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < chunkCount)
+        {
+            int from = chunk * CHUNK_SIZE;
+            generateRange(from, Math.min(startCount, from + CHUNK_SIZE));
+        }
+    }
+
+    /**
+     * Create the new points for the start points from index "from" up to (but not including) index "to".
+     * Each start point only writes to its own two slots in endPoints, so ranges can be calculated at the same time.
+     * @param from
+     * @param to
+     */
+    private void generateRange(int from, int to)
+    {
+        BranchFrontier start = startPoints;
+        BranchFrontier end = endPoints;
+
+        for (int i = from; i < to; i++)
+        {
+            float startDirection1 = start.direction1[i];
+            float startDirection2 = start.direction2[i];
+            long newIndex = start.pointIndex[i] * 2;
+
+            setEndPoint(end, i * 2, newIndex, startDirection1);
+            setEndPoint(end, i * 2 + 1, newIndex + 1, startDirection2);
+        }
+    }
+
+    /**
+     * Place one new point at the given direction, and give it two new directions of its own.
+     * @param end
+     * @param position where the new point is stored in the end frontier
+     * @param index the new point's index in the whole tree
+     * @param direction
+     */
+    private void setEndPoint(BranchFrontier end, int position, long index, float direction)
+    {
+        //The directions are measured in half-turns, so FastTrig's sinPi and cosPi give the same result as Math.sin(Math.PI*direction).
+        end.pointX[position] = centerX + reach * FastTrig.sinPi(direction);
+        end.pointY[position] = centerY + reach * FastTrig.cosPi(direction);
+        end.direction1[position] = getNewDirection(direction, iterations, sceneSeed, index, 0);
+        end.direction2[position] = getNewDirection(direction, iterations, sceneSeed, index, 1);
+        end.pointIndex[position] = index;
+    }
+
+
+    //The random numbers
+
+
+    /**
+     * This method generates a number between 0 and 2
+     * to plug into a formula which decides the location around a circumference
+     * where new points should be generated.
+     *
+     * This method is used during a "first iteration," when the primary center point generates two new points.
+     * The two new points are free to aim in any direction around the circle.
+     * @param sceneSeed
+     * @param slot which of the center point's two directions this is
+     * @return float newDirection
+     */
+    public static float getDirection(long sceneSeed, int slot)
+    {
+        return unitFloat(nodeHash(sceneSeed, 0, 0, slot)) * 2;
+    }
+
+    /**
+     * This method provides a new point with a new direction which is based on the direction
+     * which created that point's location.
+     *
+     * This new location will be random within a certain range,
+     * to make sure that the lines travel generally outward from the center,
+     * rather than turning backwards towards the center.
+     * Either way (left or right along the circumference) is equally likely.
+     *
+     * @param oldDirection
+     * @param iterations the generation the new point belongs to
+     * @param sceneSeed
+     * @param index the new point's index within its generation
+     * @param slot which of the new point's two directions this is
+     * @return
+     */
+    public static float getNewDirection(float oldDirection, int iterations, long sceneSeed, long index, int slot)
+    {
+        long hash = nodeHash(sceneSeed, iterations, index, slot);
+        float variation = unitFloat(hash) / (5 + iterations);
+
+        //The lowest bit isn't used by unitFloat, so it decides the sign.
+        if ((hash & 1) == 1)
+        {
+            variation = -variation;
+        }
+
+        return oldDirection + variation;
+    }
+
+    /**
+     * How far (in half-turns) the branches can possibly wander from a point's own direction
+     * between generation fromDepth and generation toDepth.
+     * Each generation adds less than 1/(5+generation) either way, as getNewDirection shows.
+     * @param fromDepth
+     * @param toDepth
+     * @return
+     */
+    public static float getMaxDrift(int fromDepth, int toDepth)
+    {
+        float drift = 0;
+        for (int depth = fromDepth; depth < toDepth; depth++)
+        {
+            drift += 1.0f / (5 + depth);
+        }
+        //A little extra, so float rounding can never make the bound too small.
+        return drift + 1e-4f;
+    }
+
+    /**
+     * Mix the seed and the point's position in the tree into one well-scrambled 64-bit number.
+     * @param sceneSeed
+     * @param depth the point's generation
+     * @param index the point's index within its generation
+     * @param slot which value of the point is being chosen
+     * @return
+     */
+    public static long nodeHash(long sceneSeed, int depth, long index, int slot)
+    {
+        long hash = mix(sceneSeed + 0x9E3779B97F4A7C15L * (depth + 1));
+        hash = mix(hash ^ index);
+        return mix(hash + slot);
+    }
+
+    /**
+     * The finishing step of the SplitMix64 generator.
+     * Every bit of the input affects every bit of the output.
+     * @param z
+     * @return
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param hash
+     * @return a float from 0 (inclusive) to 1 (exclusive), made from the top 24 bits of the hash
+     */
+    private static float unitFloat(long hash)
+    {
+        return (hash >>> 40) * (1.0f / (1 << 24));
+    }
+
+
+    //The worker threads
+
+
+    private static synchronized ExecutorService getWorkerPool()
+    {
+        if (workerPool == null)
+        {
+            workerPool = Executors.newFixedThreadPool(WORKER_COUNT, new ThreadFactory() {
+                private int created = 0;
+
+                public Thread newThread(Runnable task) {
+                    Thread worker = new Thread(task, "BranchGenerator-" + (++created));
+                    //Don't keep the app alive just for these threads.
+                    worker.setDaemon(true);
+                    return worker;
+                }
+            });
+        }
+        return workerPool;
+    }
+
+    /**
+     * One helper thread's share of a generation.
+     * These are created once per generator and reused for every parallel generation.
+     */
+    private class GenerationTask implements Runnable
+    {
+        private int startCount;
+        private int chunkCount;
+
+        void prepare(int startCount, int chunkCount)
+        {
+            this.startCount = startCount;
+            this.chunkCount = chunkCount;
+        }
+
+        public void run()
+        {
+            try {
+                generateChunks(startCount, chunkCount);
+            } finally {
+                finishedHelpers.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class draws one generation of the branching fractal by walking the tree depth-first,
+ * handing every line of the requested generation straight to a SegmentSink.
+ *
+ * The breadth-first frontier in the BranchingFractalView has to hold every point of a generation at once,
+ * and that doubles with every generation. This walk only remembers the points along one path from the center
+ * to the generation being drawn, so its memory depends on how deep the tree is, not on how many branches it has.
+ * That makes much deeper trees possible, and points can branch more than two ways.
+ *
+ * Each point's random directions come from the same hashes the BranchGenerator uses,
+ * so with two branches per point, a tree drawn this way looks exactly like the breadth-first one for the same seed.
+ *
+ * If a ViewportCuller is given, the walk doesn't follow any branch that can't reach the visible area,
+ * and doesn't bother clipping lines from branches that are completely inside it.
+ *
+ * Nothing of the generation is kept once it has been drawn, except the directions of a few lines
+ * spread evenly across it (see getSampledDirections).
+ */
+public class BranchStreamer {
+
+    //How many line directions are kept from each generation.
+    public static final int SAMPLED_DIRECTIONS = 8;
+
+    //One entry for every level of the path currently being walked (level 0 is the center point).
+    private float[] pointX = new float[0];
+    private float[] pointY = new float[0];
+    private long[] pointIndex = new long[0];
+    private int[] nextBranch = new int[0];
+
+    //Whether each point's branches are OUTSIDE, PARTLY_INSIDE or completely INSIDE the visible area.
+    private int[] visibility = new int[0];
+
+    //branchingFactor directions for every level, one for each of that point's branches.
+    private float[] directions = new float[0];
+
+    //The directions of a few of the lines of the last generation drawn, in the order they were drawn.
+    private final float[] sampledDirections = new float[SAMPLED_DIRECTIONS];
+    private int sampledCount = 0;
+
+
+    /**
+     * Send every line of one generation to the sink.
+     *
+     * @param iterations which generation to draw (generation 1 is the lines leaving the center)
+     * @param branchingFactor how many new branches every point creates
+     * @param centerX
+     * @param centerY
+     * @param lineLength
+     * @param sceneSeed the seed of the whole tree
+     * @param sink
+     * @param culler tests which branches can be seen, or null to draw everything
+     */
+    public void stream(int iterations, int branchingFactor, float centerX, float centerY,
+                       int lineLength, long sceneSeed, SegmentSink sink, ViewportCuller culler)
+    {
+        ensureDepth(iterations, branchingFactor);
+
+        //The generation has branchingFactor^iterations lines, numbered in the order the walk reaches them.
+        //The first line drawn from each of SAMPLED_DIRECTIONS equal stretches of those numbers is sampled.
+        long lineCount = 1;
+        for (int depth = 0; depth < iterations; depth++)
+        {
+            lineCount *= branchingFactor;
+        }
+        sampledCount = 0;
+        int nextSample = 0;
+
+        //Start at the center, with completely random directions.
+        int level = 0;
+        pointX[0] = centerX;
+        pointY[0] = centerY;
+        pointIndex[0] = 0;
+        nextBranch[0] = 0;
+        for (int slot = 0; slot < branchingFactor; slot++)
+        {
+            directions[slot] = BranchGenerator.getDirection(sceneSeed, slot);
+        }
+
+        //The center has no direction of its own, so its branches can start out anywhere between its two directions.
+        visibility[0] = testVisibility(0, Float.NaN, iterations, branchingFactor, centerX, centerY, lineLength, culler);
+        if (visibility[0] == ViewportCuller.OUTSIDE)
+        {
+            culler.prunedBranches++;
+            return;
+        }
+
+        while (level >= 0)
+        {
+            //Once every branch of this point has been followed, go back to its parent.
+            if (nextBranch[level] == branchingFactor)
+            {
+                level--;
+                continue;
+            }
+
+            int branch = nextBranch[level]++;
+            int newDepth = level + 1;
+            float direction = directions[level * branchingFactor + branch];
+
+            //Exactly the same calculation as the breadth-first BranchGenerator, so the points land in exactly the same places.
+            float reach = lineLength*newDepth*1.55f;
+            float newX = centerX + reach * FastTrig.sinPi(direction);
+            float newY = centerY + reach * FastTrig.cosPi(direction);
+
+            if (newDepth == iterations)
+            {
+                if (visibility[level] == ViewportCuller.INSIDE)
+                {
+                    if (culler == null) {
+                        sink.addSegment(pointX[level], pointY[level], newX, newY);
+                    } else {
+                        culler.passVisibleSegment(pointX[level], pointY[level], newX, newY, sink);
+                    }
+                }
+                else
+                {
+                    culler.clipSegment(pointX[level], pointY[level], newX, newY, sink);
+                }
+
+                long lineIndex = pointIndex[level] * branchingFactor + branch;
+                int sample = (int) (lineIndex * SAMPLED_DIRECTIONS / lineCount);
+                if (sample >= nextSample)
+                {
+                    sampledDirections[sampledCount++] = direction;
+                    nextSample = sample + 1;
+                }
+                continue;
+            }
+
+            //Step down into the new point, and give it directions for its own branches.
+            long newIndex = pointIndex[level] * branchingFactor + branch;
+            level = newDepth;
+            pointX[level] = newX;
+            pointY[level] = newY;
+            pointIndex[level] = newIndex;
+            nextBranch[level] = 0;
+            for (int slot = 0; slot < branchingFactor; slot++)
+            {
+                directions[level * branchingFactor + slot] = BranchGenerator.getNewDirection(direction, newDepth, sceneSeed, newIndex, slot);
+            }
+
+            //Everything inside a completely visible branch is visible too, so only test the others.
+            if (visibility[level - 1] == ViewportCuller.INSIDE)
+            {
+                visibility[level] = ViewportCuller.INSIDE;
+            }
+            else
+            {
+                visibility[level] = testVisibility(level, direction, iterations, branchingFactor, centerX, centerY, lineLength, culler);
+                if (visibility[level] == ViewportCuller.OUTSIDE)
+                {
+                    //None of this point's branches can be seen, so go straight back to its parent.
+                    culler.prunedBranches++;
+                    level--;
+                }
+            }
+        }
+    }
+
+    /**
+     * The directions (in half-turns) of a few lines of the generation drawn by the last call to stream,
+     * spread evenly across the generation. Branches that were culled have no lines, so they aren't sampled.
+     * @param directions filled with up to directions.length directions
+     * @return how many were filled in
+     */
+    public int getSampledDirections(float[] directions)
+    {
+        int count = Math.min(directions.length, sampledCount);
+        System.arraycopy(sampledDirections, 0, directions, 0, count);
+        return count;
+    }
+
+    /**
+     * Find out whether any line of the generation being drawn, growing from the point at this level, can be seen.
+     * Those lines all run between the circles for generations (iterations - 1) and iterations,
+     * and can only wander so far from this point's own direction and the directions of its branches.
+     *
+     * @param level
+     * @param ownDirection the direction that led to this point, or NaN for the center
+     * @return ViewportCuller.OUTSIDE, PARTLY_INSIDE or INSIDE (always INSIDE if there is no culler)
+     */
+    private int testVisibility(int level, float ownDirection, int iterations, int branchingFactor,
+                               float centerX, float centerY, int lineLength, ViewportCuller culler)
+    {
+        if (culler == null)
+        {
+            return ViewportCuller.INSIDE;
+        }
+
+        float lowest = directions[level * branchingFactor];
+        float highest = lowest;
+        for (int slot = 1; slot < branchingFactor; slot++)
+        {
+            lowest = Math.min(lowest, directions[level * branchingFactor + slot]);
+            highest = Math.max(highest, directions[level * branchingFactor + slot]);
+        }
+
+        if (!Float.isNaN(ownDirection))
+        {
+            lowest = Math.min(lowest, ownDirection);
+            highest = Math.max(highest, ownDirection);
+        }
+
+        float drift = BranchGenerator.getMaxDrift(level + 1, iterations);
+        float innerRadius = lineLength*(iterations - 1)*1.55f;
+        float outerRadius = lineLength*iterations*1.55f;
+
+        return culler.testSlice(centerX, centerY, innerRadius, outerRadius, lowest - drift, highest + drift);
+    }
+
+    /**
+     * Make sure the path arrays are long enough. They only grow when the user asks for a deeper tree or more branches.
+     * @param iterations
+     * @param branchingFactor
+     */
+    private void ensureDepth(int iterations, int branchingFactor)
+    {
+        if (pointX.length < iterations)
+        {
+            pointX = new float[iterations];
+            pointY = new float[iterations];
+            pointIndex = new long[iterations];
+            nextBranch = new int[iterations];
+            visibility = new int[iterations];
+        }
+
+        if (directions.length < iterations * branchingFactor)
+        {
+            directions = new float[iterations * branchingFactor];
+        }
+    }
+}
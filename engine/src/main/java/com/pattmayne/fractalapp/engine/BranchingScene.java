@@ -0,0 +1,509 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.Random;
+
+/**
+ * This class holds everything about the branching fractal except how it reaches the screen:
+ * lines stemming out from a center point, where each line generates two (or more) lines
+ * reaching out toward the edge at a semi-random angle.
+ *
+ * Each frame, the caller calls beginFrame, clears its canvas to BACKGROUND_COLOR if asked to,
+ * and then calls drawGeneration, which hands the visible part of every line in the next generation to a SegmentSink,
+ * all in the color returned by getColor.
+ *
+ * The methods for the menu don't draw anything themselves. Most of them only take effect at the beginning of the next frame.
+ */
+public class BranchingScene {
+
+    public static final int BACKGROUND_COLOR = 0xff0066ff;
+
+    //The deepest generation the user can ask for from the menu.
+    //The breadth-first frontier doubles with every generation, so it is limited to 12,
+    //but the depth-first walk only needs memory for one path through the tree, so it can go much deeper.
+    public static final int MAX_ITERATIONS = 12;
+    public static final int MAX_DEPTH_FIRST_ITERATIONS = 20;
+
+    //In depth-first mode every point can create more than two branches.
+    //Deep trees with lots of branches would have more lines than could ever be drawn,
+    //so the deepest generation is limited to roughly 2^21 lines whatever the branching factor.
+    public static final int MAX_BRANCHING_FACTOR = 4;
+    private static final double MAX_DEPTH_FIRST_LINES = 1 << 21;
+
+    private Random randomizer;
+
+    //Calculates each generation from the one before it, splitting large generations between several threads.
+    private BranchGenerator generator;
+
+    //Every random choice in a tree comes from this seed, so a tree always looks the same
+    //no matter which order (or how many threads) its points are calculated in.
+    //A new seed is chosen every time the animation starts back at the center.
+    private long sceneSeed;
+
+    //The points at the outer edge of the fractal.
+    //startPoints holds the current generation, and endPoints collects the generation being created from it.
+    //The two are swapped after each generation, so the arrays inside them are only allocated once.
+    private BranchFrontier startPoints;
+    private BranchFrontier endPoints;
+
+    //In depth-first mode, the streamer walks the tree from the center and hands each line straight to the sink.
+    private BranchStreamer streamer;
+    private boolean depthFirst = false;
+    private boolean depthFirstChange = false;
+    private int branchingFactor = 2;
+    private boolean branchingChange = false;
+
+    //Clips lines to the canvas, and skips whole branches that can't reach it.
+    private ViewportCuller culler;
+
+    private float canvasHeight;
+    private float canvasWidth;
+    private float centerX;
+    private float centerY;
+
+    private int iterations = 1;
+    private int maxIterations = 4;
+    private int lineLength = 70;
+    private int color = 0xffe1e1e1;
+    private int colorTicker = 0;
+    private boolean firstTime = true;
+    private boolean reset = false;
+    private boolean rainbow = false;
+
+
+    /**
+     * Constructor. Every tree gets a different, unpredictable shape.
+     */
+    public BranchingScene()
+    {
+        this(new Random());
+    }
+
+    /**
+     * Constructor. The same seed always produces the same sequence of trees.
+     * @param seed
+     */
+    public BranchingScene(long seed)
+    {
+        this(new Random(seed));
+    }
+
+    private BranchingScene(Random randomizer)
+    {
+        this.randomizer = randomizer;
+
+        //Each generation has twice as many points as the one before,
+        //so the deepest generation has 2^MAX_ITERATIONS points.
+        startPoints = new BranchFrontier(1 << MAX_ITERATIONS);
+        endPoints = new BranchFrontier(1 << MAX_ITERATIONS);
+
+        generator = new BranchGenerator();
+        streamer = new BranchStreamer();
+        culler = new ViewportCuller();
+    }
+
+
+    //The animation methods
+
+    /**
+     * This method is called at the beginning of every frame, before anything is drawn.
+     * It makes the changes the user asked for since the last frame, and starts the tree over when it has grown big enough.
+     * @param width the canvas width
+     * @param height the canvas height
+     * @return true if the whole canvas needs to be cleared to BACKGROUND_COLOR before drawing
+     */
+    public boolean beginFrame(int width, int height)
+    {
+        boolean clear = false;
+
+        culler.startFrame();
+
+        if (firstTime) {
+            doFirstTimeStuff(width, height);
+            clear = true;
+        }
+
+        if (rainbow)
+        {changeColor(false);}
+
+        //Switching between breadth-first and depth-first, or changing the number of branches,
+        //starts a new tree back at the center.
+        if (depthFirstChange) {
+            doDepthFirstChange();
+        }
+
+        if (branchingChange) {
+            branchingChange = false;
+            clearIterations();
+        }
+
+        if (iterations > maxIterations) {
+            clearIterations();
+        }
+
+        return clear;
+    }
+
+    /**
+     * Hand every visible line of the next generation to the sink.
+     * @param sink
+     */
+    public void drawGeneration(SegmentSink sink)
+    {
+        if (depthFirst) {
+            //Nothing is kept for the next generation; the walk simply goes one level deeper next time.
+            streamer.stream(iterations, branchingFactor, centerX, centerY, lineLength, sceneSeed, sink, culler);
+        } else {
+            drawBreadthFirstGeneration(sink);
+        }
+
+        iterations++;
+    }
+
+    /**
+     * Draw the next generation from the startPoints frontier, and keep the new endPoints for the generation after it.
+     */
+    private void drawBreadthFirstGeneration(SegmentSink sink)
+    {
+        //The generator takes the startPoints and calculates two new endPoints for each one.
+        generator.generate(startPoints, endPoints, centerX, centerY, lineLength*iterations*1.55f, iterations, sceneSeed);
+
+        //The point stored at position i of one generation creates the points stored at positions 2i and 2i+1 of the next.
+        //Add lines from each startPoint to its two new endPoints, clipped to the canvas.
+        for (int i = 0; i < startPoints.size; i++) {
+            int newIndex = i * 2;
+            culler.clipSegment(startPoints.pointX[i], startPoints.pointY[i], endPoints.pointX[newIndex], endPoints.pointY[newIndex], sink);
+            culler.clipSegment(startPoints.pointX[i], startPoints.pointY[i], endPoints.pointX[newIndex + 1], endPoints.pointY[newIndex + 1], sink);
+        }
+
+        //Points whose branches will never reach the canvas don't need to be kept for the next generation.
+        pruneEndPoints();
+
+        //Swap the two frontiers, so the new "endPoints" become the "startPoints" for the next iteration,
+        // and the old "startPoints" arrays are emptied to collect the next generation's endPoints.
+        BranchFrontier swapper = startPoints;
+        startPoints = endPoints;
+        endPoints = swapper;
+
+        endPoints.clear();
+    }
+
+    /**
+     * Set up the conditions for the first iteration,
+     * or recreate those conditions.
+     */
+    private void doFirstTimeStuff(int width, int height)
+    {
+        canvasHeight = height;
+        canvasWidth = width;
+
+        if (reset==false) {
+            //centerX and centerY will be the center of the fractal.
+            //starts in the center of the canvas,
+            //but changeCenter can move it
+            centerX = canvasWidth / 2;
+            centerY = canvasHeight / 2;
+        }
+
+        //The lines are 3 pixels wide, so a line can be just off the canvas and still show.
+        culler.setViewport(canvasWidth, canvasHeight, 2);
+
+        clearIterations();
+
+        firstTime=false;
+        reset=false;
+    }
+
+    /**
+     * Remove every new endPoint whose future branches can't reach the canvas before the tree starts over,
+     * so the following generations don't spend any time on them.
+     *
+     * Every branch growing from a point lies in a slice of the ring between this generation's circle and the last generation's circle.
+     * The slice is only as wide as the point's two directions can wander (see BranchGenerator.getMaxDrift).
+     * The remaining points keep their index in the tree, so the rest of the tree doesn't change.
+     * If every point is removed, nothing more is drawn until the tree starts over.
+     *
+     * A point removed while the center is near an edge stays removed if the center is moved back,
+     * but the tree starts over every few seconds anyway.
+     */
+    private void pruneEndPoints()
+    {
+        if (iterations >= maxIterations)
+        {
+            //The tree starts over after this generation, so there's nothing to save.
+            return;
+        }
+
+        float drift = BranchGenerator.getMaxDrift(iterations, maxIterations);
+        float innerRadius = lineLength*iterations*1.55f;
+        float outerRadius = lineLength*maxIterations*1.55f;
+
+        int kept = 0;
+        for (int i = 0; i < endPoints.size; i++)
+        {
+            float lowest = Math.min(endPoints.direction1[i], endPoints.direction2[i]) - drift;
+            float highest = Math.max(endPoints.direction1[i], endPoints.direction2[i]) + drift;
+
+            if (culler.testSlice(centerX, centerY, innerRadius, outerRadius, lowest, highest) == ViewportCuller.OUTSIDE)
+            {
+                culler.prunedBranches++;
+            }
+            else
+            {
+                endPoints.move(i, kept);
+                kept++;
+            }
+        }
+        endPoints.size = kept;
+    }
+
+    /**
+     * This method starts the animation back at the center.
+     * Otherwise the animation would keep growing, and wreak havoc on the user's computer.
+     * This is the only place the root is planted, so a frontier emptied by pruneEndPoints stays empty.
+     */
+    private void clearIterations()
+    {
+        iterations = 1;
+        sceneSeed = randomizer.nextLong();
+        startPoints.clear();
+        endPoints.clear();
+        generator.plantRoot(startPoints, centerX, centerY, sceneSeed);
+    }
+
+    /**
+     * The color of every line in the generation about to be drawn.
+     * @return
+     */
+    public int getColor()
+    {
+        return color;
+    }
+
+    public boolean isDepthFirst()
+    {
+        return depthFirst;
+    }
+
+    /**
+     * The culler's counts describe the frame just drawn.
+     * @return
+     */
+    public ViewportCuller getCuller()
+    {
+        return culler;
+    }
+
+    /**
+     * The directions (in half-turns) some of the branches of the generation just drawn set off in,
+     * picked evenly from across the generation.
+     * In depth-first mode no generation is kept, so the streamer samples a few of its lines as it draws them.
+     * @param directions filled with up to directions.length directions
+     * @return how many were filled in
+     */
+    public int getGenerationDirections(float[] directions)
+    {
+        if (depthFirst) {
+            return streamer.getSampledDirections(directions);
+        }
+
+        int count = Math.min(directions.length, startPoints.size);
+        for (int i = 0; i < count; i++) {
+            directions[i] = startPoints.direction1[i * startPoints.size / count];
+        }
+        return count;
+    }
+
+
+    //Stuff to call from the Activity to effect the animation
+
+
+    /**
+     * Creates a new center for the animation,
+     * somewhere between the old center and the given point.
+     * @param nx
+     * @param ny
+     */
+    public void changeCenter(int nx, int ny)
+    {
+        centerX += (nx-centerX)/13.1;
+        centerY += (ny-centerY)/13.1;
+    }
+
+    /**
+     * This method is either called when the user uses the menu to request a color change (masterColor == true),
+     * or this method is called on every iteration when rainbow is set to true for a constantly changing color pattern (masterColor == false).
+     *
+     * @param masterColor
+     */
+    public void changeColor(boolean masterColor){
+        if (masterColor) {rainbow=false;}
+
+        colorTicker++;
+
+        if(colorTicker==1){
+            color = 0xffffffff;}
+        else if(colorTicker==2){
+            color = 0xfff71300;}
+        else if(colorTicker==3){
+            color = 0xffeae000;}
+        else if (colorTicker==4){
+            color = 0xff006a28;}
+        else if(colorTicker==5){
+            color = 0xffff65a3;}
+        else if(colorTicker==6){
+            color = 0xff000000;}
+        else if(colorTicker==7){
+            color = 0xff009d0e;}
+        else if(colorTicker==8){
+            color = 0xff8fbbff;}
+        else if(colorTicker==9){
+            color = 0xffd59200;}
+        else if (colorTicker==10) {
+            color = 0xff4100ff;}
+        else {
+            color = 0xffe1e1e1;
+            colorTicker=0;}
+    }
+
+    /**
+     * This method is called when the user requests more iterations in the animation from the menu.
+     */
+    public void bigger(){
+        maxIterations ++;
+        if(maxIterations>getIterationCeiling())
+        {maxIterations=getIterationCeiling();}
+    }
+
+    /**
+     * The deepest generation allowed in the current mode, with the current number of branches.
+     * @return
+     */
+    private int getIterationCeiling()
+    {
+        if (!depthFirst)
+        {
+            return MAX_ITERATIONS;
+        }
+
+        int ceiling = (int) (Math.log(MAX_DEPTH_FIRST_LINES) / Math.log(branchingFactor));
+        return Math.min(ceiling, MAX_DEPTH_FIRST_ITERATIONS);
+    }
+
+    /**
+     * This method is called when the user requests fewer iterations in the animation from the menu.
+     */
+    public void smaller(){
+        maxIterations --;
+        if(maxIterations<3)
+        {maxIterations=3;}
+    }
+
+    /**
+     * This method is called when the user switches between breadth-first and depth-first drawing from the menu.
+     * The switch happens at the beginning of the next iteration.
+     */
+    public void toggleDepthFirst()
+    {
+        depthFirstChange = true;
+    }
+
+    /**
+     * Switch between breadth-first and depth-first drawing.
+     * Breadth-first drawing only has two branches per point, and can't go as deep.
+     */
+    private void doDepthFirstChange()
+    {
+        depthFirst = !depthFirst;
+        depthFirstChange = false;
+
+        if (!depthFirst)
+        {
+            branchingFactor = 2;
+            if (maxIterations > MAX_ITERATIONS)
+            {maxIterations = MAX_ITERATIONS;}
+        }
+
+        clearIterations();
+    }
+
+    /**
+     * This method is called when the user requests more branches from every point.
+     * Only depth-first drawing can create more than two branches.
+     */
+    public void moreBranches()
+    {
+        if (depthFirst && branchingFactor < MAX_BRANCHING_FACTOR)
+        {
+            branchingFactor++;
+            if (maxIterations > getIterationCeiling())
+            {maxIterations = getIterationCeiling();}
+            branchingChange = true;
+        }
+    }
+
+    /**
+     * This method is called when the user requests fewer branches from every point.
+     */
+    public void fewerBranches()
+    {
+        if (branchingFactor > 2)
+        {
+            branchingFactor--;
+            branchingChange = true;
+        }
+    }
+
+    /**
+     * This method is called when the user requests longer lines from the menu.
+     */
+    public void longerLines()
+    {
+        lineLength += 9;
+        if (lineLength > 370)
+        {lineLength = 370;}
+    }
+
+    /**
+     * This method is called when the user requests shorter lines from the menu.
+     */
+    public void shorterLines()
+    {
+        lineLength -= 9;
+        if (lineLength < 15)
+        {lineLength = 10;}
+    }
+
+    /**
+     * This method is called when the user requests for the animation to be reset.
+     * The center stays where it is.
+     */
+    public void resetImage() {
+        firstTime=true;
+        reset=true;
+    }
+
+    /**
+     * This method sets the rainbow variable to true,
+     * so each iteration will have a different color.
+     */
+    public void setRainbow() {
+        rainbow=true;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class passes commands from one thread to another without locking either of them.
+ * The UI thread offers a command whenever the user picks something from the menu or touches the screen,
+ * and the animation thread drains every waiting command at the beginning of a frame,
+ * so the animation's state is only ever changed by the thread that draws it.
+ *
+ * A command is an int code, which the two threads agree on, plus two float arguments (for example a point on the screen).
+ * The commands are kept in fixed arrays used as a ring, so offering and draining never allocate anything.
+ *
+ * Exactly one thread may offer commands, and exactly one thread may drain them.
+ * The producer writes a command into the arrays before it publishes the new tail,
+ * and the consumer reads the tail before it reads the arrays, so the consumer always sees the whole command.
+ * The consumer publishes the new head in the same way, so a slot is never reused before it has been read.
+ */
+public class CommandQueue {
+
+    /**
+     * Whatever carries out the commands, on the thread that drains the queue.
+     */
+    public interface Consumer {
+
+        void onCommand(int code, float x, float y);
+    }
+
+    private final int mask;
+    private final int[] codes;
+    private final float[] xs;
+    private final float[] ys;
+
+    //The head and tail only ever count upwards (wrapping around past Integer.MAX_VALUE does no harm),
+    //and mask turns them into places in the arrays.
+    //Only the consumer moves the head, and only the producer moves the tail.
+    private final AtomicInteger head = new AtomicInteger();
+    private final AtomicInteger tail = new AtomicInteger();
+
+
+    /**
+     * Constructor
+     * @param capacity how many commands can wait at once. Rounded up to a power of two.
+     */
+    public CommandQueue(int capacity)
+    {
+        int size = (capacity <= 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        codes = new int[size];
+        xs = new float[size];
+        ys = new float[size];
+    }
+
+    /**
+     * Add a command with no arguments. Only call this from the producer thread.
+     * @param code
+     * @return false if the queue was full, in which case the command is dropped
+     */
+    public boolean offer(int code)
+    {
+        return offer(code, 0, 0);
+    }
+
+    /**
+     * Add a command. Only call this from the producer thread.
+     * @param code
+     * @param x
+     * @param y
+     * @return false if the queue was full, in which case the command is dropped
+     */
+    public boolean offer(int code, float x, float y)
+    {
+        int currentTail = tail.get();
+        if (currentTail - head.get() > mask)
+        {
+            return false;
+        }
+
+        int slot = currentTail & mask;
+        codes[slot] = code;
+        xs[slot] = x;
+        ys[slot] = y;
+
+        //lazySet is enough: it can't be reordered with the writes above, and the consumer will see it soon after.
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Carry out every command that was waiting when this was called, oldest first.
+     * Only call this from the consumer thread.
+     * @param consumer
+     * @return how many commands were carried out
+     */
+    public int drain(Consumer consumer)
+    {
+        int currentHead = head.get();
+        int currentTail = tail.get();
+        int drained = currentTail - currentHead;
+
+        while (currentHead != currentTail)
+        {
+            int slot = currentHead & mask;
+            consumer.onCommand(codes[slot], xs[slot], ys[slot]);
+            currentHead++;
+            head.lazySet(currentHead);
+        }
+        return drained;
+    }
+
+    /**
+     * How many more commands can be offered before the queue is full.
+     * From the producer thread this is a safe lower bound, since the consumer only ever makes more room.
+     * @return
+     */
+    public int getFreeSpace()
+    {
+        return mask + 1 - (tail.get() - head.get());
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+}
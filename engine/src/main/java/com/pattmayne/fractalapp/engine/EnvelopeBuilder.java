@@ -0,0 +1,153 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class turns the decoded samples of a whole track into an AudioEnvelope.
+ *
+ * The samples are cut into frames of frameMillis, and each frame's energy is the root mean square of its samples
+ * (every channel together). The energies are then scaled so the loudest frame of the track is 1.
+ *
+ * A beat shows up as a frame that is much louder than the few frames before it,
+ * so each frame's onset is how far its energy rises above the average of the previous ONSET_HISTORY frames
+ * (nothing, if it is quieter), scaled so the strongest beat of the track is 1.
+ * Working in the time domain like this is far cheaper than comparing frequency spectra, and good enough for drums.
+ * Every onset then fades out by ONSET_DECAY each frame, unless a stronger one follows.
+ *
+ * The samples can be added in pieces of any size, as they come out of the decoder.
+ */
+public class EnvelopeBuilder {
+
+    //About 100 milliseconds, with 20 millisecond frames
+    public static final int ONSET_HISTORY = 5;
+    public static final float ONSET_DECAY = 0.85f;
+
+    private final int samplesPerFrame;
+    private final int frameMillis;
+
+    private float[] frameEnergies = new float[256];
+    private int frameCount = 0;
+
+    //The frame being added to
+    private double sumOfSquares = 0;
+    private int sampleCount = 0;
+
+
+    /**
+     * Constructor
+     * @param sampleRate how many samples each channel has every second
+     * @param channelCount the samples of the channels are interleaved
+     * @param frameMillis how long each frame of the envelope should be
+     */
+    public EnvelopeBuilder(int sampleRate, int channelCount, int frameMillis)
+    {
+        if (sampleRate <= 0 || channelCount <= 0 || frameMillis <= 0)
+        {
+            throw new IllegalArgumentException("Bad audio format: " + sampleRate + " Hz, "
+                    + channelCount + " channels, " + frameMillis + " ms frames");
+        }
+        this.frameMillis = frameMillis;
+        samplesPerFrame = Math.max(1, (int) ((long) sampleRate * frameMillis / 1000)) * channelCount;
+    }
+
+    /**
+     * Add the next samples of the track.
+     * @param samples 16-bit samples, with the channels interleaved
+     * @param offset
+     * @param length
+     */
+    public void addSamples(short[] samples, int offset, int length)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            double sample = samples[i];
+            sumOfSquares += sample * sample;
+            sampleCount++;
+
+            if (sampleCount == samplesPerFrame)
+            {
+                endFrame();
+            }
+        }
+    }
+
+    private void endFrame()
+    {
+        if (frameCount == frameEnergies.length)
+        {
+            float[] biggerEnergies = new float[frameCount * 2];
+            System.arraycopy(frameEnergies, 0, biggerEnergies, 0, frameCount);
+            frameEnergies = biggerEnergies;
+        }
+        frameEnergies[frameCount++] = (float) Math.sqrt(sumOfSquares / sampleCount);
+
+        sumOfSquares = 0;
+        sampleCount = 0;
+    }
+
+    /**
+     * Make the envelope of every sample added so far. A last frame that was only partly filled counts as a whole one.
+     * @return
+     */
+    public AudioEnvelope build()
+    {
+        if (sampleCount > 0)
+        {
+            endFrame();
+        }
+
+        float[] rises = new float[frameCount];
+        float maxEnergy = 0;
+        float maxRise = 0;
+        float historySum = 0;
+        for (int i = 0; i < frameCount; i++)
+        {
+            float energy = frameEnergies[i];
+            maxEnergy = Math.max(maxEnergy, energy);
+
+            //The first few frames are compared with however many frames there are before them.
+            int history = Math.min(i, ONSET_HISTORY);
+            float average = (history == 0) ? 0 : historySum / history;
+            rises[i] = Math.max(0, energy - average);
+            maxRise = Math.max(maxRise, rises[i]);
+
+            historySum += energy;
+            if (i >= ONSET_HISTORY)
+            {
+                historySum -= frameEnergies[i - ONSET_HISTORY];
+            }
+        }
+
+        byte[] energies = new byte[frameCount];
+        byte[] onsets = new byte[frameCount];
+        float onset = 0;
+        for (int i = 0; i < frameCount; i++)
+        {
+            energies[i] = toByte(maxEnergy == 0 ? 0 : frameEnergies[i] / maxEnergy);
+
+            onset = Math.max(onset * ONSET_DECAY, maxRise == 0 ? 0 : rises[i] / maxRise);
+            onsets[i] = toByte(onset);
+        }
+        return new AudioEnvelope(frameMillis, energies, onsets);
+    }
+
+    private static byte toByte(float value)
+    {
+        return (byte) Math.round(Math.min(1, Math.max(0, value)) * 255);
+    }
+}
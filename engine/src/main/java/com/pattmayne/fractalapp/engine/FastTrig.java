@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class replaces Math.sin and Math.cos in the animation loops with a precomputed table.
+ *
+ * The table holds one full circle of sine values. To find the sine of any angle,
+ * we find the two table entries on either side of it and interpolate in a straight line between them.
+ * Cosine uses the same table, a quarter-circle further along.
+ *
+ * The angle is wrapped onto the table in double precision, so huge accumulated angles
+ * (the triangle spin keeps growing for as long as the animation runs) stay accurate.
+ * With 4096 entries the result is within about 4e-7 of Math.sin,
+ * which is far less than a pixel even at the largest radius the animations draw.
+ */
+public final class FastTrig {
+
+    private static final int TABLE_SIZE = 4096;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final int QUARTER_CIRCLE = TABLE_SIZE / 4;
+
+    private static final double ENTRIES_PER_RADIAN = TABLE_SIZE / (2.0 * Math.PI);
+    private static final double ENTRIES_PER_HALF_TURN = TABLE_SIZE / 2.0;
+
+    //One extra entry at the end, so interpolating past the last entry never has to wrap around.
+    private static final float[] SINE_TABLE = new float[TABLE_SIZE + 1];
+
+    static
+    {
+        for (int i = 0; i <= TABLE_SIZE; i++)
+        {
+            SINE_TABLE[i] = (float) Math.sin(i * (2.0 * Math.PI / TABLE_SIZE));
+        }
+    }
+
+    private FastTrig() {}
+
+    /**
+     * @param radians
+     * @return approximately Math.sin(radians)
+     */
+    public static float sin(double radians)
+    {
+        return lookup(radians * ENTRIES_PER_RADIAN);
+    }
+
+    /**
+     * @param radians
+     * @return approximately Math.cos(radians)
+     */
+    public static float cos(double radians)
+    {
+        return lookup(radians * ENTRIES_PER_RADIAN + QUARTER_CIRCLE);
+    }
+
+    /**
+     * The branching fractal measures its directions in half-turns (0 to 2 is a full circle),
+     * so this saves multiplying by PI and dividing it back out again.
+     * @param halfTurns
+     * @return approximately Math.sin(Math.PI * halfTurns)
+     */
+    public static float sinPi(double halfTurns)
+    {
+        return lookup(halfTurns * ENTRIES_PER_HALF_TURN);
+    }
+
+    /**
+     * @param halfTurns
+     * @return approximately Math.cos(Math.PI * halfTurns)
+     */
+    public static float cosPi(double halfTurns)
+    {
+        return lookup(halfTurns * ENTRIES_PER_HALF_TURN + QUARTER_CIRCLE);
+    }
+
+    /**
+     * Find the sine at a position in the table (which may be anywhere, even negative),
+     * by interpolating between the two nearest entries.
+     * @param tablePosition
+     * @return
+     */
+    private static float lookup(double tablePosition)
+    {
+        double floor = Math.floor(tablePosition);
+        int index = (int) ((long) floor & TABLE_MASK);
+        float fraction = (float) (tablePosition - floor);
+
+        float below = SINE_TABLE[index];
+        return below + (SINE_TABLE[index + 1] - below) * fraction;
+    }
+}
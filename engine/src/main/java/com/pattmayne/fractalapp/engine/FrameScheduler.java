@@ -0,0 +1,155 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class keeps an animation running at a steady frame rate.
+ *
+ * Instead of sleeping for a fixed time after every frame (which makes every frame take the drawing time plus the sleep),
+ * it keeps a deadline for the start of each frame, exactly one interval after the deadline before it,
+ * and only sleeps for whatever is left of the interval once the frame has been drawn.
+ * So the frame rate doesn't change when the frames take longer or shorter to draw.
+ *
+ * When a frame runs past its deadline, the next frame starts straight away so the animation catches up.
+ * If it falls more than MAX_CATCH_UP_FRAMES behind, it gives up on the frames it missed (they are counted as skipped)
+ * instead of rushing through them all at once.
+ *
+ * waitForNextFrame is called from the animation thread. setInterval can be called from any thread.
+ */
+public class FrameScheduler {
+
+    //How many frames behind the animation can fall before it skips ahead instead of catching up.
+    public static final int MAX_CATCH_UP_FRAMES = 2;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private volatile long intervalNanos;
+
+    //When the next frame should start, in System.nanoTime terms. Zero until the first frame has been drawn.
+    private long nextDeadline = 0;
+
+    //Counts since the scheduler was created (or last reset)
+    private int frames;
+    private int lateFrames;
+    private int skippedFrames;
+
+
+    /**
+     * Constructor
+     * @param intervalMillis how long each frame should last
+     */
+    public FrameScheduler(long intervalMillis)
+    {
+        setInterval(intervalMillis);
+    }
+
+    /**
+     * Change how long each frame lasts. The new interval starts with the frame after the one being drawn.
+     * @param intervalMillis
+     */
+    public void setInterval(long intervalMillis)
+    {
+        intervalNanos = Math.max(1, intervalMillis) * NANOS_PER_MILLI;
+    }
+
+    public long getIntervalMillis()
+    {
+        return intervalNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Start the deadlines over from the next frame, for example when the animation thread is restarted.
+     */
+    public void reset()
+    {
+        nextDeadline = 0;
+        frames = 0;
+        lateFrames = 0;
+        skippedFrames = 0;
+    }
+
+    /**
+     * Call this when a frame has been drawn. It waits until the next frame is due,
+     * or returns straight away if the animation is behind.
+     */
+    public void waitForNextFrame()
+    {
+        long now = nanoTime();
+        long interval = intervalNanos;
+
+        if (nextDeadline == 0)
+        {
+            //The first frame started just now.
+            nextDeadline = now;
+        }
+        nextDeadline += interval;
+        frames++;
+
+        long lateness = now - nextDeadline;
+        if (lateness > 0)
+        {
+            lateFrames++;
+
+            if (lateness >= MAX_CATCH_UP_FRAMES * interval)
+            {
+                //Too far behind to catch up, so move the deadline to the most recent one that has already passed.
+                long missed = lateness / interval;
+                skippedFrames += missed;
+                nextDeadline += missed * interval;
+            }
+            return;
+        }
+
+        sleepNanos(nextDeadline - now);
+    }
+
+    public int getFrameCount()
+    {
+        return frames;
+    }
+
+    /**
+     * How many frames finished after the next frame should already have started.
+     * @return
+     */
+    public int getLateFrameCount()
+    {
+        return lateFrames;
+    }
+
+    /**
+     * How many deadlines were given up on because the animation had fallen too far behind.
+     * @return
+     */
+    public int getSkippedFrameCount()
+    {
+        return skippedFrames;
+    }
+
+    protected long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    protected void sleepNanos(long nanos)
+    {
+        try {
+            Thread.sleep(nanos / NANOS_PER_MILLI, (int) (nanos % NANOS_PER_MILLI));
+        } catch (InterruptedException e) {}
+    }
+}
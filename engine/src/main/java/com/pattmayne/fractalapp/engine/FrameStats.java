@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.Locale;
+
+/**
+ * This class measures how long each stage of a frame takes, so a slow frame can be traced to the stage that made it slow.
+ *
+ * The render loop calls startStage when it starts working, and endStage after each piece of work,
+ * naming the stage that piece belonged to. A stage can be ended several times in one frame
+ * (for example when lines are drawn in batches in between calculating them), and its times are added up.
+ * endFrame records each stage's total, and the whole frame's total, in a LatencyHistogram.
+ *
+ * Every reportInterval, endFrame turns the histograms into a short report (p50, p95, p99 and max for each stage)
+ * and starts them again, so the report always describes the last few seconds with the current settings.
+ * Only building the report allocates anything.
+ */
+public class FrameStats {
+
+    //The stages of a frame
+    public static final int GEOMETRY = 0;
+    public static final int RASTER = 1;
+    public static final int BLIT = 2;
+    public static final int POST = 3;
+    public static final int STAGE_COUNT = 4;
+
+    private static final String[] STAGE_NAMES = {"geometry", "raster", "blit", "post", "frame"};
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    //One histogram for each stage, and one more for the whole frame.
+    private final LatencyHistogram[] histograms;
+
+    //The time spent on each stage so far in this frame.
+    private final long[] stageTimes;
+    private long stageStart;
+
+    //The time spent on each stage in the last frame that ended.
+    private final long[] lastStageTimes;
+
+    private final long reportIntervalNanos;
+    private long windowStart = 0;
+    private String[] reportLines;
+
+
+    /**
+     * Constructor
+     * @param reportIntervalMillis how often the report is brought up to date
+     */
+    public FrameStats(long reportIntervalMillis)
+    {
+        reportIntervalNanos = reportIntervalMillis * NANOS_PER_MILLI;
+
+        histograms = new LatencyHistogram[STAGE_COUNT + 1];
+        for (int i = 0; i < histograms.length; i++)
+        {
+            histograms[i] = new LatencyHistogram();
+        }
+        stageTimes = new long[STAGE_COUNT];
+        lastStageTimes = new long[STAGE_COUNT];
+        reportLines = new String[] {"Measuring frame times..."};
+    }
+
+    /**
+     * Start timing. Anything that happens between now and the next endStage is counted as part of that stage.
+     */
+    public void startStage()
+    {
+        stageStart = nanoTime();
+    }
+
+    /**
+     * Add the time since the last startStage or endStage to a stage, and start timing the next one.
+     * @param stage GEOMETRY, RASTER, BLIT or POST
+     */
+    public void endStage(int stage)
+    {
+        long now = nanoTime();
+        stageTimes[stage] += now - stageStart;
+        stageStart = now;
+    }
+
+    /**
+     * Record the frame that just finished.
+     * @return true if the report has just been brought up to date
+     */
+    public boolean endFrame()
+    {
+        long frameTime = 0;
+        for (int stage = 0; stage < STAGE_COUNT; stage++)
+        {
+            histograms[stage].record(stageTimes[stage]);
+            frameTime += stageTimes[stage];
+            lastStageTimes[stage] = stageTimes[stage];
+            stageTimes[stage] = 0;
+        }
+        histograms[STAGE_COUNT].record(frameTime);
+
+        long now = nanoTime();
+        if (windowStart == 0)
+        {
+            windowStart = now;
+        }
+        else if (now - windowStart >= reportIntervalNanos)
+        {
+            makeReport(now - windowStart);
+            windowStart = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * How long one stage took in the last frame that ended.
+     * @param stage GEOMETRY, RASTER, BLIT or POST
+     * @return nanoseconds
+     */
+    public long getLastStageTime(int stage)
+    {
+        return lastStageTimes[stage];
+    }
+
+    /**
+     * The histogram for one stage (or STAGE_COUNT for the whole frame), since the last report.
+     * @param stage
+     * @return
+     */
+    public LatencyHistogram getHistogram(int stage)
+    {
+        return histograms[stage];
+    }
+
+    /**
+     * The latest report, one line for each stage and one for the whole frame.
+     * @return
+     */
+    public String[] getReportLines()
+    {
+        return reportLines;
+    }
+
+    /**
+     * The latest report, all on one line, for the log.
+     * @return
+     */
+    public String getReport()
+    {
+        String[] lines = reportLines;
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < lines.length; i++)
+        {
+            if (i > 0)
+            {
+                report.append("; ");
+            }
+            report.append(lines[i]);
+        }
+        return report.toString();
+    }
+
+    private void makeReport(long windowNanos)
+    {
+        String[] lines = new String[histograms.length + 1];
+        lines[0] = String.format(Locale.US, "%d frames in %.1f s (ms)",
+                histograms[STAGE_COUNT].getCount(), windowNanos / 1e9);
+
+        for (int i = 0; i < histograms.length; i++)
+        {
+            LatencyHistogram histogram = histograms[i];
+            lines[i + 1] = String.format(Locale.US, "%-8s p50 %6.2f  p95 %6.2f  p99 %6.2f  max %6.2f", STAGE_NAMES[i],
+                    toMillis(histogram.getPercentile(0.50)), toMillis(histogram.getPercentile(0.95)),
+                    toMillis(histogram.getPercentile(0.99)), toMillis(histogram.getMax()));
+            histogram.clear();
+        }
+
+        reportLines = lines;
+    }
+
+    private static double toMillis(long nanos)
+    {
+        return nanos / (double) NANOS_PER_MILLI;
+    }
+
+    protected long nanoTime()
+    {
+        return System.nanoTime();
+    }
+}
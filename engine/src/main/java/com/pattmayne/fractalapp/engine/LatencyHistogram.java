@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class counts how many recorded times fell into each of a fixed set of ranges,
+ * so percentiles can be found without keeping every single time.
+ *
+ * The ranges get wider as the times get longer: every doubling of time (1-2 microseconds, 2-4, 4-8 and so on)
+ * is split into SUB_BUCKETS equal parts, so a percentile is never off by more than one eighth of its value.
+ * Anything under a microsecond shares the first range, and anything over about 17 seconds shares the last.
+ *
+ * Recording a time never allocates anything, so it can be done for every frame.
+ * A histogram isn't thread-safe; it should be recorded and read on the same thread.
+ */
+public class LatencyHistogram {
+
+    //2^10 nanoseconds is about one microsecond, and 2^34 is about 17 seconds.
+    private static final int MIN_EXPONENT = 10;
+    private static final int MAX_EXPONENT = 34;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //One bucket for everything under a microsecond, then SUB_BUCKETS for every doubling.
+    private static final int BUCKET_COUNT = 1 + (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+    private final int[] counts = new int[BUCKET_COUNT];
+    private int totalCount;
+    private long max;
+
+
+    /**
+     * Count one more time.
+     * @param nanos
+     */
+    public void record(long nanos)
+    {
+        counts[getBucket(nanos)]++;
+        totalCount++;
+        if (nanos > max)
+        {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Forget every time recorded so far.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        max = 0;
+    }
+
+    public int getCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * The longest time recorded, exactly.
+     * @return
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * The time that the given fraction of all the recorded times were no longer than.
+     * This is the top of the range that percentile falls in, so it can be up to one range too high, but never too low
+     * (except that it is never more than the longest time recorded).
+     * @param fraction between 0 and 1, for example 0.95 for the 95th percentile
+     * @return the time in nanoseconds, or zero if nothing has been recorded
+     */
+    public long getPercentile(double fraction)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+
+        int wanted = Math.max(1, (int) Math.ceil(fraction * totalCount));
+        int seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts[i];
+            if (seen >= wanted)
+            {
+                return Math.min(getBucketTop(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Which range a time falls in.
+     */
+    static int getBucket(long nanos)
+    {
+        if (nanos < (1L << MIN_EXPONENT))
+        {
+            return 0;
+        }
+
+        //The highest bit gives the doubling, and the next SUB_BUCKET_BITS bits give the part of it.
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+        int part = (int) ((nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + part;
+    }
+
+    /**
+     * The longest time that falls in a range.
+     */
+    static long getBucketTop(int bucket)
+    {
+        if (bucket == 0)
+        {
+            return (1L << MIN_EXPONENT) - 1;
+        }
+
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int part = (bucket - 1) % SUB_BUCKETS;
+        return (1L << exponent) + ((part + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
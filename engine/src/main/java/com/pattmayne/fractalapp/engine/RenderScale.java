@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class decides how many pixels the animations are drawn with, as a fraction (the scale) of the screen's own.
+ * The views draw into a bitmap that much smaller and stretch it over the whole screen,
+ * so on a very large screen the animation doesn't have to fill far more pixels than its look needs.
+ *
+ * The scale never goes above maxScale (the one the resources ask for).
+ * In automatic mode it steps down by STEP whenever the frames take too long for their budget,
+ * and back up towards maxScale when they have plenty of time to spare, judging by WINDOW_FRAMES frames at a time.
+ * The cost of drawing grows with the number of pixels (the square of the scale), so one step up from a frame time
+ * under FAST of the budget stays well under SLOW, and the scale doesn't bounce between two steps.
+ *
+ * Only used on the animation thread.
+ */
+public class RenderScale {
+
+    public static final float MIN_SCALE = 0.25f;
+    public static final float STEP = 0.75f;
+    public static final int WINDOW_FRAMES = 60;
+
+    //Fractions of the frame budget
+    public static final float SLOW = 0.85f;
+    public static final float FAST = 0.4f;
+
+    //There's no point drawing faster than the screen refreshes, so a frame always has at least this long.
+    public static final long MIN_BUDGET_NANOS = 16000000L;
+
+    private final float maxScale;
+    private final boolean automatic;
+    private float scale;
+
+    private long windowNanos = 0;
+    private int windowFrames = 0;
+
+
+    /**
+     * Constructor
+     * @param maxScale the scale to start with, from MIN_SCALE to 1
+     * @param automatic whether the scale follows the frame times
+     */
+    public RenderScale(float maxScale, boolean automatic)
+    {
+        this.maxScale = Math.max(MIN_SCALE, Math.min(1, maxScale));
+        this.automatic = automatic;
+        scale = this.maxScale;
+    }
+
+    public float getScale()
+    {
+        return scale;
+    }
+
+    public boolean isAutomatic()
+    {
+        return automatic;
+    }
+
+    /**
+     * How many pixels to draw for a number of pixels on the screen.
+     * @param screenSize a width or a height
+     * @return at least 1
+     */
+    public int getScaledSize(int screenSize)
+    {
+        return Math.max(1, Math.round(screenSize * scale));
+    }
+
+    /**
+     * Count one more frame, in automatic mode. Only the time that depends on the number of pixels should be counted,
+     * and not the time spent waiting for the screen.
+     * @param frameNanos how long the frame took to draw
+     * @param budgetNanos how long the frame is meant to last
+     * @return true if the scale has just changed, so the bitmap needs to change size
+     */
+    public boolean onFrame(long frameNanos, long budgetNanos)
+    {
+        if (!automatic)
+        {
+            return false;
+        }
+
+        windowNanos += frameNanos;
+        windowFrames++;
+        if (windowFrames < WINDOW_FRAMES)
+        {
+            return false;
+        }
+
+        long averageNanos = windowNanos / windowFrames;
+        windowNanos = 0;
+        windowFrames = 0;
+
+        long budget = Math.max(budgetNanos, MIN_BUDGET_NANOS);
+        float newScale = scale;
+        if (averageNanos > budget * SLOW)
+        {
+            newScale = Math.max(MIN_SCALE, scale * STEP);
+        }
+        else if (averageNanos < budget * FAST)
+        {
+            newScale = Math.min(maxScale, scale / STEP);
+        }
+
+        if (newScale == scale)
+        {
+            return false;
+        }
+        scale = newScale;
+        return true;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.Arrays;
+
+/**
+ * This class draws the fractals into a plain int[] of ARGB pixels (the same layout as Bitmap.getPixels),
+ * so the scenes can be drawn, tested and measured on any JVM, without Android.
+ *
+ * It is deliberately simple: lines are one pixel wide, triangles are filled by testing the center of each pixel,
+ * and there's no anti-aliasing or blending. A color that is completely transparent draws nothing (like a Paint would),
+ * and any other color is drawn as if it were opaque.
+ */
+public class SoftwareRenderer implements SegmentSink, TriangleSink {
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    //The color for lines. Triangles bring their own colors.
+    private int color = 0xffffffff;
+
+    //Whether triangles are filled, or only their outlines are drawn.
+    private boolean fill = true;
+
+    //Lines are clipped to the raster first, so a line reaching far off the screen doesn't cost anything.
+    private final ViewportCuller culler;
+    private final SegmentSink rasterSink;
+
+
+    /**
+     * Constructor
+     * @param width
+     * @param height
+     */
+    public SoftwareRenderer(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        pixels = new int[width * height];
+
+        culler = new ViewportCuller();
+        culler.setViewport(width, height, 0);
+        rasterSink = new SegmentSink() {
+            @Override
+            public void addSegment(float startX, float startY, float endX, float endY) {
+                rasterizeLine(startX, startY, endX, endY, color);
+            }
+        };
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * The pixels, one row after another, starting at the top left.
+     * @return
+     */
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    public int getPixel(int x, int y)
+    {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Fill the whole raster with one color.
+     * @param clearColor
+     */
+    public void clear(int clearColor)
+    {
+        Arrays.fill(pixels, clearColor);
+    }
+
+    /**
+     * Set the color for the lines that follow.
+     * @param newColor
+     */
+    public void setColor(int newColor)
+    {
+        color = newColor;
+    }
+
+    /**
+     * Choose whether the triangles that follow are filled, or only outlined.
+     * @param fill
+     */
+    public void setFill(boolean fill)
+    {
+        this.fill = fill;
+    }
+
+    @Override
+    public void addSegment(float startX, float startY, float endX, float endY)
+    {
+        if (isTransparent(color))
+        {
+            return;
+        }
+        culler.clipSegment(startX, startY, endX, endY, rasterSink);
+    }
+
+    @Override
+    public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int triangleColor)
+    {
+        if (isTransparent(triangleColor))
+        {
+            return;
+        }
+
+        if (fill)
+        {
+            fillTriangle(x1, y1, x2, y2, x3, y3, triangleColor);
+        }
+        else
+        {
+            int lineColor = color;
+            color = triangleColor;
+            culler.clipSegment(x1, y1, x2, y2, rasterSink);
+            culler.clipSegment(x2, y2, x3, y3, rasterSink);
+            culler.clipSegment(x3, y3, x1, y1, rasterSink);
+            color = lineColor;
+        }
+    }
+
+    @Override
+    public void addEdge(float startX, float startY, float endX, float endY, int edgeColor)
+    {
+        if (isTransparent(edgeColor))
+        {
+            return;
+        }
+
+        int lineColor = color;
+        color = edgeColor;
+        culler.clipSegment(startX, startY, endX, endY, rasterSink);
+        color = lineColor;
+    }
+
+    private boolean isTransparent(int argb)
+    {
+        return (argb >>> 24) == 0;
+    }
+
+    /**
+     * Step along the line one pixel at a time (in whichever direction it moves furthest),
+     * coloring the pixel under each step.
+     */
+    private void rasterizeLine(float startX, float startY, float endX, float endY, int lineColor)
+    {
+        float dx = endX - startX;
+        float dy = endY - startY;
+        int steps = (int) Math.ceil(Math.max(Math.abs(dx), Math.abs(dy)));
+        float stepX = steps == 0 ? 0 : dx / steps;
+        float stepY = steps == 0 ? 0 : dy / steps;
+
+        float x = startX;
+        float y = startY;
+        for (int i = 0; i <= steps; i++)
+        {
+            int px = (int) Math.floor(x);
+            int py = (int) Math.floor(y);
+
+            //The clipped line can end exactly on the right or bottom edge, just outside the last pixel.
+            if (px >= 0 && px < width && py >= 0 && py < height)
+            {
+                pixels[py * width + px] = lineColor;
+            }
+            x += stepX;
+            y += stepY;
+        }
+    }
+
+    /**
+     * Fill every pixel whose center is inside the triangle, one row at a time.
+     * The corners are sorted from top to bottom, so each row runs between the long edge (top to bottom)
+     * and one of the two short edges.
+     */
+    private void fillTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int triangleColor)
+    {
+        float topX = x1, topY = y1;
+        float middleX = x2, middleY = y2;
+        float bottomX = x3, bottomY = y3;
+        float swapX, swapY;
+
+        if (middleY < topY) { swapX = topX; swapY = topY; topX = middleX; topY = middleY; middleX = swapX; middleY = swapY; }
+        if (bottomY < middleY) { swapX = middleX; swapY = middleY; middleX = bottomX; middleY = bottomY; bottomX = swapX; bottomY = swapY; }
+        if (middleY < topY) { swapX = topX; swapY = topY; topX = middleX; topY = middleY; middleX = swapX; middleY = swapY; }
+
+        if (bottomY == topY)
+        {
+            //The triangle has no height, so it covers no pixel centers.
+            return;
+        }
+
+        int firstRow = Math.max(0, (int) Math.ceil(topY - 0.5f));
+        int lastRow = Math.min(height - 1, (int) Math.ceil(bottomY - 0.5f) - 1);
+
+        for (int row = firstRow; row <= lastRow; row++)
+        {
+            float y = row + 0.5f;
+
+            float longX = topX + (bottomX - topX) * (y - topY) / (bottomY - topY);
+            float shortX;
+            if (y < middleY)
+            {
+                shortX = topX + (middleX - topX) * (y - topY) / (middleY - topY);
+            }
+            else
+            {
+                shortX = middleY == bottomY ? middleX : middleX + (bottomX - middleX) * (y - middleY) / (bottomY - middleY);
+            }
+
+            float leftX = Math.min(longX, shortX);
+            float rightX = Math.max(longX, shortX);
+
+            //Pixel column c is filled if its center (c + 0.5) is between the two edges.
+            int firstColumn = Math.max(0, (int) Math.ceil(leftX - 0.5f));
+            int lastColumn = Math.min(width - 1, (int) Math.ceil(rightX - 0.5f) - 1);
+            if (firstColumn <= lastColumn)
+            {
+                int rowStart = row * width;
+                Arrays.fill(pixels, rowStart + firstColumn, rowStart + lastColumn + 1, triangleColor);
+            }
+        }
+    }
+}
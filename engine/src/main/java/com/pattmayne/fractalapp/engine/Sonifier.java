@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class turns the shapes of the animations into events for a Synth.
+ *
+ * For the branching fractal, a few of the directions each new generation sets off in become notes:
+ * the direction (in half-turns) picks a note from a pentatonic scale spread over SCALE_OCTAVES octaves above ROOT_FREQUENCY,
+ * so branches pointing the same way play the same note.
+ *
+ * For the triangles, the smallest triangle's radius sweeps the filter: it keeps growing from 1 pixel to 2 (or shrinking),
+ * and the cutoff rises (or falls) exponentially from MIN_SWEEP to MAX_SWEEP with it.
+ * Every time a triangle appears in the middle or disappears (the radius jumps), the next note of an arpeggio is played.
+ *
+ * The methods are called on the animation thread after drawing, and only offer events to the queue,
+ * so they never wait for the audio thread. Nothing is allocated after the constructor.
+ */
+public class Sonifier {
+
+    public static final float ROOT_FREQUENCY = 110;
+    public static final int SCALE_OCTAVES = 3;
+
+    public static final float MIN_SWEEP = 200;
+    public static final float MAX_SWEEP = 4000;
+
+    //How many notes each generation plays, and how loud the first one is. Each one after it is quieter.
+    public static final int NOTES_PER_GENERATION = 3;
+    private static final float GENERATION_VELOCITY = 0.6f;
+    private static final float TRIANGLE_VELOCITY = 0.5f;
+
+    //Semitones above the root
+    private static final int[] SCALE = {0, 2, 4, 7, 9};
+
+    private final CommandQueue events;
+    private final float[] directions = new float[NOTES_PER_GENERATION];
+
+    //Where in its sweep the smallest triangle was last frame, from 0 to 1. Negative before the first frame.
+    private double lastSweep = -1;
+    private int arpeggioStep = 0;
+
+
+    /**
+     * Constructor
+     * @param events the Synth's queue. The animation thread is the only thing that offers to it.
+     */
+    public Sonifier(CommandQueue events)
+    {
+        this.events = events;
+    }
+
+    /**
+     * Play the generation the scene has just drawn.
+     * @param scene
+     */
+    public void onGeneration(BranchingScene scene)
+    {
+        int count = scene.getGenerationDirections(directions);
+        for (int i = 0; i < count; i++)
+        {
+            events.offer(Synth.NOTE, directionToFrequency(directions[i]), GENERATION_VELOCITY / (1 + i));
+        }
+    }
+
+    /**
+     * Sweep the filter with the triangles the scene has just drawn, and play a note when one appears or disappears.
+     * @param scene
+     */
+    public void onTriangles(TriangleScene scene)
+    {
+        double radius = scene.getSmallestRadius();
+        if (radius <= 0)
+        {
+            return;
+        }
+
+        double sweep = Math.max(0, Math.min(1, Math.log(radius) / Math.log(2)));
+        events.offer(Synth.CUTOFF, sweepToCutoff(sweep), 0);
+
+        if (lastSweep >= 0 && Math.abs(sweep - lastSweep) > 0.5)
+        {
+            events.offer(Synth.NOTE, getScaleFrequency(arpeggioStep), TRIANGLE_VELOCITY);
+            arpeggioStep = (arpeggioStep + 1) % (SCALE.length * SCALE_OCTAVES);
+        }
+        lastSweep = sweep;
+    }
+
+    /**
+     * Going once around the circle (two half-turns) goes once through every note, from the lowest to the highest.
+     * @param direction in half-turns
+     * @return
+     */
+    public static float directionToFrequency(float direction)
+    {
+        double turn = direction / 2.0;
+        double fraction = turn - Math.floor(turn);
+        int stepCount = SCALE.length * SCALE_OCTAVES;
+        return getScaleFrequency(Math.min(stepCount - 1, (int) (fraction * stepCount)));
+    }
+
+    /**
+     * @param sweep from 0 to 1
+     * @return from MIN_SWEEP to MAX_SWEEP
+     */
+    public static float sweepToCutoff(double sweep)
+    {
+        return (float) (MIN_SWEEP * Math.pow(MAX_SWEEP / MIN_SWEEP, sweep));
+    }
+
+    /**
+     * @param step counts up through the scale, into the octaves above
+     * @return
+     */
+    private static float getScaleFrequency(int step)
+    {
+        int semitones = SCALE[step % SCALE.length] + 12 * (step / SCALE.length);
+        return (float) (ROOT_FREQUENCY * Math.pow(2, semitones / 12.0));
+    }
+}
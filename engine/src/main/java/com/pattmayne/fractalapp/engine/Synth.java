@@ -0,0 +1,216 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class makes sound from notes and filter sweeps, one buffer of 16-bit mono samples at a time.
+ *
+ * The animation thread offers events to a CommandQueue (see Sonifier), and the audio thread drains it at the start of
+ * every call to render, so the two threads never wait for each other. Events that don't fit in the queue are dropped,
+ * which is better for the music than stalling either thread.
+ *
+ * There are MAX_VOICES sawtooth voices. Each note takes the quietest voice, rises over ATTACK_MILLIS to its velocity,
+ * and dies away over NOTE_MILLIS. Every voice goes through one resonant low-pass filter (a Chamberlin state-variable filter),
+ * whose cutoff glides towards the last CUTOFF it was given.
+ * The filter's coefficient is only worked out once every CONTROL_BLOCK samples, as the cutoff glides.
+ *
+ * Everything is kept in fields and arrays made by the constructor, so render never allocates anything,
+ * never locks anything, and takes the same time whatever the animation is doing.
+ */
+public class Synth implements CommandQueue.Consumer {
+
+    //The event codes. NOTE takes a frequency (Hz) and a velocity (0 to 1), and CUTOFF takes a frequency (Hz).
+    public static final int NOTE = 1;
+    public static final int CUTOFF = 2;
+
+    public static final int MAX_VOICES = 8;
+    public static final int ATTACK_MILLIS = 5;
+    public static final int NOTE_MILLIS = 600;
+
+    public static final float MIN_CUTOFF = 40;
+    public static final float DEFAULT_CUTOFF = 2000;
+
+    private static final int CONTROL_BLOCK = 32;
+
+    //How much of the way to its target the cutoff moves in every control block (about 10 milliseconds to get most of the way)
+    private static final float CUTOFF_GLIDE = 0.2f;
+
+    //1 / Q. Lower is more resonant.
+    private static final float DAMPING = 0.6f;
+
+    //Several voices can sound at once, so each one is kept well below full scale before the soft clipping.
+    private static final float MASTER_GAIN = 0.3f;
+
+    //A note is over once it has died away to this
+    private static final float SILENT = 0.0005f;
+
+    private final int sampleRate;
+    private final CommandQueue events;
+
+    private final float[] phases = new float[MAX_VOICES];
+    private final float[] increments = new float[MAX_VOICES];
+    private final float[] levels = new float[MAX_VOICES];
+    private final float[] peaks = new float[MAX_VOICES];
+    private final boolean[] attacking = new boolean[MAX_VOICES];
+
+    private final float attackStep;
+    private final float decay;
+
+    private float cutoff = DEFAULT_CUTOFF;
+    private float targetCutoff = DEFAULT_CUTOFF;
+    private final float maxCutoff;
+
+    //The filter's state
+    private float low = 0;
+    private float band = 0;
+
+
+    /**
+     * Constructor
+     * @param sampleRate
+     * @param events where the notes and sweeps come from. The synth is the only thing that drains it.
+     */
+    public Synth(int sampleRate, CommandQueue events)
+    {
+        this.sampleRate = sampleRate;
+        this.events = events;
+
+        attackStep = 1000f / (ATTACK_MILLIS * sampleRate);
+        //Dying away from 1 to SILENT takes NOTE_MILLIS.
+        decay = (float) Math.exp(Math.log(SILENT) * 1000 / ((double) NOTE_MILLIS * sampleRate));
+
+        //The filter is only stable up to about a sixth of the sample rate.
+        maxCutoff = sampleRate / 6f;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * Carry out one event. Only called by render, through the queue.
+     * @param code
+     * @param x
+     * @param y
+     */
+    @Override
+    public void onCommand(int code, float x, float y)
+    {
+        switch (code)
+        {
+            case NOTE:
+                noteOn(x, y);
+                break;
+            case CUTOFF:
+                targetCutoff = Math.max(MIN_CUTOFF, Math.min(maxCutoff, x));
+                break;
+        }
+    }
+
+    private void noteOn(float frequency, float velocity)
+    {
+        if (frequency <= 0 || frequency >= sampleRate / 2 || velocity <= 0)
+        {
+            return;
+        }
+
+        //Take the quietest voice (a silent one, if there is one).
+        int voice = 0;
+        for (int v = 1; v < MAX_VOICES; v++)
+        {
+            if (levels[v] < levels[voice])
+            {
+                voice = v;
+            }
+        }
+
+        increments[voice] = frequency / sampleRate;
+        peaks[voice] = Math.min(1, velocity);
+        attacking[voice] = true;
+    }
+
+    /**
+     * Fill a buffer with the next samples, after carrying out every event that is waiting.
+     * Only call this from the audio thread.
+     * @param samples
+     * @param offset
+     * @param length
+     */
+    public void render(short[] samples, int offset, int length)
+    {
+        events.drain(this);
+
+        int end = offset + length;
+        for (int blockStart = offset; blockStart < end; blockStart += CONTROL_BLOCK)
+        {
+            cutoff += (targetCutoff - cutoff) * CUTOFF_GLIDE;
+            float frequencyFactor = (float) (2 * Math.sin(Math.PI * cutoff / sampleRate));
+
+            int blockEnd = Math.min(end, blockStart + CONTROL_BLOCK);
+            for (int i = blockStart; i < blockEnd; i++)
+            {
+                float input = 0;
+                for (int v = 0; v < MAX_VOICES; v++)
+                {
+                    float level = levels[v];
+                    if (level == 0 && !attacking[v])
+                    {
+                        continue;
+                    }
+
+                    if (attacking[v])
+                    {
+                        level += attackStep;
+                        if (level >= peaks[v])
+                        {
+                            level = peaks[v];
+                            attacking[v] = false;
+                        }
+                    }
+                    else
+                    {
+                        level *= decay;
+                        if (level < SILENT)
+                        {
+                            level = 0;
+                        }
+                    }
+                    levels[v] = level;
+
+                    //A sawtooth from -1 to 1
+                    float phase = phases[v] + increments[v];
+                    if (phase >= 1)
+                    {
+                        phase -= 1;
+                    }
+                    phases[v] = phase;
+                    input += (2 * phase - 1) * level;
+                }
+
+                low += frequencyFactor * band;
+                float high = input * MASTER_GAIN - low - DAMPING * band;
+                band += frequencyFactor * high;
+
+                //Soft clipping, so loud chords squash instead of wrapping around
+                float output = low / (1 + Math.abs(low));
+                samples[i] = (short) (output * Short.MAX_VALUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class keeps the triangle animation from handing the rasterizer triangles that are mostly (or completely) off the screen.
+ * The biggest triangles live until they are several times the size of the canvas, and their corners get so far away
+ * that the rasterizer spends longer setting them up than drawing them, and loses precision along their edges.
+ *
+ * Around the canvas there is a guard band: a margin where it doesn't matter if a triangle sticks out,
+ * because the rasterizer clips that little bit itself. Triangles that fit inside the guard band are passed on untouched.
+ * Bigger filled triangles are cut down to the guard band with the Sutherland-Hodgman method
+ * (the triangle is cut by each edge of the guard band in turn, which leaves a convex polygon of up to seven corners),
+ * and the polygon is passed on as a fan of triangles sharing its first corner.
+ * Outlines can't be cut up like that without drawing the fan's inner edges, but they are only drawn as lines anyway,
+ * so the three edges of a big outlined triangle are each cut to the guard band (by a ViewportCuller) and passed on as edges.
+ *
+ * Triangles completely outside the canvas, and triangles too small to cover a single pixel, are dropped.
+ *
+ * The counts are reset at the start of every frame, so they always describe the frame just drawn.
+ */
+public class TriangleClipper {
+
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    private float guardLeft;
+    private float guardTop;
+    private float guardRight;
+    private float guardBottom;
+
+    //Counts for the current frame
+    public int visibleTriangles;
+    public int clippedTriangles;
+    public int culledTriangles;
+    public int subPixelTriangles;
+
+    //The polygon being cut, and the polygon left after each cut. A triangle cut by four edges has at most seven corners.
+    private final double[] polygonX = new double[8];
+    private final double[] polygonY = new double[8];
+    private final double[] cutX = new double[8];
+    private final double[] cutY = new double[8];
+
+    //Cuts the edges of outlined triangles to the guard band, and hands them to the current sink in the current color.
+    private final ViewportCuller edgeCuller = new ViewportCuller();
+    private final SegmentSink edgeForwarder = new SegmentSink() {
+        @Override
+        public void addSegment(float startX, float startY, float endX, float endY) {
+            edgeSink.addEdge(startX, startY, endX, endY, edgeColor);
+        }
+    };
+    private TriangleSink edgeSink;
+    private int edgeColor;
+
+
+    /**
+     * Set the visible area.
+     * @param width
+     * @param height
+     * @param guardBand how far a triangle can stick out past the canvas before it is cut down
+     */
+    public void setViewport(float width, float height, float guardBand)
+    {
+        left = 0;
+        top = 0;
+        right = width;
+        bottom = height;
+
+        guardLeft = -guardBand;
+        guardTop = -guardBand;
+        guardRight = width + guardBand;
+        guardBottom = height + guardBand;
+
+        edgeCuller.setViewport(width, height, guardBand);
+    }
+
+    /**
+     * Reset all the counts at the beginning of a frame.
+     */
+    public void startFrame()
+    {
+        visibleTriangles = 0;
+        clippedTriangles = 0;
+        culledTriangles = 0;
+        subPixelTriangles = 0;
+        edgeCuller.startFrame();
+    }
+
+    /**
+     * Pass on whatever part of a triangle is worth drawing.
+     * @param fill whether the triangle will be filled (and so is cut into smaller triangles), or outlined (and so is cut into edges)
+     * @param sink where the visible part of the triangle is sent
+     */
+    public void clipTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color, boolean fill, TriangleSink sink)
+    {
+        float minX = Math.min(x1, Math.min(x2, x3));
+        float maxX = Math.max(x1, Math.max(x2, x3));
+        float minY = Math.min(y1, Math.min(y2, y3));
+        float maxY = Math.max(y1, Math.max(y2, y3));
+
+        if (maxX - minX < 1 && maxY - minY < 1)
+        {
+            subPixelTriangles++;
+            return;
+        }
+
+        if (maxX < left || minX > right || maxY < top || minY > bottom)
+        {
+            culledTriangles++;
+            return;
+        }
+
+        if (minX >= guardLeft && maxX <= guardRight && minY >= guardTop && maxY <= guardBottom)
+        {
+            visibleTriangles++;
+            sink.addTriangle(x1, y1, x2, y2, x3, y3, color);
+            return;
+        }
+
+        if (!fill)
+        {
+            clipOutline(x1, y1, x2, y2, x3, y3, color, sink);
+            return;
+        }
+
+        polygonX[0] = x1;
+        polygonY[0] = y1;
+        polygonX[1] = x2;
+        polygonY[1] = y2;
+        polygonX[2] = x3;
+        polygonY[2] = y3;
+        int corners = 3;
+
+        for (int edge = 0; edge < 4 && corners > 0; edge++)
+        {
+            corners = cut(corners, edge);
+        }
+
+        //The bounding box can touch the canvas while the triangle itself misses it, and then nothing is left.
+        if (corners < 3)
+        {
+            culledTriangles++;
+            return;
+        }
+
+        clippedTriangles++;
+        float fanX = (float) polygonX[0];
+        float fanY = (float) polygonY[0];
+        for (int i = 1; i < corners - 1; i++)
+        {
+            sink.addTriangle(fanX, fanY, (float) polygonX[i], (float) polygonY[i],
+                    (float) polygonX[i + 1], (float) polygonY[i + 1], color);
+        }
+    }
+
+    /**
+     * Cut each edge of an outlined triangle to the guard band, and pass on whatever is left of them.
+     * The inside of an outline isn't drawn, so a triangle whose edges all miss the guard band is dropped,
+     * even if it surrounds the canvas.
+     */
+    private void clipOutline(float x1, float y1, float x2, float y2, float x3, float y3, int color, TriangleSink sink)
+    {
+        edgeSink = sink;
+        edgeColor = color;
+        int culledEdges = edgeCuller.culledSegments + edgeCuller.subPixelSegments;
+
+        edgeCuller.clipSegment(x1, y1, x2, y2, edgeForwarder);
+        edgeCuller.clipSegment(x2, y2, x3, y3, edgeForwarder);
+        edgeCuller.clipSegment(x3, y3, x1, y1, edgeForwarder);
+        edgeSink = null;
+
+        if (edgeCuller.culledSegments + edgeCuller.subPixelSegments - culledEdges == 3)
+        {
+            culledTriangles++;
+        }
+        else
+        {
+            clippedTriangles++;
+        }
+    }
+
+    /**
+     * Cut the polygon by one edge of the guard band, keeping the part inside it.
+     * Walking round the polygon, every corner inside the edge is kept,
+     * and wherever a side crosses the edge, the crossing point becomes a new corner.
+     * @param corners how many corners the polygon has
+     * @param edge 0 to 3 for the left, right, top and bottom edges
+     * @return how many corners the polygon has after the cut
+     */
+    private int cut(int corners, int edge)
+    {
+        int kept = 0;
+        double previousX = polygonX[corners - 1];
+        double previousY = polygonY[corners - 1];
+        double previousDistance = distanceInside(previousX, previousY, edge);
+
+        for (int i = 0; i < corners; i++)
+        {
+            double x = polygonX[i];
+            double y = polygonY[i];
+            double distance = distanceInside(x, y, edge);
+
+            if ((distance >= 0) != (previousDistance >= 0))
+            {
+                double t = previousDistance / (previousDistance - distance);
+                cutX[kept] = previousX + t * (x - previousX);
+                cutY[kept] = previousY + t * (y - previousY);
+                kept++;
+            }
+            if (distance >= 0)
+            {
+                cutX[kept] = x;
+                cutY[kept] = y;
+                kept++;
+            }
+
+            previousX = x;
+            previousY = y;
+            previousDistance = distance;
+        }
+
+        System.arraycopy(cutX, 0, polygonX, 0, kept);
+        System.arraycopy(cutY, 0, polygonY, 0, kept);
+        return kept;
+    }
+
+    /**
+     * How far a point is inside one edge of the guard band (negative if it is outside).
+     */
+    private double distanceInside(double x, double y, int edge)
+    {
+        if (edge == 0) { return x - guardLeft; }
+        else if (edge == 1) { return guardRight - x; }
+        else if (edge == 2) { return y - guardTop; }
+        else { return guardBottom - y; }
+    }
+
+    /**
+     * A short summary of this frame's counts, for the log.
+     * @return
+     */
+    public String getReport()
+    {
+        return "visible " + visibleTriangles + ", clipped " + clippedTriangles + ", culled " + culledTriangles
+                + ", sub-pixel " + subPixelTriangles;
+    }
+}
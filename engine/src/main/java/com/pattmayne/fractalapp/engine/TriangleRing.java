@@ -0,0 +1,209 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class holds every triangle on the screen, from the largest (first) to the smallest (last).
+ *
+ * The triangles are only ever added or removed at either end: new ones appear in the middle of the animation
+ * and old ones disappear off the edge of the screen, or the other way around when the animation is reversed.
+ * So instead of a list of triangle objects, which has to shift every triangle along when the first one is added or removed,
+ * the triangles are kept in parallel arrays used as a ring. Adding or removing at either end only moves the head or the size.
+ *
+ * Each triangle is just a radius, a color, and a phase (which orientation it is drawn in).
+ * Nothing is allocated unless the ring runs out of room, in which case it doubles in size.
+ */
+public class TriangleRing {
+
+    private double[] radii;
+    private int[] colors;
+    private int[] phases;
+
+    //The arrays' length is always a power of two, so mask turns a position into a place in the arrays.
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+
+
+    /**
+     * Constructor
+     * @param capacity how many triangles the ring should hold before it needs to grow. Rounded up to a power of two.
+     */
+    public TriangleRing(int capacity)
+    {
+        allocate((capacity <= 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1);
+    }
+
+    private void allocate(int length)
+    {
+        radii = new double[length];
+        colors = new int[length];
+        phases = new int[length];
+        mask = length - 1;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Add a triangle before the first (largest) one.
+     */
+    public void addFirst(double radius, int color, int phase)
+    {
+        growIfFull();
+        head = (head - 1) & mask;
+        radii[head] = radius;
+        colors[head] = color;
+        phases[head] = phase;
+        size++;
+    }
+
+    /**
+     * Add a triangle after the last (smallest) one.
+     */
+    public void addLast(double radius, int color, int phase)
+    {
+        growIfFull();
+        int slot = (head + size) & mask;
+        radii[slot] = radius;
+        colors[slot] = color;
+        phases[slot] = phase;
+        size++;
+    }
+
+    public void removeFirst()
+    {
+        if (size == 0)
+        {
+            throw new IllegalStateException("There are no triangles to remove");
+        }
+        head = (head + 1) & mask;
+        size--;
+    }
+
+    public void removeLast()
+    {
+        if (size == 0)
+        {
+            throw new IllegalStateException("There are no triangles to remove");
+        }
+        size--;
+    }
+
+    public void clear()
+    {
+        head = 0;
+        size = 0;
+    }
+
+    //Each triangle is found by its position, counting from the first (largest) one.
+
+    public double getRadius(int position)
+    {
+        return radii[slot(position)];
+    }
+
+    public int getColor(int position)
+    {
+        return colors[slot(position)];
+    }
+
+    public void setColor(int position, int color)
+    {
+        colors[slot(position)] = color;
+    }
+
+    public int getPhase(int position)
+    {
+        return phases[slot(position)];
+    }
+
+    public double getFirstRadius()
+    {
+        return getRadius(0);
+    }
+
+    public double getLastRadius()
+    {
+        return getRadius(size - 1);
+    }
+
+    /**
+     * Multiply every triangle's radius by the same amount.
+     * The triangles take up at most two unbroken runs of the radius array (the ring may wrap around the end),
+     * so this is two plain loops over an array, without working out any positions.
+     * @param factor
+     */
+    public void scaleRadii(double factor)
+    {
+        int end = head + size;
+        int firstRunEnd = Math.min(end, radii.length);
+        for (int i = head; i < firstRunEnd; i++)
+        {
+            radii[i] *= factor;
+        }
+
+        int wrappedEnd = end - radii.length;
+        for (int i = 0; i < wrappedEnd; i++)
+        {
+            radii[i] *= factor;
+        }
+    }
+
+    private int slot(int position)
+    {
+        if (position < 0 || position >= size)
+        {
+            throw new IndexOutOfBoundsException("Position " + position + " of " + size + " triangles");
+        }
+        return (head + position) & mask;
+    }
+
+    /**
+     * Double the arrays if there's no room for another triangle, unwrapping the ring so the first triangle goes back to the start.
+     */
+    private void growIfFull()
+    {
+        if (size <= mask)
+        {
+            return;
+        }
+
+        double[] oldRadii = radii;
+        int[] oldColors = colors;
+        int[] oldPhases = phases;
+        int oldLength = oldRadii.length;
+
+        allocate(oldLength * 2);
+        int firstRun = Math.min(size, oldLength - head);
+        System.arraycopy(oldRadii, head, radii, 0, firstRun);
+        System.arraycopy(oldColors, head, colors, 0, firstRun);
+        System.arraycopy(oldPhases, head, phases, 0, firstRun);
+        System.arraycopy(oldRadii, 0, radii, firstRun, size - firstRun);
+        System.arraycopy(oldColors, 0, colors, firstRun, size - firstRun);
+        System.arraycopy(oldPhases, 0, phases, firstRun, size - firstRun);
+        head = 0;
+    }
+}
@@ -0,0 +1,1342 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.util.Random;
+
+/**
+ * This class holds everything about the nested triangle animation except how it reaches the screen:
+ * triangles-within-triangles which grow larger (or smaller) with each iteration.
+ * When the triangles get to a certain size they are released from the TriangleRing that holds them, and a new one is created.
+ *
+ * There are two different kinds of triangles, with varying speeds and spin-rates, plus weird options for "crazy mode" and "seizure mode."
+ * There is one TriangleRing for right-angled triangles and one for equilateral triangles.
+ *
+ * The Triangles are drawn by creating circles and calculating three points along those circles which are the corners of the triangles.
+ * The animation logic results from incrementing the size of the circles, and altering the angles of the points along the circles.
+ *
+ * Each frame, the caller calls beginFrame, clears its canvas to the color it returns (unless that is NO_CLEAR),
+ * then calls drawTriangles, which hands every triangle to a TriangleSink from the largest to the smallest,
+ * and finally calls advance to move the animation on to the next iteration.
+ *
+ * In timed mode the animation moves by however much time has passed instead of one iteration per frame
+ * (see setFrameTime and skip), so it runs at the same speed whatever the frame rate.
+ * The triangles are filled if isFill returns true, and only outlined otherwise.
+ *
+ * When the triangles are filled, one of the big ones often covers the whole canvas, which hides the clear
+ * and every triangle drawn before it. beginFrame looks for the smallest opaque triangle that still covers the canvas,
+ * and if there is one it returns NO_CLEAR and drawTriangles starts from that triangle instead of the largest one.
+ * Every triangle passes through a TriangleClipper on its way to the sink, which cuts the huge ones down to the canvas
+ * (plus a guard band) and drops the ones that can't be seen.
+ */
+public class TriangleScene {
+
+    public static final int BACKGROUND_COLOR = 0xff1e90ff;
+
+    //beginFrame returns this when the canvas should keep what was drawn before.
+    //(Every color the canvas is ever cleared to is opaque, so it can never be confused with a real color.)
+    public static final int NO_CLEAR = 0;
+
+    private Random randomizer;
+
+    private float canvasHeight;
+    private float canvasWidth;
+
+    private int[] colors = {0xffe1e1e1, 0xff000000, 0xff635ea7, 0xfff78e00, 0xffff1800, 0xffeae000, 0xffff5a88, 0xff33823a};
+    private int[] seizureColors = {0xffffff00, 0xffffff00, 0xffFF69B4, 0xffFF69B4, 0xff6B8E23, 0xff6B8E23};
+
+    private int colorTicker = 0;
+    private int seizureColorTicker=0;
+
+
+    //Universal (equilateral OR right-angled) Changeable variables
+    //Includes mode-changers
+
+
+    //these two center variables will always be the center of the circle within which the triangles are drawn.
+    private float centerX;
+    private float centerY;
+
+    private boolean firstIteration = true;
+    private int iterations = 1;
+
+    //The actual spin is decided by dividing the iterations by the "spin" variable... so a lower spin means faster actual spin...
+    //For zero spin I use (spin = iterations) in the algorithm.
+    private int[] spinPhaseArray = {2, 5, 11, 29, 41, 57};
+    private int spinPhaseSelector = 3;
+    private double spin = spinPhaseArray[spinPhaseSelector];
+    private boolean noSpin = false;
+    private boolean resetNoSpin = false;
+    private boolean spinChange = false;
+    private int newSpin = 0;
+
+    private boolean eraseCanvas = true;
+    private boolean fill = true;
+
+    //Set when the menu asks for the canvas to be cleared right away (outside of the usual erasing).
+    private boolean clearRequested = false;
+
+    private boolean crazyMode = false;
+    private boolean seizureMode = false;
+    private boolean reverse = false;
+    private boolean reset = false;
+    private boolean equilateral = true;
+    private boolean equilateralReset = false;
+
+    private double accumulatedAngle = 1;
+    private double newAngle = 0;
+
+    //Every triangle of an iteration is turned by the same angle, so instead of working out three sines and three cosines
+    //for every triangle, they are worked out once per iteration for each orientation a triangle can have (a "template").
+    //Each corner is then just the template's point on a unit circle, scaled by the diameter and moved to the center.
+    //The templates are only worked out again when the angle changes, so when nothing spins they are never worked out again.
+
+    //The corners of an equilateral triangle, as fractions of PI, before adding the triangle's own phase.
+    private static final double[] EQUILATERAL_CORNERS = {2.0 / 3.0, 4.0 / 3.0, 2.0};
+
+    //Three corners for each of the two equilateral phases
+    private final double[] equilateralSines = new double[6];
+    private final double[] equilateralCosines = new double[6];
+
+    //One point for each entry in rightRatioList. A right-angled triangle uses three of them in a row.
+    private final double[] rightSines = new double[4];
+    private final double[] rightCosines = new double[4];
+
+    //The angles the templates were last worked out for. NaN never equals anything, so the first iteration always works them out.
+    private double equilateralTemplateAccumulated = Double.NaN;
+    private double equilateralTemplateSpin = Double.NaN;
+    private double rightTemplateAccumulated = Double.NaN;
+    private double rightTemplateSpin = Double.NaN;
+
+
+    //Changeable variables for the equilateral triangles
+
+
+    private boolean equilateralRatioTicker = false;
+
+    private int baseRadius = 1;
+
+    //There will usually be many triangles on the screen, from largest to smallest. This ring holds them all (if they are equilaterals).
+    //An equilateral triangle's phase is its position in the equilateralRatioList.
+    private TriangleRing activeEquilateralTriangles;
+
+    //Equilateral ratioList.
+    //There are only two numbers, because these equilateral triangles only have two opposite phases... north and south.
+    //So each new equilateral triangle can be upside down relative to the two triangles preceding and succeeding it.
+    private double[] equilateralRatioList = {2.0/3.0, 1.0/3.0};
+
+
+    //Changeable variables for the right-angled triangles
+
+
+    //There will usually be many triangles on the screen, from largest to smallest. This ring holds them all (if they are right-angled).
+    //A right-angled triangle's phase is the position in the rightRatioList of its first corner. The other two corners follow it.
+    private TriangleRing activeRightTriangles;
+
+    //Four variables for four phases of the right-angled triangles... east, west, south, north.
+    private double[] rightRatioList = {0.5, 1.0, 1.5, 2.0};
+    private int rightRatioTicker=0;
+
+    //How much every triangle grows (or shrinks, in reverse) in each iteration.
+    private static final double GROW = 1.04;
+    private static final double SHRINK = 0.95;
+
+
+    //Timed mode
+
+
+    //In timed mode, beginFrame moves the triangles by however many iterations fit into the time since the last frame
+    //(usually a fraction of one, and never rounded), instead of advance moving them by exactly one iteration.
+    //The TriangleTimeline works out where they are in a single step, however long that is,
+    //so the animation keeps the same speed at any frame rate and doesn't fall behind when frames are dropped.
+    private boolean timed = false;
+    private TriangleTimeline timeline;
+    private TriangleTimeline.Births equilateralBirths;
+    private TriangleTimeline.Births rightBirths;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private long iterationNanos = 19 * NANOS_PER_MILLI;
+    private long frameTimeNanos;
+    private long lastFrameTimeNanos;
+    private boolean lastFrameTimeKnown = false;
+
+    //The iterations so far, including the fraction of the current one. Only used in timed mode.
+    private double timedIterations = 1;
+
+
+    //Occlusion culling
+
+
+    //The position in the active ring of the first triangle drawTriangles hands over.
+    //Every triangle before it is hidden under it. beginFrame works this out, and anything that changes the ring sets it back to 0.
+    private int firstVisibleTriangle = 0;
+
+    //How far past the edge of the canvas a triangle can reach before the clipper cuts it down, as a fraction of the canvas size.
+    private static final float GUARD_BAND = 1.0f;
+    private TriangleClipper clipper;
+
+
+    /**
+     * Constructor. Crazy mode gets different random numbers every time.
+     */
+    public TriangleScene()
+    {
+        this(new Random());
+    }
+
+    /**
+     * Constructor. The same seed always gives crazy mode the same random numbers.
+     * @param seed
+     */
+    public TriangleScene(long seed)
+    {
+        this(new Random(seed));
+    }
+
+    private TriangleScene(Random randomizer)
+    {
+        this.randomizer = randomizer;
+
+        activeRightTriangles = new TriangleRing(32);
+        addLastRightTriangle(baseRadius);
+
+        activeEquilateralTriangles = new TriangleRing(32);
+        addLastEquilateralTriangle(baseRadius);
+
+        clipper = new TriangleClipper();
+
+        timeline = new TriangleTimeline();
+        equilateralBirths = new TriangleTimeline.Births() {
+            @Override
+            public int nextColor() {
+                return nextTriangleColor();
+            }
+
+            @Override
+            public int nextPhase() {
+                return nextEquilateralPhase();
+            }
+
+            @Override
+            public void skip(int count) {
+                skipTriangleColors(count);
+                if (count % 2 == 1) {
+                    equilateralRatioTicker = !equilateralRatioTicker;
+                }
+            }
+        };
+        rightBirths = new TriangleTimeline.Births() {
+            @Override
+            public int nextColor() {
+                return nextTriangleColor();
+            }
+
+            @Override
+            public int nextPhase() {
+                return nextRightPhase();
+            }
+
+            @Override
+            public void skip(int count) {
+                skipTriangleColors(count);
+                rightRatioTicker = (int) ((rightRatioTicker + 3L * count) % rightRatioList.length);
+            }
+        };
+    }
+
+
+    //These methods create new triangles, each with the next color and the next phase in the sequence.
+
+
+    private void addFirstEquilateralTriangle(double radius)
+    {
+        activeEquilateralTriangles.addFirst(radius, nextTriangleColor(), nextEquilateralPhase());
+    }
+
+    private void addLastEquilateralTriangle(double radius)
+    {
+        activeEquilateralTriangles.addLast(radius, nextTriangleColor(), nextEquilateralPhase());
+    }
+
+    private void addFirstRightTriangle(double radius)
+    {
+        activeRightTriangles.addFirst(radius, nextTriangleColor(), nextRightPhase());
+    }
+
+    private void addLastRightTriangle(double radius)
+    {
+        activeRightTriangles.addLast(radius, nextTriangleColor(), nextRightPhase());
+    }
+
+
+    //The animation methods
+
+
+    /**
+     * This method is called at the beginning of every frame, before anything is drawn.
+     *
+     * If the user presses a button which requests an alteration to the animation,
+     * the method which alters the animation will not be called immediately because that could crash the algorithm.
+     * Certain conditions must remain the same for the life of an iteration.
+     * Instead, when a user requests a change, a boolean is immediately set so that on the beginning of the next iteration,
+     * these conditionals will make the appropriate change before the calculations and drawings begin.
+     * @param width the canvas width
+     * @param height the canvas height
+     * @return the color to clear the whole canvas to before drawing, or NO_CLEAR
+     */
+    public int beginFrame(int width, int height)
+    {
+        //If the user has requested that the canvas be reset.
+        if(reset==true)
+        {
+            resetConditions();
+        }
+
+        //If it's the first iteration of the animation, or if we want to re-create the conditions of a first iteration.
+        if(firstIteration)
+        {
+            firstIteration(width, height);
+        }
+
+        if(timed)
+        {
+            advanceToFrameTime();
+        }
+
+        clipper.setViewport(width, height, Math.max(width, height) * GUARD_BAND);
+
+        int clearColor = NO_CLEAR;
+
+        if (clearRequested)
+        {
+            clearColor = BACKGROUND_COLOR;
+            clearRequested = false;
+        }
+
+        if (eraseCanvas == true && seizureMode==false) {
+            clearColor = BACKGROUND_COLOR;
+        }
+
+        if (seizureMode==true)
+        {
+            clearColor = doSeizureStuff();
+        }
+
+        //The spin has to be settled before the corners of the covering triangle can be worked out.
+        applySpinChange();
+
+        int coveringTriangle = findCoveringTriangle(width, height);
+        if (coveringTriangle >= 0)
+        {
+            //The covering triangle paints over every pixel, so the clear would never be seen.
+            clearColor = NO_CLEAR;
+            firstVisibleTriangle = coveringTriangle;
+        }
+        else
+        {
+            firstVisibleTriangle = 0;
+        }
+
+        return clearColor;
+    }
+
+    /**
+     * Hand every triangle of this iteration to the sink, from the largest to the smallest.
+     * Triangles hidden under a triangle that covers the whole canvas (see beginFrame) are left out.
+     * Nothing moves until advance is called, so drawing the same iteration twice gives the same triangles.
+     * @param sink
+     */
+    public void drawTriangles(TriangleSink sink)
+    {
+        applySpinChange();
+        clipper.startFrame();
+
+        //Which kind of Triangle are we drawing?
+        if(equilateral) {
+            updateEquilateralTemplates();
+            int first = Math.min(firstVisibleTriangle, activeEquilateralTriangles.size());
+            if (seizureMode)
+            {
+                //The hidden triangles would each have taken the next seizure color.
+                skipTriangleColors(first);
+            }
+            for (int i=first; i<activeEquilateralTriangles.size(); i++)
+            {
+                drawOneEquilateralTriangle(activeEquilateralTriangles.getRadius(i), activeEquilateralTriangles.getPhase(i),
+                        activeEquilateralTriangles.getColor(i), sink);
+            }
+        } else {
+            updateRightTemplates();
+            for (int i=Math.min(firstVisibleTriangle, activeRightTriangles.size()); i<activeRightTriangles.size(); i++)
+            {
+                drawOneRightTriangle(activeRightTriangles.getRadius(i), activeRightTriangles.getPhase(i),
+                        activeRightTriangles.getColor(i), sink);
+            }
+        }
+    }
+
+    /**
+     * Make every triangle bigger (or smaller) for the next iteration,
+     * and create or delete triangles at either end of the size-spectrum.
+     * This is called once per frame, after drawTriangles.
+     */
+    public void advance()
+    {
+        firstVisibleTriangle = 0;
+
+        //In timed mode the triangles have already been moved by beginFrame.
+        if(!timed)
+        {
+            if(equilateral) {
+                updateEquilaterals();
+            } else {
+                updateRights();
+            }
+
+            iterations++;
+        }
+
+        if(equilateralReset)
+        {
+            //if the user has selected to change between right/equilateral
+            doEquilateralReset();
+        }
+    }
+
+    /**
+     * Whether the triangles of this frame are filled, or only outlined.
+     * @return
+     */
+    public boolean isFill()
+    {
+        return fill;
+    }
+
+    public boolean isSeizureMode()
+    {
+        return seizureMode;
+    }
+
+    /**
+     * How many triangles the next call to drawTriangles will draw.
+     * @return
+     */
+    public int getTriangleCount()
+    {
+        return equilateral ? activeEquilateralTriangles.size() : activeRightTriangles.size();
+    }
+
+    /**
+     * The clipper's counts describe the last call to drawTriangles.
+     * @return
+     */
+    public TriangleClipper getClipper()
+    {
+        return clipper;
+    }
+
+    /**
+     * The radius of the smallest triangle, in the middle of the canvas.
+     * It keeps growing from 1 pixel to 2 (or shrinking, in reverse), since a new one appears in the middle whenever it reaches 2
+     * (and it disappears when it shrinks to 1).
+     * @return 0 if there are no triangles yet
+     */
+    public double getSmallestRadius()
+    {
+        TriangleRing ring = equilateral ? activeEquilateralTriangles : activeRightTriangles;
+        return ring.isEmpty() ? 0 : ring.getLastRadius();
+    }
+
+    public boolean isTimed()
+    {
+        return timed;
+    }
+
+    /**
+     * Tell the scene when the next frame is being drawn, before calling beginFrame. Only needed in timed mode.
+     * @param nanos any steadily increasing clock, such as System.nanoTime
+     */
+    public void setFrameTime(long nanos)
+    {
+        frameTimeNanos = nanos;
+    }
+
+    /**
+     * Forget when the last frame was drawn, so the next frame doesn't move the triangles in timed mode
+     * (such as after the animation has been paused).
+     */
+    public void restartClock()
+    {
+        lastFrameTimeKnown = false;
+    }
+
+    /**
+     * How long one iteration lasts in timed mode (the frame interval it would have at this speed in the usual mode).
+     * @param millis
+     */
+    public void setIterationLength(long millis)
+    {
+        iterationNanos = Math.max(1, millis) * NANOS_PER_MILLI;
+    }
+
+    /**
+     * Move the animation forward by any number of iterations (including a fraction of one) straight away,
+     * without drawing anything in between. However many iterations are skipped, this only takes as long as
+     * working out the triangles that are left on the screen at the end.
+     * The canvas size has to be known (after the first beginFrame) for the triangles to leave the screen at the right size.
+     * @param count
+     */
+    public void skip(double count)
+    {
+        if (!(count > 0))
+        {
+            return;
+        }
+
+        if (equilateral)
+        {
+            if (!reverse) {
+                timeline.configure(GROW, 2, 1 / 2.0, 0, Math.max(canvasWidth * 5, canvasHeight * 4));
+            } else {
+                timeline.configure(SHRINK, Math.min(canvasWidth, canvasHeight) * 3, 2, 0, 1);
+            }
+            timeline.advance(activeEquilateralTriangles, count, equilateralBirths);
+        }
+        else
+        {
+            if (!reverse) {
+                timeline.configure(GROW, 2, 1 / 1.5, 0, (canvasWidth + canvasHeight) * 4);
+            } else {
+                timeline.configure(SHRINK, Math.min(canvasWidth, canvasHeight) * 3, 0, canvasHeight * 3, 1);
+            }
+            timeline.advance(activeRightTriangles, count, rightBirths);
+        }
+
+        timedIterations = getIterations() + count;
+        iterations = (int) timedIterations;
+        firstVisibleTriangle = 0;
+    }
+
+    /**
+     * In timed mode, move the triangles by the time since the last frame.
+     * The first frame after timed mode is turned on doesn't move them.
+     */
+    private void advanceToFrameTime()
+    {
+        if (lastFrameTimeKnown)
+        {
+            skip((frameTimeNanos - lastFrameTimeNanos) / (double) iterationNanos);
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+        lastFrameTimeKnown = true;
+    }
+
+    /**
+     * How many iterations there have been since the spin last changed (including a fraction of one in timed mode).
+     * @return
+     */
+    private double getIterations()
+    {
+        return timed ? timedIterations : iterations;
+    }
+
+    /**
+     * How far every triangle is spun in this iteration, on top of the accumulatedAngle.
+     * @return
+     */
+    private double getSpinAngle()
+    {
+        return noSpin ? 0 : getIterations()/spin;
+    }
+
+    /**
+     * If the spin speed has been changed, onSpinChange() saves the current orientation of the triangles inside their circles,
+     * so the spin speed can change smoothly (saves the orientation to "accumulatedAngle").
+     */
+    private void applySpinChange()
+    {
+        if(spinChange)
+        {
+            onSpinChange();
+        }
+    }
+
+    /**
+     * Find the last (and so the smallest) triangle of this iteration which is opaque and covers the whole canvas.
+     * Nothing drawn before it can be seen, including the clear.
+     * Only filled triangles hide anything, and crazy mode moves the corners away from the circle, so they are never culled.
+     * @param width the canvas width
+     * @param height the canvas height
+     * @return the triangle's position in the active ring, or -1 if no triangle covers the canvas
+     */
+    private int findCoveringTriangle(int width, int height)
+    {
+        if (!fill || crazyMode)
+        {
+            return -1;
+        }
+
+        if (equilateral)
+        {
+            updateEquilateralTemplates();
+            for (int i = activeEquilateralTriangles.size() - 1; i >= 0; i--)
+            {
+                //Seizure mode paints every equilateral triangle in one of the (opaque) triangle colors instead of its own.
+                boolean opaque = seizureMode || isOpaque(activeEquilateralTriangles.getColor(i));
+                if (opaque && equilateralTriangleCovers(activeEquilateralTriangles.getRadius(i) * 2,
+                        activeEquilateralTriangles.getPhase(i) * 3, width, height))
+                {
+                    return i;
+                }
+            }
+        }
+        else
+        {
+            updateRightTemplates();
+            for (int i = activeRightTriangles.size() - 1; i >= 0; i--)
+            {
+                if (isOpaque(activeRightTriangles.getColor(i)) && rightTriangleCovers(activeRightTriangles.getRadius(i) * 2,
+                        activeRightTriangles.getPhase(i), width, height))
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isOpaque(int color)
+    {
+        return (color >>> 24) == 0xff;
+    }
+
+    /**
+     * Whether an equilateral triangle contains all four corners of the canvas (and so, being convex, all of the canvas).
+     * @param diameter
+     * @param corner the first of the triangle's three corners in the equilateral templates
+     * @param width
+     * @param height
+     * @return
+     */
+    private boolean equilateralTriangleCovers(double diameter, int corner, int width, int height)
+    {
+        return triangleCovers(centerX + diameter * equilateralSines[corner], centerY + diameter * equilateralCosines[corner],
+                centerX + diameter * equilateralSines[corner + 1], centerY + diameter * equilateralCosines[corner + 1],
+                centerX + diameter * equilateralSines[corner + 2], centerY + diameter * equilateralCosines[corner + 2],
+                width, height);
+    }
+
+    /**
+     * Whether a right-angled triangle contains all four corners of the canvas.
+     * Its hypotenuse runs through the center, so this can only happen when the center is outside the canvas
+     * (after the canvas has shrunk, since the center stays where it was).
+     * @param diameter
+     * @param phase the position of the triangle's first corner in the rightRatioList
+     * @param width
+     * @param height
+     * @return
+     */
+    private boolean rightTriangleCovers(double diameter, int phase, int width, int height)
+    {
+        int corner2 = (phase + 1) % rightRatioList.length;
+        int corner3 = (phase + 2) % rightRatioList.length;
+        return triangleCovers(centerX + diameter * rightSines[phase], centerY + diameter * rightCosines[phase],
+                centerX + diameter * rightSines[corner2], centerY + diameter * rightCosines[corner2],
+                centerX + diameter * rightSines[corner3], centerY + diameter * rightCosines[corner3],
+                width, height);
+    }
+
+    /**
+     * Whether a triangle contains the rectangle from (0, 0) to (width, height).
+     * Every pixel's center is inside that rectangle, so a triangle that contains it paints every pixel.
+     */
+    private static boolean triangleCovers(double x1, double y1, double x2, double y2, double x3, double y3, int width, int height)
+    {
+        //A triangle squashed flat (such as a brand new one, with all three corners on the center) covers nothing,
+        //but every point would be on the same side of its edges.
+        if ((x2 - x1) * (y3 - y1) - (y2 - y1) * (x3 - x1) == 0)
+        {
+            return false;
+        }
+
+        return triangleContains(x1, y1, x2, y2, x3, y3, 0, 0)
+                && triangleContains(x1, y1, x2, y2, x3, y3, width, 0)
+                && triangleContains(x1, y1, x2, y2, x3, y3, 0, height)
+                && triangleContains(x1, y1, x2, y2, x3, y3, width, height);
+    }
+
+    /**
+     * Whether a point is inside a triangle (or on its edge), whichever way round the corners go.
+     * The point is on the same side of all three edges exactly when it is inside.
+     */
+    private static boolean triangleContains(double x1, double y1, double x2, double y2, double x3, double y3, double x, double y)
+    {
+        double side1 = (x2 - x1) * (y - y1) - (y2 - y1) * (x - x1);
+        double side2 = (x3 - x2) * (y - y2) - (y3 - y2) * (x - x2);
+        double side3 = (x1 - x3) * (y - y3) - (y1 - y3) * (x - x3);
+        return (side1 >= 0 && side2 >= 0 && side3 >= 0) || (side1 <= 0 && side2 <= 0 && side3 <= 0);
+    }
+
+    /**
+     * Work out where the corners of both equilateral phases are on a unit circle, unless the angle hasn't changed.
+     * FastTrig looks the sines and cosines up in a table, which is much quicker than Math.sin and Math.cos.
+     */
+    private void updateEquilateralTemplates()
+    {
+        double spinAngle = getSpinAngle();
+        if (accumulatedAngle == equilateralTemplateAccumulated && spinAngle == equilateralTemplateSpin)
+        {
+            return;
+        }
+
+        for (int phase = 0; phase < 2; phase++)
+        {
+            double phaseAngle = Math.PI * equilateralRatioList[phase];
+            for (int corner = 0; corner < 3; corner++)
+            {
+                double angle = Math.PI * EQUILATERAL_CORNERS[corner] + accumulatedAngle + spinAngle + phaseAngle;
+                equilateralSines[phase * 3 + corner] = FastTrig.sin(angle);
+                equilateralCosines[phase * 3 + corner] = FastTrig.cos(angle);
+            }
+        }
+        equilateralTemplateAccumulated = accumulatedAngle;
+        equilateralTemplateSpin = spinAngle;
+    }
+
+    /**
+     * Work out where every possible right-angled corner is on a unit circle, unless the angle hasn't changed.
+     * (Right-angled triangles spin the other way from equilateral ones.)
+     */
+    private void updateRightTemplates()
+    {
+        double spinAngle = getSpinAngle();
+        if (accumulatedAngle == rightTemplateAccumulated && spinAngle == rightTemplateSpin)
+        {
+            return;
+        }
+
+        for (int i = 0; i < rightRatioList.length; i++)
+        {
+            double angle = Math.PI * (rightRatioList[i]) - accumulatedAngle - spinAngle;
+            rightSines[i] = FastTrig.sin(angle);
+            rightCosines[i] = FastTrig.cos(angle);
+        }
+        rightTemplateAccumulated = accumulatedAngle;
+        rightTemplateSpin = spinAngle;
+    }
+
+    //These next few methods calculate the triangles' new sizes for the next iteration.
+
+    /**
+     * If we're dealing with equilateral triangles, this method directs the algorithm towards logic that
+     * either makes the triangles bigger or smaller.
+     */
+    private void updateEquilaterals()
+    {
+        if (reverse == false) {
+            growEquilaterals();
+        } else {
+            shrinkEquilaterals();
+        }
+    }
+
+    /**
+     * If we're dealing with right-angle triangles, this method directs the algorithm towards logic that
+     * either makes the triangles bigger or smaller.
+     */
+    private void updateRights()
+    {
+        if (reverse == false) {
+            growRights();
+        } else {
+            shrinkRights();
+        }
+    }
+
+    /**
+     * This method takes the ring of Active Equilateral Triangles, and changes them for the next iteration.
+     */
+    private void growEquilaterals()
+    {
+        activeEquilateralTriangles.scaleRadii(GROW);
+
+        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
+        if (activeEquilateralTriangles.getLastRadius() >= 2)
+        {
+            addLastEquilateralTriangle(activeEquilateralTriangles.getLastRadius() / 2);
+        }
+
+        if (activeEquilateralTriangles.getFirstRadius()>canvasWidth*5 && activeEquilateralTriangles.getFirstRadius()>canvasHeight*4)
+        {
+            activeEquilateralTriangles.removeFirst();
+        }
+    }
+
+    /**
+     * This method takes the ring of Active Equilateral Triangles, and changes them for the next iteration.
+     */
+    private void shrinkEquilaterals()
+    {
+        activeEquilateralTriangles.scaleRadii(SHRINK);
+
+        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
+        if (activeEquilateralTriangles.getLastRadius() <= 1)
+        {
+            activeEquilateralTriangles.removeLast();
+        }
+
+        if (activeEquilateralTriangles.getFirstRadius()<canvasWidth*3 && activeEquilateralTriangles.getFirstRadius()<canvasHeight*3)
+        {
+            addFirstEquilateralTriangle(activeEquilateralTriangles.getFirstRadius()*2);
+        }
+    }
+
+    /**
+     * This method takes the ring of Active Right-Angled Triangles, and changes them for the next iteration.
+     */
+    private void growRights()
+    {
+        activeRightTriangles.scaleRadii(GROW);
+
+        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
+        if (activeRightTriangles.getLastRadius() >=2)
+        {
+            addLastRightTriangle(activeRightTriangles.getLastRadius() / 1.5);
+        }
+
+        if (activeRightTriangles.getFirstRadius() > (canvasWidth+canvasHeight)*4)
+        {
+            activeRightTriangles.removeFirst();
+        }
+    }
+
+    /**
+     * This method takes the ring of Active Right-Angled Triangles, and changes them for the next iteration.
+     */
+    private void shrinkRights()
+    {
+        activeRightTriangles.scaleRadii(SHRINK);
+
+        //Delete triangles that are out of the scope of the screen, and create new ones on the other end of the size-spectrum.
+        if (activeRightTriangles.getLastRadius() <= 1)
+        {
+            activeRightTriangles.removeLast();
+        }
+
+        if (activeRightTriangles.getFirstRadius() < canvasWidth*3 && activeRightTriangles.getFirstRadius() < canvasHeight*3)
+        {
+            addFirstRightTriangle(canvasHeight * 3);
+        }
+    }
+
+    /**
+     * This method is called for every individual Right-Angled triangle that needs to be drawn.
+     * So this method will be called a number of times for every iteration (if the equilateral boolean is false).
+     *
+     * Here, we use a diameter to define a circle. Then we create three points along that circle which become the triangle's corners.
+     * The diameter and phase (pole) of each triangle is kept in the ring of active triangles.
+     * This method takes that information and calculates where the triangle should be drawn on the canvas.
+     *
+     * This method is called regardless of whether the triangles are growing smaller or larger.
+     * @param radius
+     * @param phase the position of the triangle's first corner in the rightRatioList
+     * @param triangleColor
+     * @param sink
+     */
+    private void drawOneRightTriangle(double radius, int phase, int triangleColor, TriangleSink sink)
+    {
+        double diameter = radius * 2.0;
+
+        //Three corner-points for the triangle
+        float rx1, ry1, rx2, ry2, rx3, ry3;
+
+        // The vital code.
+        // Calculating the x,y position for each point of right angled triangles:
+        // The three points of the triangle are a certain distance (diameter) from the arbitrary "center,"
+        // at a certain angle which is based on the piRatio, spin, and accumulated spin.
+        // The triangle's piRatios are three entries in a row from the rightRatioList, starting at its phase,
+        // and the templates already hold the sine and cosine of each of those angles.
+        int corner1 = phase;
+        int corner2 = (corner1 + 1) % rightRatioList.length;
+        int corner3 = (corner1 + 2) % rightRatioList.length;
+
+        if(!crazyMode) {
+            rx1 = (float) (centerX + diameter * rightSines[corner1]);
+            ry1 = (float) (centerY + diameter * rightCosines[corner1]);
+
+            rx2 = (float) (centerX + diameter * rightSines[corner2]);
+            ry2 = (float) (centerY + diameter * rightCosines[corner2]);
+
+            rx3 = (float) (centerX + diameter * rightSines[corner3]);
+            ry3 = (float) (centerY + diameter * rightCosines[corner3]);
+
+        } else {
+            //newAngle represents how much to spin the triangle.
+            newAngle = getSpinAngle();
+
+            double ratio1 = rightRatioList[corner1];
+            double ratio2 = rightRatioList[corner2];
+            double ratio3 = rightRatioList[corner3];
+
+            //Crazy-Mode is just weird logic, which is probably not fractal, but which makes a cool animation.
+            rx1 = (float) (centerX + diameter * FastTrig.sin(Math.PI * (ratio1 + newAngle)));
+            ry1 = (float) (centerY + diameter * FastTrig.cos(Math.PI * (ratio1/1.1) - (newAngle-1)/randomizer.nextInt()));
+
+            rx2 = (float) (centerX + diameter * FastTrig.sin(Math.PI * (ratio2/iterations) - accumulatedAngle + newAngle));
+            ry2 = (float) (centerY + diameter * FastTrig.cos(Math.PI * (ratio2/(newAngle+1))));
+
+            rx3 = (float) (centerX + diameter * FastTrig.sin(Math.PI * (ratio3) - ((newAngle=0.25) / randomizer.nextInt())));
+            ry3 = (float) (centerY + diameter * FastTrig.cos(Math.PI * (ratio3/iterations - accumulatedAngle - newAngle)));
+
+            //newAngle must always be reset to zero so it can be calculated fresh for each triangle.
+            newAngle=0;
+        }
+
+        //The logic is done. Now simply draw whatever part of the triangle can be seen.
+        clipper.clipTriangle(rx1, ry1, rx2, ry2, rx3, ry3, triangleColor, fill, sink);
+    }
+
+    /**
+     * This method is called for every individual equilateral triangle that needs to be drawn.
+     * So this method will be called a number of times for every iteration (if the equilateral boolean is true).
+     *
+     * Here, we use a diameter to define a circle. Then we create three points along that circle which become the triangle's corners.
+     * The diameter and phase (pole) of each triangle is kept in the ring of active triangles.
+     * This method takes that information and calculates where the triangle should be drawn on the canvas.
+     *
+     * This method is called regardless of whether the triangles are growing smaller or larger.
+     * @param currentRadius
+     * @param phase which of the two equilateral phases the triangle is in
+     * @param triangleColor
+     * @param sink
+     */
+    private void drawOneEquilateralTriangle(double currentRadius, int phase, int triangleColor, TriangleSink sink)
+    {
+        double radius = currentRadius;
+        double diameter = radius*2;
+
+        // The vital code.
+        // Calculating the x,y position for each point of equilateral triangles.
+        // The three points of the triangle are a certain distance (diameter) from the arbitrary "center,"
+        // at a certain angle which is based on the piRatio, spin, and accumulated spin.
+        // The templates already hold the sine and cosine of each of those angles.
+        int corner = phase * 3;
+        double x1 = centerX + diameter * equilateralSines[corner];
+        double y1 = centerY + diameter * equilateralCosines[corner];
+
+        double x2 = centerX + diameter * equilateralSines[corner + 1];
+        double y2 = centerY + diameter * equilateralCosines[corner + 1];
+
+        double x3 = centerX + diameter * equilateralSines[corner + 2];
+        double y3 = centerY + diameter * equilateralCosines[corner + 2];
+
+        if(crazyMode) {
+            //As I tried to find the logic for a right-angle triangle I accidentally created this weird animation.
+            //I'm keeping it for the final product because it's fun.
+            x1 = x1 + diameter * FastTrig.sin(Math.PI * (1.0 / 3.0));
+            y1 = y1 + diameter * FastTrig.cos(Math.PI * (1.0 / 3.1));
+
+            x2 = x2 + diameter * FastTrig.sin(Math.PI * (4.3 / 3.0));
+            y2 = y2 + diameter * FastTrig.cos(Math.PI * (4.0 / iterations));
+
+            x3 = x3 + diameter * FastTrig.sin(Math.PI * (2.1));
+            y3 = y3 + diameter * FastTrig.cos(Math.PI * (1.9));
+        }
+
+        if(seizureMode)
+        {
+            //Seizure Mode is a horrible visual experience.
+            triangleColor = colors[colorTicker];
+            increaseColorTicker();
+        }
+
+        //Convert the doubles into floats which can be drawn onto the canvas, and draw whatever part of the triangle can be seen.
+        clipper.clipTriangle((float) x1, (float) y1, (float) x2, (float) y2, (float) x3, (float) y3, triangleColor, fill, sink);
+    }
+
+
+    //These next few methods are conditionals, called from somewhere in the loop when they are needed
+
+
+    /**
+     * If the user has requested to reset the canvas, this method will be called.
+     */
+    private void resetConditions()
+    {
+        if(reverse)
+        {
+            resetCanvas();
+        }
+        else
+        {
+            if(equilateral) {
+                getCorrectEquilateralRatio();
+            }
+        }
+        reset=false;
+        iterations=1;
+        timedIterations=1;
+        firstIteration=true;
+    }
+
+    /**
+     * This method is called to change the speed of the spin.
+     * This method sets the accumulatedAngle variable so the triangle will keep its location.
+     */
+    private void onSpinChange()
+    {
+        if (!resetNoSpin)
+        {
+            accumulatedAngle += getIterations()/spin;
+        }
+
+        iterations = 0;
+        timedIterations = 0;
+        spin = newSpin;
+        spinChange = false;
+        resetNoSpin = false;
+    }
+
+    /**
+     * This method sets the triangle's center to the middle of the screen and erases anything that has been drawn.
+     * This method is called upon the very first iteration of the animation,
+     * and any time we want to recreate the conditions of the first iteration.
+     * @param width
+     * @param height
+     */
+    private void firstIteration(int width, int height)
+    {
+        canvasWidth = width;
+        canvasHeight = height;
+        centerX = canvasWidth/2;
+        centerY = canvasHeight/2;
+        firstIteration = false;
+        eraseCanvas = true;
+    }
+
+    /**
+     * If the user has selected Seizure Mode, this method will be called during every iteration
+     * to display the animation in a disconcerting sequence of colours.
+     * Seizure Mode is a horrible visual experience where everything flashes a lot.
+     * @return the color to clear the canvas to
+     */
+    private int doSeizureStuff()
+    {
+        int clearColor = seizureColors[seizureColorTicker];
+        seizureColorTicker++;
+        if(seizureColorTicker>=seizureColors.length)
+        {
+            seizureColorTicker=0;
+        }
+        toggleFill();
+        return clearColor;
+    }
+
+
+    //End of conditional methods
+
+
+    /**
+     * This method chooses the color for the next triangle.
+     */
+    private void increaseColorTicker()
+    {
+        colorTicker++;
+        if (colorTicker >= colors.length)
+        {
+            colorTicker = 0;
+        }
+    }
+
+    /**
+     * This method chooses the color for the next triangle.
+     * @return
+     */
+    private int nextTriangleColor()
+    {
+        int color = colors[colorTicker];
+        increaseColorTicker();
+        return color;
+    }
+
+    /**
+     * Move the color ticker past several triangles at once.
+     * @param count
+     */
+    private void skipTriangleColors(int count)
+    {
+        colorTicker = (int) ((colorTicker + (long) count) % colors.length);
+    }
+
+    /**
+     *This method flips the pole (phase/angle) of the next equilateral triangle.
+     * @return the position of the new triangle's piRatio in the equilateralRatioList
+     */
+    private int nextEquilateralPhase()
+    {
+        equilateralRatioTicker = !equilateralRatioTicker;
+
+        if(equilateralRatioTicker) {
+            return 0;
+        }
+        else
+        {
+            return 1;
+        }
+    }
+
+    /**
+     * This method finds out the angle of the last right-angled triangle,
+     * so the next right-angle triangle can use the next angle in the sequence.
+     * Each triangle uses three angles, so the next one starts three places further on.
+     * @return the position of the new triangle's first piRatio in the rightRatioList
+     */
+    private int nextRightPhase()
+    {
+        int phase = rightRatioTicker;
+        rightRatioTicker = (rightRatioTicker + 3) % rightRatioList.length;
+        return phase;
+    }
+
+    /**
+     * This method is for when the animation is changing from reverse to !reverse,
+     * and we need to fill the center with one giant full-screen triangle.
+     */
+    private void getCorrectEquilateralRatio()
+    {
+        //The ticker is true straight after it hands out phase 0.
+        equilateralRatioTicker = (activeEquilateralTriangles.getPhase(activeEquilateralTriangles.size()-1) == 0);
+    }
+
+    //The following methods are called from the menu to alter the animation.
+
+    //These methods do not directly alter the animation because that could crash the algorithm.
+    //Certain conditions must remain the same for the life of an iteration.
+    //Instead, these methods set a boolean so that on the beginning of the next iteration,
+    //the appropriate alterations can be made before the calculations and drawings begin.
+
+
+
+    public void toggleErase()
+    {
+        eraseCanvas = !eraseCanvas;
+    }
+
+    public void toggleFill()
+    {
+        fill = !fill;
+    }
+
+
+    public void toggleReverse()
+    {
+        if (reverse==true)
+        {
+            reverse=false;
+        }
+        else
+        {
+            if(equilateral) {
+                reset = true;
+            }
+            reverse=true;
+        }
+    }
+
+
+    /**
+     * This method tells the next iteration to switch between equilateral and right triangles.
+     */
+    public void toggleEquilateral()
+    {
+        reset = true;
+        equilateralReset = true;
+    }
+
+    /**
+     * Switching between equilateral and right triangles requires careful calculations
+     * to make sure nothing crashes. This method is part of that process.
+     */
+    private void doEquilateralReset()
+    {
+        resetConditions();
+        if (equilateral==true)
+        {
+            equilateral=false;
+        }
+        else
+        {
+            equilateral=true;
+        }
+        reset = true;
+        equilateralReset = false;
+    }
+
+    /**
+     * Crazy Mode creates weird looking animations instead of the proper triangles.
+     */
+    public void toggleCrazy()
+    {
+        if (crazyMode==true)
+        {
+            crazyMode=false;
+        }
+        else
+        {
+            crazyMode=true;
+        }
+    }
+
+    /**
+     * Seizure Mode is a horrible visual experience.
+     */
+    public void toggleSeizureMode()
+    {
+        if (seizureMode==true)
+        {
+            seizureMode=false;
+            eraseCanvas =false;
+            clearRequested = true;
+            fill=false;
+        }
+        else
+        {
+            seizureMode=true;
+            eraseCanvas =true;
+        }
+    }
+
+    /**
+     * This method resets the canvas.
+     * It is called directly from the menu,
+     * and will not crash the algorithm, even in mid-iteration.
+     */
+    public void resetCanvas()
+    {
+        clearRequested = true;
+        firstVisibleTriangle = 0;
+
+        if(equilateral)
+        {
+           resetEquilateral();
+        }
+        else
+        {
+            resetRight();
+        }
+    }
+
+    /**
+     * Descending from resetCanvas()
+     * This method resets the animation for equilateral triangles.
+     */
+    private void resetEquilateral()
+    {
+
+        if (reverse == false) {
+            activeEquilateralTriangles.clear();
+            addLastEquilateralTriangle(baseRadius);
+        } else {
+            addLastEquilateralTriangle(canvasHeight * 4);
+            activeEquilateralTriangles.setColor(0, 0x1E90FF);
+        }
+
+    }
+
+    /**
+     * Descending from resetCanvas()
+     * This method resets the animation for right-angled triangles.
+     */
+    private void resetRight()
+    {
+        activeRightTriangles.clear();
+        if (reverse == false) {
+            addLastRightTriangle(baseRadius);
+        } else {
+            addLastRightTriangle(canvasHeight * 4);
+            activeRightTriangles.setColor(0, 0x1E90FF);
+        }
+    }
+
+    /**
+     * Make the triangles spin faster.
+     */
+    public void moreSpin()
+    {
+        spinPhaseSelector--;
+
+        if (spinPhaseSelector < 0)
+        {
+            spinPhaseSelector = 0;
+        }
+        else
+        {
+            spinChange = true;
+            newSpin = spinPhaseArray[spinPhaseSelector];
+        }
+
+        if(noSpin)
+        {
+            noSpin = false;
+            resetNoSpin=true;
+        }
+    }
+
+    /**
+     * Slow down the triangles' spin.
+     */
+    public void lessSpin() {
+
+        if (!noSpin)
+        {
+            spinPhaseSelector++;
+
+            if (spinPhaseSelector >= spinPhaseArray.length)
+            {
+                spinPhaseSelector = spinPhaseArray.length - 1;
+                noSpin = true;
+            }
+
+            newSpin = spinPhaseArray[spinPhaseSelector];
+            spinChange = true;
+        }
+    }
+
+    /**
+     * Timed mode moves the triangles by the time that has passed, instead of one iteration per frame.
+     */
+    public void toggleTimed()
+    {
+        timed = !timed;
+        lastFrameTimeKnown = false;
+        timedIterations = iterations;
+    }
+
+    /**
+     * Changes the "center" of the animation.
+     * Places the new center somewhere between the old center and the given point,
+     * so the animation moves slowly and smoothly towards the user's finger.
+     * @param xTouched
+     * @param yTouched
+     */
+    public void changeCenter(int xTouched, int yTouched)
+    {
+        centerX += (xTouched-centerX)/10.1;
+        centerY += (yTouched-centerY)/10.1;
+    }
+}
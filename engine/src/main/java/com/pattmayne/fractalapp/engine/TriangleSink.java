@@ -0,0 +1,32 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * Anything that filled (or outlined) triangles can be handed to, one at a time, in the order they should be drawn.
+ */
+public interface TriangleSink {
+
+    void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color);
+
+    /**
+     * One edge of an outlined triangle that was too big to hand over whole, already cut down to the guard band
+     * (see TriangleClipper). It is drawn as a line in the triangle's color.
+     */
+    void addEdge(float startX, float startY, float endX, float endY, int color);
+}
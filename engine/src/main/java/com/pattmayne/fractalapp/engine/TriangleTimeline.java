@@ -0,0 +1,242 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class moves a ring of nested triangles forward by any amount of time in one step,
+ * instead of one iteration at a time.
+ *
+ * Every iteration, each triangle's radius is multiplied by the same growth factor,
+ * so after t iterations (t doesn't have to be a whole number) it has been multiplied by growth^t.
+ * New triangles appear at one end whenever the triangle at that end reaches a threshold,
+ * and every new triangle after the first starts at the same radius, so they appear at a fixed period.
+ * That makes both the sizes and the births a geometric series, which can be worked out directly for any span of time:
+ * only the triangles that are still on the screen at the end are created, however many iterations are skipped.
+ *
+ * When the triangles grow, new ones are born after the last (smallest) one when it reaches the spawn threshold,
+ * and the first (largest) ones are removed once they are bigger than the removal threshold.
+ * When they shrink, new ones are born before the first one when it drops below the spawn threshold,
+ * and the last ones are removed once they are no bigger than the removal threshold.
+ * Either way, at least one triangle is always kept.
+ *
+ * Each iteration can give birth to at most one triangle, the same as when the triangles are moved one iteration at a time.
+ * The timeline remembers how long it has to wait for the next birth, so this holds however the time is cut up.
+ */
+public class TriangleTimeline {
+
+    /**
+     * Gives each new triangle its color and phase, in the order they are born.
+     */
+    public interface Births {
+
+        int nextColor();
+
+        int nextPhase();
+
+        /**
+         * Move past some births without creating their triangles (because they were born and removed within the same step).
+         * @param count
+         */
+        void skip(int count);
+    }
+
+    private double growth;
+    private double logGrowth;
+    private double spawnThreshold;
+    private double birthScale;
+    private double birthRadius;
+    private double removalThreshold;
+
+    //How many iterations are left before another triangle can be born.
+    private double birthCooldown = 0;
+
+
+    /**
+     * Set how the triangles change.
+     * @param growth how much every radius is multiplied by in each iteration. More than one to grow, less than one to shrink.
+     * @param spawnThreshold the radius the triangle at the growing (or shrinking) end has to reach before another is born
+     * @param birthScale a new triangle's radius, as a multiple of the radius of the one it was born from when it was born
+     * @param birthRadius if more than zero, every new triangle has this radius instead
+     * @param removalThreshold triangles beyond this radius are removed
+     */
+    public void configure(double growth, double spawnThreshold, double birthScale, double birthRadius, double removalThreshold)
+    {
+        if (growth <= 0 || growth == 1)
+        {
+            throw new IllegalArgumentException("The triangles have to grow or shrink: " + growth);
+        }
+        if (growth != this.growth || spawnThreshold != this.spawnThreshold || birthScale != this.birthScale
+                || birthRadius != this.birthRadius)
+        {
+            //The triangles are being born differently (or at the other end), so the last birth doesn't count any more.
+            birthCooldown = 0;
+        }
+        this.growth = growth;
+        this.logGrowth = Math.log(growth);
+        this.spawnThreshold = spawnThreshold;
+        this.birthScale = birthScale;
+        this.birthRadius = birthRadius;
+        this.removalThreshold = removalThreshold;
+    }
+
+    /**
+     * Move every triangle in the ring forward by some number of iterations, adding the ones born in that time
+     * and removing the ones that have gone past the removal threshold.
+     * @param ring the triangles, from largest to smallest. Must not be empty.
+     * @param iterations how far to move. Nothing happens if this isn't more than zero.
+     * @param births
+     */
+    public void advance(TriangleRing ring, double iterations, Births births)
+    {
+        if (!(iterations > 0))
+        {
+            return;
+        }
+
+        boolean growing = growth > 1;
+        double edgeRadius = growing ? ring.getLastRadius() : ring.getFirstRadius();
+        ring.scaleRadii(Math.pow(growth, iterations));
+
+        //When the triangle at the edge reached the spawn threshold (straight away if it already had),
+        //unless the last birth was less than an iteration ago.
+        double firstBirthTime;
+        double radiusAtFirstBirth;
+        if (hasReachedSpawnThreshold(edgeRadius))
+        {
+            firstBirthTime = birthCooldown;
+            radiusAtFirstBirth = edgeRadius * Math.pow(growth, firstBirthTime);
+        }
+        else
+        {
+            firstBirthTime = timeToReach(edgeRadius, spawnThreshold);
+            radiusAtFirstBirth = spawnThreshold;
+            if (firstBirthTime < birthCooldown)
+            {
+                firstBirthTime = birthCooldown;
+                radiusAtFirstBirth = edgeRadius * Math.pow(growth, firstBirthTime);
+            }
+        }
+
+        if (firstBirthTime <= iterations)
+        {
+            double lastBirthTime = addBirths(ring, iterations, births, firstBirthTime, getBirthRadius(radiusAtFirstBirth));
+            birthCooldown = Math.max(0, lastBirthTime + 1 - iterations);
+        }
+        else
+        {
+            birthCooldown = Math.max(0, birthCooldown - iterations);
+        }
+
+        //Remove the triangles that have gone past the removal threshold.
+        if (growing)
+        {
+            while (ring.size() > 1 && ring.getFirstRadius() > removalThreshold)
+            {
+                ring.removeFirst();
+            }
+        }
+        else
+        {
+            while (ring.size() > 1 && ring.getLastRadius() <= removalThreshold)
+            {
+                ring.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Add every triangle born during the step that is still within the removal threshold at the end of it.
+     * The first one is born at firstBirthTime, the second when the first reaches the spawn threshold,
+     * and every one after that a fixed period after the one before.
+     * @return when the last one was born
+     */
+    private double addBirths(TriangleRing ring, double iterations, Births births, double firstBirthTime, double firstRadius)
+    {
+        boolean growing = growth > 1;
+        double laterRadius = getBirthRadius(spawnThreshold);
+        double firstPeriod = Math.max(1, timeToReach(firstRadius, spawnThreshold));
+        double period = Math.max(1, timeToReach(laterRadius, spawnThreshold));
+
+        double secondBirthTime = firstBirthTime + firstPeriod;
+        int birthCount = 1;
+        if (secondBirthTime <= iterations)
+        {
+            birthCount = 2 + (int) Math.floor((iterations - secondBirthTime) / period);
+        }
+
+        //The earliest births have gone furthest, so some of them may already be past the removal threshold.
+        //Work out roughly where the survivors start, so a long step doesn't create triangles only to remove them again.
+        //A later birth (from the second on) has gone past it once it has been alive longer than lifetime.
+        int firstSurvivor = 1;
+        double lifetime = timeToReach(laterRadius, removalThreshold);
+        if (lifetime >= 0)
+        {
+            double latestPastBirth = iterations - lifetime;
+            int pastBirths = 1 + (int) Math.floor((latestPastBirth - secondBirthTime) / period);
+            firstSurvivor = Math.max(1, Math.min(birthCount, pastBirths));
+        }
+        births.skip(firstSurvivor - 1);
+
+        double birthTime = firstBirthTime;
+        for (int birth = firstSurvivor; birth <= birthCount; birth++)
+        {
+            double radius;
+            if (birth == 1)
+            {
+                birthTime = firstBirthTime;
+                radius = firstRadius;
+            }
+            else
+            {
+                birthTime = secondBirthTime + (birth - 2) * period;
+                radius = laterRadius;
+            }
+            radius *= Math.pow(growth, iterations - birthTime);
+
+            int color = births.nextColor();
+            int phase = births.nextPhase();
+            if (growing && radius <= removalThreshold)
+            {
+                ring.addLast(radius, color, phase);
+            }
+            else if (!growing && radius > removalThreshold)
+            {
+                ring.addFirst(radius, color, phase);
+            }
+        }
+        return birthTime;
+    }
+
+    private boolean hasReachedSpawnThreshold(double radius)
+    {
+        return (growth > 1) ? radius >= spawnThreshold : radius < spawnThreshold;
+    }
+
+    private double getBirthRadius(double parentRadius)
+    {
+        return (birthRadius > 0) ? birthRadius : parentRadius * birthScale;
+    }
+
+    /**
+     * How many iterations it takes a radius to grow (or shrink) to another. Negative if it's going the wrong way.
+     */
+    private double timeToReach(double from, double to)
+    {
+        return Math.log(to / from) / logGrowth;
+    }
+}
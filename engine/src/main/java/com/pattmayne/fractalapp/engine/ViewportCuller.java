@@ -0,0 +1,244 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+/**
+ * This class keeps the branching fractal from doing work that nobody will ever see.
+ *
+ * It clips lines to the visible area (the canvas, plus a small margin for the stroke width)
+ * before passing them on to a SegmentSink, drops lines that are completely outside, and drops lines too short to cover a single pixel.
+ *
+ * It can also test whether a whole part of the tree could ever reach the visible area.
+ * All the points of one generation lie on a circle around the center, and a point's branches can only wander
+ * a limited angle away from it (see BranchGenerator.getMaxDrift), so everything that grows from a point
+ * lies inside a slice of a ring around the center. If that slice misses the canvas, the whole part can be skipped.
+ *
+ * The counts are reset at the start of every frame, so they always describe the frame just drawn.
+ */
+public class ViewportCuller {
+
+    //Results of testing a slice of the ring against the visible area.
+    public static final int OUTSIDE = 0;
+    public static final int PARTLY_INSIDE = 1;
+    public static final int INSIDE = 2;
+
+    private float left;
+    private float top;
+    private float right;
+    private float bottom;
+
+    //Counts for the current frame
+    public int visibleSegments;
+    public int clippedSegments;
+    public int culledSegments;
+    public int subPixelSegments;
+    public int prunedBranches;
+
+
+    /**
+     * Set the visible area.
+     * @param width
+     * @param height
+     * @param margin how far outside the canvas a line can be and still show (half the stroke width is enough)
+     */
+    public void setViewport(float width, float height, float margin)
+    {
+        left = -margin;
+        top = -margin;
+        right = width + margin;
+        bottom = height + margin;
+    }
+
+    /**
+     * Reset all the counts at the beginning of a frame.
+     */
+    public void startFrame()
+    {
+        visibleSegments = 0;
+        clippedSegments = 0;
+        culledSegments = 0;
+        subPixelSegments = 0;
+        prunedBranches = 0;
+    }
+
+    /**
+     * Clip a line to the visible area, and pass on whatever is left of it.
+     * This uses the Liang-Barsky method: the line is written as start + t*(end - start), for t from 0 to 1,
+     * and each edge of the visible area cuts a piece off one end of that range.
+     * @param sink where the visible part of the line is sent
+     */
+    public void clipSegment(float startX, float startY, float endX, float endY, SegmentSink sink)
+    {
+        float dx = endX - startX;
+        float dy = endY - startY;
+
+        if (Math.abs(dx) < 1 && Math.abs(dy) < 1)
+        {
+            subPixelSegments++;
+            return;
+        }
+
+        if (startX >= left && startX <= right && startY >= top && startY <= bottom
+                && endX >= left && endX <= right && endY >= top && endY <= bottom)
+        {
+            visibleSegments++;
+            sink.addSegment(startX, startY, endX, endY);
+            return;
+        }
+
+        float tStart = 0;
+        float tEnd = 1;
+
+        //For each edge: p is how fast the line moves out through that edge, q is how far inside it the start is.
+        for (int edge = 0; edge < 4; edge++)
+        {
+            float p;
+            float q;
+            if (edge == 0) { p = -dx; q = startX - left; }
+            else if (edge == 1) { p = dx; q = right - startX; }
+            else if (edge == 2) { p = -dy; q = startY - top; }
+            else { p = dy; q = bottom - startY; }
+
+            if (p == 0)
+            {
+                //The line is parallel to this edge, and completely outside it.
+                if (q < 0)
+                {
+                    culledSegments++;
+                    return;
+                }
+            }
+            else
+            {
+                float t = q / p;
+                if (p < 0)
+                {
+                    if (t > tEnd) { culledSegments++; return; }
+                    if (t > tStart) { tStart = t; }
+                }
+                else
+                {
+                    if (t < tStart) { culledSegments++; return; }
+                    if (t < tEnd) { tEnd = t; }
+                }
+            }
+        }
+
+        clippedSegments++;
+        sink.addSegment(startX + tStart * dx, startY + tStart * dy, startX + tEnd * dx, startY + tEnd * dy);
+    }
+
+    /**
+     * Pass on a line that is already known to be completely visible, without clipping it.
+     * @param sink
+     */
+    public void passVisibleSegment(float startX, float startY, float endX, float endY, SegmentSink sink)
+    {
+        visibleSegments++;
+        sink.addSegment(startX, startY, endX, endY);
+    }
+
+    /**
+     * Test a slice of a ring around the center against the visible area.
+     * The test uses the slice's bounding box, so it may answer PARTLY_INSIDE for a slice that just misses,
+     * but it never answers OUTSIDE for a slice that can be seen.
+     *
+     * @param centerX
+     * @param centerY
+     * @param innerRadius
+     * @param outerRadius
+     * @param fromDirection the slice's first edge, in half-turns like the branch directions
+     * @param toDirection the slice's other edge, in half-turns
+     * @return OUTSIDE, PARTLY_INSIDE or INSIDE
+     */
+    public int testSlice(float centerX, float centerY, float innerRadius, float outerRadius,
+                         float fromDirection, float toDirection)
+    {
+        float minX;
+        float maxX;
+        float minY;
+        float maxY;
+
+        if (toDirection - fromDirection >= 2)
+        {
+            //The slice goes all the way around.
+            minX = centerX - outerRadius;
+            maxX = centerX + outerRadius;
+            minY = centerY - outerRadius;
+            maxY = centerY + outerRadius;
+        }
+        else
+        {
+            //Start with the four corners of the slice...
+            float sinFrom = FastTrig.sinPi(fromDirection);
+            float cosFrom = FastTrig.cosPi(fromDirection);
+            float sinTo = FastTrig.sinPi(toDirection);
+            float cosTo = FastTrig.cosPi(toDirection);
+
+            minX = Math.min(Math.min(innerRadius * sinFrom, outerRadius * sinFrom), Math.min(innerRadius * sinTo, outerRadius * sinTo));
+            maxX = Math.max(Math.max(innerRadius * sinFrom, outerRadius * sinFrom), Math.max(innerRadius * sinTo, outerRadius * sinTo));
+            minY = Math.min(Math.min(innerRadius * cosFrom, outerRadius * cosFrom), Math.min(innerRadius * cosTo, outerRadius * cosTo));
+            maxY = Math.max(Math.max(innerRadius * cosFrom, outerRadius * cosFrom), Math.max(innerRadius * cosTo, outerRadius * cosTo));
+
+            //...then, wherever the slice crosses straight right, down, left or up, its outer edge sticks out furthest.
+            //(x is the sine and y is the cosine, so direction 0 points down the screen and 0.5 points right.)
+            if (containsDirection(fromDirection, toDirection, 0.5f)) { maxX = outerRadius; }
+            if (containsDirection(fromDirection, toDirection, 1.5f)) { minX = -outerRadius; }
+            if (containsDirection(fromDirection, toDirection, 0f)) { maxY = outerRadius; }
+            if (containsDirection(fromDirection, toDirection, 1f)) { minY = -outerRadius; }
+
+            minX += centerX;
+            maxX += centerX;
+            minY += centerY;
+            maxY += centerY;
+        }
+
+        if (maxX < left || minX > right || maxY < top || minY > bottom)
+        {
+            return OUTSIDE;
+        }
+
+        if (minX >= left && maxX <= right && minY >= top && maxY <= bottom)
+        {
+            return INSIDE;
+        }
+
+        return PARTLY_INSIDE;
+    }
+
+    /**
+     * Does the range of directions from "from" to "to" include the given direction (or the same direction a whole turn away)?
+     */
+    private boolean containsDirection(float from, float to, float direction)
+    {
+        //Move the direction to the first copy of it that comes after "from".
+        float turnsAfter = (float) Math.ceil((from - direction) / 2);
+        float firstAfter = direction + turnsAfter * 2;
+        return firstAfter <= to;
+    }
+
+    /**
+     * A short summary of this frame's counts, for the log.
+     * @return
+     */
+    public String getReport()
+    {
+        return "visible " + visibleSegments + ", clipped " + clippedSegments + ", culled " + culledSegments
+                + ", sub-pixel " + subPixelSegments + ", pruned branches " + prunedBranches;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class writes 16-bit mono samples as a WAV file, so the Synth can be listened to (and checked) without a device.
+ */
+public class WavWriter {
+
+    public static final int HEADER_SIZE = 44;
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    //Samples are turned into bytes this many at a time.
+    private static final int CHUNK_SAMPLES = 4096;
+
+
+    private WavWriter()
+    {
+    }
+
+    /**
+     * Write a whole WAV file: the header, then the samples. The stream is not closed.
+     * @param out
+     * @param samples
+     * @param offset
+     * @param length how many samples to write
+     * @param sampleRate
+     * @throws IOException
+     */
+    public static void write(OutputStream out, short[] samples, int offset, int length, int sampleRate) throws IOException
+    {
+        int dataSize = length * BYTES_PER_SAMPLE;
+
+        byte[] header = new byte[HEADER_SIZE];
+        putText(header, 0, "RIFF");
+        putInt(header, 4, HEADER_SIZE - 8 + dataSize);
+        putText(header, 8, "WAVE");
+
+        putText(header, 12, "fmt ");
+        putInt(header, 16, 16);
+        //PCM, one channel
+        putShort(header, 20, 1);
+        putShort(header, 22, 1);
+        putInt(header, 24, sampleRate);
+        putInt(header, 28, sampleRate * BYTES_PER_SAMPLE);
+        putShort(header, 32, BYTES_PER_SAMPLE);
+        putShort(header, 34, 16);
+
+        putText(header, 36, "data");
+        putInt(header, 40, dataSize);
+        out.write(header);
+
+        byte[] chunk = new byte[Math.min(length, CHUNK_SAMPLES) * BYTES_PER_SAMPLE];
+        for (int start = 0; start < length; start += CHUNK_SAMPLES)
+        {
+            int count = Math.min(CHUNK_SAMPLES, length - start);
+            for (int i = 0; i < count; i++)
+            {
+                putShort(chunk, i * BYTES_PER_SAMPLE, samples[offset + start + i]);
+            }
+            out.write(chunk, 0, count * BYTES_PER_SAMPLE);
+        }
+        out.flush();
+    }
+
+    private static void putText(byte[] bytes, int position, String text)
+    {
+        for (int i = 0; i < text.length(); i++)
+        {
+            bytes[position + i] = (byte) text.charAt(i);
+        }
+    }
+
+    //WAV files are little-endian.
+
+    private static void putInt(byte[] bytes, int position, int value)
+    {
+        putShort(bytes, position, value);
+        putShort(bytes, position + 2, value >> 16);
+    }
+
+    private static void putShort(byte[] bytes, int position, int value)
+    {
+        bytes[position] = (byte) value;
+        bytes[position + 1] = (byte) (value >> 8);
+    }
+}
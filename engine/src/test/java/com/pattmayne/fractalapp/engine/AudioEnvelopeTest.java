@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AudioEnvelopeTest {
+
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * Half a second of silence, half a second of a loud tone, then half a second of the same tone at a quarter of the volume.
+     * @param channelCount every channel plays the same thing
+     * @return
+     */
+    private static short[] makeTrack(int channelCount)
+    {
+        int half = SAMPLE_RATE / 2;
+        short[] samples = new short[3 * half * channelCount];
+        for (int i = half; i < 3 * half; i++)
+        {
+            double amplitude = (i < 2 * half) ? 20000 : 5000;
+            short sample = (short) (amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+            for (int channel = 0; channel < channelCount; channel++)
+            {
+                samples[i * channelCount + channel] = sample;
+            }
+        }
+        return samples;
+    }
+
+    private static AudioEnvelope build(short[] samples, int channelCount)
+    {
+        EnvelopeBuilder builder = new EnvelopeBuilder(SAMPLE_RATE, channelCount, 20);
+        builder.addSamples(samples, 0, samples.length);
+        return builder.build();
+    }
+
+    @Test
+    public void testEnergyFollowsTheVolume() {
+        AudioEnvelope envelope = build(makeTrack(1), 1);
+
+        assertEquals(75, envelope.getFrameCount());
+        assertEquals(1500, envelope.getDurationMillis());
+
+        assertEquals(0, envelope.getEnergy(250), 0.01f);
+        assertEquals(1, envelope.getEnergy(750), 0.01f);
+        assertEquals(0.25f, envelope.getEnergy(1250), 0.01f);
+
+        //Outside the track, the music is silent.
+        assertEquals(0, envelope.getEnergy(-1), 0);
+        assertEquals(0, envelope.getEnergy(1500), 0);
+    }
+
+    @Test
+    public void testOnsetsMarkTheBeat() {
+        AudioEnvelope envelope = build(makeTrack(1), 1);
+
+        //The tone starting is the strongest beat of the track.
+        assertEquals(0, envelope.getOnset(490), 0);
+        assertEquals(1, envelope.getOnset(500), 0.01f);
+
+        //It fades over the next few frames.
+        assertTrue(envelope.getOnset(520) < envelope.getOnset(500));
+        assertTrue(envelope.getOnset(520) > 0.5f);
+
+        //A steady tone, or one that gets quieter, is no beat at all, so the first one fades away.
+        assertTrue(envelope.getOnset(990) < 0.05f);
+        assertTrue(envelope.getOnset(1300) < 0.01f);
+    }
+
+    @Test
+    public void testSamplesCanArriveInPieces() {
+        short[] samples = makeTrack(2);
+        AudioEnvelope whole = build(samples, 2);
+
+        EnvelopeBuilder builder = new EnvelopeBuilder(SAMPLE_RATE, 2, 20);
+        int offset = 0;
+        for (int piece = 1; offset < samples.length; piece = piece * 3 + 1)
+        {
+            int length = Math.min(piece, samples.length - offset);
+            builder.addSamples(samples, offset, length);
+            offset += length;
+        }
+        AudioEnvelope pieces = builder.build();
+
+        //Stereo gives the same envelope as mono, since the frames are just as long.
+        AudioEnvelope mono = build(makeTrack(1), 1);
+        assertEquals(mono.getFrameCount(), whole.getFrameCount());
+        assertEquals(whole.getFrameCount(), pieces.getFrameCount());
+        for (long millis = 0; millis < whole.getDurationMillis(); millis += 20)
+        {
+            assertEquals(mono.getEnergy(millis), whole.getEnergy(millis), 0);
+            assertEquals(whole.getEnergy(millis), pieces.getEnergy(millis), 0);
+            assertEquals(whole.getOnset(millis), pieces.getOnset(millis), 0);
+        }
+    }
+
+    @Test
+    public void testSilence() {
+        AudioEnvelope envelope = build(new short[1000], 1);
+        for (long millis = 0; millis < envelope.getDurationMillis(); millis += 20)
+        {
+            assertEquals(0, envelope.getEnergy(millis), 0);
+            assertEquals(0, envelope.getOnset(millis), 0);
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        AudioEnvelope envelope = build(makeTrack(1), 1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        envelope.write(out);
+        AudioEnvelope copy = AudioEnvelope.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(envelope.getFrameMillis(), copy.getFrameMillis());
+        assertEquals(envelope.getFrameCount(), copy.getFrameCount());
+        for (long millis = 0; millis < envelope.getDurationMillis(); millis += 20)
+        {
+            assertEquals(envelope.getEnergy(millis), copy.getEnergy(millis), 0);
+            assertEquals(envelope.getOnset(millis), copy.getOnset(millis), 0);
+        }
+
+        //A file cut short, or one that isn't an envelope at all, can't be read.
+        byte[] bytes = out.toByteArray();
+        byte[] shortened = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, shortened, 0, shortened.length);
+        assertUnreadable(shortened);
+        bytes[0] = 0;
+        assertUnreadable(bytes);
+    }
+
+    private static void assertUnreadable(byte[] bytes)
+    {
+        try
+        {
+            AudioEnvelope.read(new ByteArrayInputStream(bytes));
+            fail();
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a tree comes out exactly the same however many threads calculate it.
+ */
+public class BranchGeneratorTest {
+
+    private static final long SEED = 0x5EEDL;
+
+    //Deep enough that the last generations have 2^14 start points and are split between threads.
+    private static final int DEPTH = 15;
+
+    @Test
+    public void testTreeIsIdenticalForAnyThreadCount() {
+        BranchFrontier expected = growTree(new BranchGenerator(1));
+
+        for (int threads = 2; threads <= 8; threads *= 2) {
+            BranchFrontier actual = growTree(new BranchGenerator(threads));
+
+            assertEquals(expected.size, actual.size);
+            for (int i = 0; i < expected.size; i++) {
+                assertSameBits("pointX " + i, expected.pointX[i], actual.pointX[i]);
+                assertSameBits("pointY " + i, expected.pointY[i], actual.pointY[i]);
+                assertSameBits("direction1 " + i, expected.direction1[i], actual.direction1[i]);
+                assertSameBits("direction2 " + i, expected.direction2[i], actual.direction2[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testGeneratorsCanShareTheWorkerThreads() throws InterruptedException {
+        final BranchFrontier expected = growTree(new BranchGenerator(1));
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        //Generators growing trees at the same time, each asking for more threads than the ones before it.
+        Thread[] threads = new Thread[3];
+        for (int t = 0; t < threads.length; t++) {
+            final int firstThreadCount = 16 + t;
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 4; i++) {
+                            BranchFrontier actual = growTree(new BranchGenerator(firstThreadCount + i * 8));
+                            assertEquals(expected.size, actual.size);
+                            assertSameBits("pointX", expected.pointX[actual.size - 1], actual.pointX[actual.size - 1]);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void testDifferentSeedsGiveDifferentTrees() {
+        assertFalse(BranchGenerator.getDirection(SEED, 0) == BranchGenerator.getDirection(SEED + 1, 0));
+    }
+
+    @Test
+    public void testNewDirectionsStayWithinRange() {
+        for (int index = 0; index < 10000; index++) {
+            float newDirection = BranchGenerator.getNewDirection(1, 3, SEED, index, 0);
+            assertTrue(Math.abs(newDirection - 1) < 1.0f / (5 + 3));
+        }
+    }
+
+    private BranchFrontier growTree(BranchGenerator generator) {
+        BranchFrontier startPoints = new BranchFrontier(1 << DEPTH);
+        BranchFrontier endPoints = new BranchFrontier(1 << DEPTH);
+        generator.plantRoot(startPoints, 500, 500, SEED);
+
+        for (int iterations = 1; iterations <= DEPTH; iterations++) {
+            endPoints.clear();
+            generator.generate(startPoints, endPoints, 500, 500, 70 * iterations * 1.55f, iterations, SEED);
+
+            BranchFrontier swapper = startPoints;
+            startPoints = endPoints;
+            endPoints = swapper;
+        }
+        return startPoints;
+    }
+
+    private void assertSameBits(String what, float expected, float actual) {
+        assertEquals(what, Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+}
@@ -0,0 +1,142 @@
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the depth-first walk draws the same lines as the breadth-first frontier.
+ */
+public class BranchStreamerTest {
+
+    private static final long SEED = 0x5EEDL;
+    private static final int DEPTH = 10;
+    private static final int LINE_LENGTH = 70;
+
+    @Test
+    public void testDepthFirstMatchesBreadthFirst() {
+        BranchGenerator generator = new BranchGenerator(1);
+        BranchStreamer streamer = new BranchStreamer();
+
+        BranchFrontier startPoints = new BranchFrontier(1 << DEPTH);
+        BranchFrontier endPoints = new BranchFrontier(1 << DEPTH);
+        generator.plantRoot(startPoints, 400, 300, SEED);
+
+        for (int iterations = 1; iterations <= DEPTH; iterations++) {
+            generator.generate(startPoints, endPoints, 400, 300, LINE_LENGTH * iterations * 1.55f, iterations, SEED);
+
+            SegmentRecorder streamed = new SegmentRecorder(startPoints.size * 2);
+            streamer.stream(iterations, 2, 400, 300, LINE_LENGTH, SEED, streamed, null);
+            assertEquals(startPoints.size * 2, streamed.count);
+
+            //Both visit the new points in index order, so the lines come out in the same order too.
+            for (int i = 0; i < endPoints.size; i++) {
+                int parent = i / 2;
+                assertSameBits(startPoints.pointX[parent], streamed.vertices[i * 4]);
+                assertSameBits(startPoints.pointY[parent], streamed.vertices[i * 4 + 1]);
+                assertSameBits(endPoints.pointX[i], streamed.vertices[i * 4 + 2]);
+                assertSameBits(endPoints.pointY[i], streamed.vertices[i * 4 + 3]);
+            }
+
+            BranchFrontier swapper = startPoints;
+            startPoints = endPoints;
+            endPoints = swapper;
+            endPoints.clear();
+        }
+    }
+
+    @Test
+    public void testMoreBranchesPerPoint() {
+        SegmentRecorder streamed = new SegmentRecorder(81);
+        new BranchStreamer().stream(4, 3, 400, 300, LINE_LENGTH, SEED, streamed, null);
+        assertEquals(81, streamed.count);
+    }
+
+    @Test
+    public void testCullingKeepsEveryVisibleLine() {
+        //The center is far off the left edge, so most of the tree can't be seen.
+        float centerX = -900;
+        float centerY = 300;
+
+        for (int iterations = 1; iterations <= DEPTH; iterations++) {
+            SegmentRecorder everything = new SegmentRecorder(1 << iterations);
+            new BranchStreamer().stream(iterations, 2, centerX, centerY, LINE_LENGTH, SEED, everything, null);
+
+            //Clip every single line, without skipping any branches.
+            ViewportCuller bruteForce = new ViewportCuller();
+            bruteForce.setViewport(800, 600, 2);
+            SegmentRecorder expected = new SegmentRecorder(1 << iterations);
+            for (int i = 0; i < everything.count; i++) {
+                bruteForce.clipSegment(everything.vertices[i * 4], everything.vertices[i * 4 + 1],
+                        everything.vertices[i * 4 + 2], everything.vertices[i * 4 + 3], expected);
+            }
+
+            ViewportCuller culler = new ViewportCuller();
+            culler.setViewport(800, 600, 2);
+            culler.startFrame();
+            SegmentRecorder culled = new SegmentRecorder(1 << iterations);
+            new BranchStreamer().stream(iterations, 2, centerX, centerY, LINE_LENGTH, SEED, culled, culler);
+
+            assertEquals("generation " + iterations, expected.count, culled.count);
+            for (int i = 0; i < expected.count * 4; i++) {
+                assertEquals(expected.vertices[i], culled.vertices[i], 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void testCullingSkipsBranchesOffTheCanvas() {
+        ViewportCuller culler = new ViewportCuller();
+        culler.setViewport(800, 600, 2);
+        culler.startFrame();
+
+        SegmentRecorder culled = new SegmentRecorder(1 << DEPTH);
+        new BranchStreamer().stream(DEPTH, 2, -900, 300, LINE_LENGTH, SEED, culled, culler);
+
+        assertTrue(culler.prunedBranches > 0);
+    }
+
+    @Test
+    public void testSamplesLinesFromAcrossTheGeneration() {
+        BranchStreamer streamer = new BranchStreamer();
+        float[] directions = new float[BranchStreamer.SAMPLED_DIRECTIONS];
+
+        for (int iterations = 1; iterations <= DEPTH; iterations++) {
+            SegmentRecorder streamed = new SegmentRecorder(1 << iterations);
+            streamer.stream(iterations, 2, 400, 300, LINE_LENGTH, SEED, streamed, null);
+            int count = streamer.getSampledDirections(directions);
+            assertEquals(Math.min(streamed.count, BranchStreamer.SAMPLED_DIRECTIONS), count);
+
+            //Each sample is the direction of the first line in its stretch of the generation.
+            float reach = LINE_LENGTH*iterations*1.55f;
+            int stretch = Math.max(1, streamed.count / BranchStreamer.SAMPLED_DIRECTIONS);
+            for (int i = 0; i < count; i++) {
+                int line = i * stretch;
+                assertSameBits(streamed.vertices[line * 4 + 2], 400 + reach * FastTrig.sinPi(directions[i]));
+                assertSameBits(streamed.vertices[line * 4 + 3], 300 + reach * FastTrig.cosPi(directions[i]));
+            }
+        }
+    }
+
+    private void assertSameBits(float expected, float actual) {
+        assertEquals(Float.floatToIntBits(expected), Float.floatToIntBits(actual));
+    }
+
+    private static class SegmentRecorder implements SegmentSink {
+        final float[] vertices;
+        int count = 0;
+
+        SegmentRecorder(int capacity) {
+            vertices = new float[capacity * 4];
+        }
+
+        public void addSegment(float startX, float startY, float endX, float endY) {
+            vertices[count * 4] = startX;
+            vertices[count * 4 + 1] = startY;
+            vertices[count * 4 + 2] = endX;
+            vertices[count * 4 + 3] = endY;
+            count++;
+        }
+    }
+}
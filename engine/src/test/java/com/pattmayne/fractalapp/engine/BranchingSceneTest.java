@@ -0,0 +1,130 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws the branching scene with the software renderer, the same way BranchingFractalView draws it onto a Canvas.
+ */
+public class BranchingSceneTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void testOnlyTheFirstFrameClears() {
+        BranchingScene scene = new BranchingScene(7);
+        assertTrue(scene.beginFrame(WIDTH, HEIGHT));
+        scene.drawGeneration(new SoftwareRenderer(WIDTH, HEIGHT));
+        assertFalse(scene.beginFrame(WIDTH, HEIGHT));
+
+        scene.resetImage();
+        assertTrue(scene.beginFrame(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testDrawsLines() {
+        SoftwareRenderer renderer = drawFrames(new BranchingScene(7), 4);
+
+        int changed = 0;
+        for (int pixel : renderer.getPixels()) {
+            if (pixel != BranchingScene.BACKGROUND_COLOR) {
+                changed++;
+            }
+        }
+        assertTrue(changed > 100);
+    }
+
+    @Test
+    public void testSameSeedDrawsTheSamePicture() {
+        for (int depthFirst = 0; depthFirst < 2; depthFirst++) {
+            BranchingScene first = new BranchingScene(42);
+            BranchingScene second = new BranchingScene(42);
+            if (depthFirst == 1) {
+                first.toggleDepthFirst();
+                second.toggleDepthFirst();
+            }
+            assertArrayEquals(drawFrames(first, 10).getPixels(), drawFrames(second, 10).getPixels());
+        }
+    }
+
+    @Test
+    public void testPruningNeverRestartsTheTreeAtTheCenter() {
+        //Long lines and a deep tree push most of the later generations off a tall canvas,
+        //until pruning leaves no points to grow from.
+        BranchingScene scene = new BranchingScene(42);
+        for (int i = 0; i < 5; i++) {
+            scene.longerLines();
+        }
+        for (int i = 0; i < 8; i++) {
+            scene.bigger();
+        }
+
+        CenterLines centerLines = new CenterLines(1080 / 2, 1920 / 2);
+        for (int generation = 1; generation <= 40; generation++) {
+            scene.beginFrame(1080, 1920);
+            centerLines.count = 0;
+            scene.drawGeneration(centerLines);
+
+            //Only the first generation of each tree grows from the center, and each tree has MAX_ITERATIONS generations.
+            if (generation % BranchingScene.MAX_ITERATIONS != 1) {
+                assertEquals(0, centerLines.count);
+            }
+        }
+    }
+
+    /**
+     * Counts the lines that start at the center.
+     */
+    private static class CenterLines implements SegmentSink {
+
+        final float centerX;
+        final float centerY;
+        int count;
+
+        CenterLines(float centerX, float centerY) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+        }
+
+        @Override
+        public void addSegment(float startX, float startY, float endX, float endY) {
+            if (startX == centerX && startY == centerY) {
+                count++;
+            }
+        }
+    }
+
+    private SoftwareRenderer drawFrames(BranchingScene scene, int frames) {
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT);
+        for (int i = 0; i < frames; i++) {
+            if (scene.beginFrame(WIDTH, HEIGHT)) {
+                renderer.clear(BranchingScene.BACKGROUND_COLOR);
+            }
+            renderer.setColor(scene.getColor());
+            scene.drawGeneration(renderer);
+        }
+        return renderer;
+    }
+}
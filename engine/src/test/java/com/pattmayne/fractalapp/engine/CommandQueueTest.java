@@ -0,0 +1,131 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandQueueTest {
+
+    /**
+     * Remembers every command it is given, in order.
+     */
+    private static class RecordingConsumer implements CommandQueue.Consumer {
+        int count = 0;
+        int[] codes = new int[1000];
+        float[] xs = new float[1000];
+        float[] ys = new float[1000];
+
+        @Override
+        public void onCommand(int code, float x, float y) {
+            codes[count] = code;
+            xs[count] = x;
+            ys[count] = y;
+            count++;
+        }
+    }
+
+    @Test
+    public void testCapacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(1, new CommandQueue(1).getCapacity());
+        assertEquals(8, new CommandQueue(8).getCapacity());
+        assertEquals(16, new CommandQueue(9).getCapacity());
+    }
+
+    @Test
+    public void testCommandsComeOutInOrder() {
+        CommandQueue queue = new CommandQueue(4);
+        RecordingConsumer consumer = new RecordingConsumer();
+
+        //Go round the ring several times.
+        for (int round = 0; round < 5; round++) {
+            assertTrue(queue.offer(1));
+            assertTrue(queue.offer(2, 10.5f, -3));
+            assertTrue(queue.offer(3, 7, 8));
+            assertEquals(3, queue.drain(consumer));
+        }
+
+        assertEquals(15, consumer.count);
+        for (int i = 0; i < 15; i += 3) {
+            assertEquals(1, consumer.codes[i]);
+            assertEquals(2, consumer.codes[i + 1]);
+            assertEquals(10.5f, consumer.xs[i + 1], 0);
+            assertEquals(-3, consumer.ys[i + 1], 0);
+            assertEquals(3, consumer.codes[i + 2]);
+        }
+        assertEquals(0, queue.drain(consumer));
+    }
+
+    @Test
+    public void testFullQueueDropsCommands() {
+        CommandQueue queue = new CommandQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(0, queue.getFreeSpace());
+        assertFalse(queue.offer(99));
+
+        RecordingConsumer consumer = new RecordingConsumer();
+        assertEquals(4, queue.drain(consumer));
+        assertEquals(3, consumer.codes[3]);
+        assertEquals(4, queue.getFreeSpace());
+    }
+
+    @Test
+    public void testCommandsPassBetweenThreads() throws InterruptedException {
+        final CommandQueue queue = new CommandQueue(16);
+        final int total = 200000;
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < total; i++) {
+                    while (!queue.offer(i, i, -i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+
+        final int[] received = {0};
+        final boolean[] inOrder = {true};
+        CommandQueue.Consumer consumer = new CommandQueue.Consumer() {
+            @Override
+            public void onCommand(int code, float x, float y) {
+                if (code != received[0] || x != (float) code || y != (float) -code) {
+                    inOrder[0] = false;
+                }
+                received[0]++;
+            }
+        };
+
+        producer.start();
+        while (received[0] < total) {
+            if (queue.drain(consumer) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        assertTrue(inOrder[0]);
+        assertEquals(total, received[0]);
+    }
+}
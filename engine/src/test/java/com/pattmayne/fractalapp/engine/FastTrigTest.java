@@ -0,0 +1,64 @@
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the FastTrig lookup table stays close enough to Math.sin and Math.cos
+ * that nothing drawn with it ends up in the wrong place on the screen.
+ */
+public class FastTrigTest {
+
+    //A little more than the largest radius either animation draws on a large screen
+    //(the triangles are kept until they are five times the canvas width).
+    private static final double LARGEST_RADIUS = 20000;
+
+    //How far a drawn point may move away from where Math would have put it.
+    private static final double MAX_PIXEL_ERROR = 0.05;
+
+    @Test
+    public void testSinMatchesMath() {
+        for (double angle = -50; angle <= 50; angle += 0.0007) {
+            assertEquals("sin(" + angle + ")", Math.sin(angle), FastTrig.sin(angle), 1e-6);
+        }
+    }
+
+    @Test
+    public void testCosMatchesMath() {
+        for (double angle = -50; angle <= 50; angle += 0.0007) {
+            assertEquals("cos(" + angle + ")", Math.cos(angle), FastTrig.cos(angle), 1e-6);
+        }
+    }
+
+    @Test
+    public void testHalfTurnsMatchMath() {
+        for (double halfTurns = -4; halfTurns <= 4; halfTurns += 0.0001) {
+            assertEquals("sinPi(" + halfTurns + ")", Math.sin(Math.PI * halfTurns), FastTrig.sinPi(halfTurns), 1e-6);
+            assertEquals("cosPi(" + halfTurns + ")", Math.cos(Math.PI * halfTurns), FastTrig.cosPi(halfTurns), 1e-6);
+        }
+    }
+
+    @Test
+    public void testLargeAccumulatedAngles() {
+        //The triangle spin angle grows without limit, so check angles far from zero.
+        for (double angle = 1e5; angle <= 1e5 + 10; angle += 0.0013) {
+            assertEquals("sin(" + angle + ")", Math.sin(angle), FastTrig.sin(angle), 1e-5);
+            assertEquals("cos(" + angle + ")", Math.cos(angle), FastTrig.cos(angle), 1e-5);
+        }
+    }
+
+    @Test
+    public void testPixelErrorAtLargestRadius() {
+        double worstError = 0;
+
+        for (double angle = 0; angle <= 2 * Math.PI; angle += 0.00003) {
+            double dx = LARGEST_RADIUS * (FastTrig.sin(angle) - Math.sin(angle));
+            double dy = LARGEST_RADIUS * (FastTrig.cos(angle) - Math.cos(angle));
+            worstError = Math.max(worstError, Math.sqrt(dx * dx + dy * dy));
+        }
+
+        assertTrue("worst pixel error was " + worstError, worstError < MAX_PIXEL_ERROR);
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the frame scheduler against a pretend clock, where every frame takes as long as the test says.
+ */
+public class FrameSchedulerTest {
+
+    private static final long MILLI = 1000000L;
+
+    @Test
+    public void testSleepSubtractsTheDrawingTime() {
+        FakeScheduler scheduler = startedScheduler(50);
+
+        //However long each frame takes to draw, the frames start exactly 50ms apart.
+        long[] drawingTimes = {5, 30, 49, 0, 12};
+        long frameStart = scheduler.now;
+        for (long drawingTime : drawingTimes) {
+            scheduler.now += drawingTime * MILLI;
+            scheduler.waitForNextFrame();
+            assertEquals(frameStart + 50 * MILLI, scheduler.now);
+            frameStart = scheduler.now;
+        }
+        assertEquals(0, scheduler.getLateFrameCount());
+    }
+
+    @Test
+    public void testCatchesUpAfterASlowFrame() {
+        FakeScheduler scheduler = startedScheduler(50);
+        long start = scheduler.now;
+
+        //70ms late: the next frame starts straight away, and the one after that is back on time.
+        scheduler.now += 70 * MILLI;
+        scheduler.waitForNextFrame();
+        assertEquals(start + 70 * MILLI, scheduler.now);
+
+        scheduler.now += 10 * MILLI;
+        scheduler.waitForNextFrame();
+        assertEquals(start + 100 * MILLI, scheduler.now);
+
+        assertEquals(1, scheduler.getLateFrameCount());
+        assertEquals(0, scheduler.getSkippedFrameCount());
+    }
+
+    @Test
+    public void testSkipsWhenFarBehind() {
+        FakeScheduler scheduler = startedScheduler(50);
+        long start = scheduler.now;
+
+        //A 230ms frame misses the deadlines at 50, 100, 150 and 200ms.
+        scheduler.now += 230 * MILLI;
+        scheduler.waitForNextFrame();
+        assertEquals(3, scheduler.getSkippedFrameCount());
+
+        //The deadlines carry on from 200ms, instead of rushing through the missed frames.
+        scheduler.now += 10 * MILLI;
+        scheduler.waitForNextFrame();
+        assertEquals(start + 250 * MILLI, scheduler.now);
+    }
+
+    @Test
+    public void testNewIntervalStartsWithTheNextFrame() {
+        FakeScheduler scheduler = startedScheduler(100);
+        long start = scheduler.now;
+
+        scheduler.waitForNextFrame();
+        scheduler.setInterval(20);
+        scheduler.waitForNextFrame();
+        assertEquals(start + 120 * MILLI, scheduler.now);
+        assertEquals(20, scheduler.getIntervalMillis());
+    }
+
+    @Test
+    public void testFirstFrameSetsTheDeadlines() {
+        FakeScheduler scheduler = new FakeScheduler(50);
+        long start = scheduler.now;
+
+        //Nobody knows when the first frame started, so the next one starts a whole interval after it finished.
+        scheduler.now += 20 * MILLI;
+        scheduler.waitForNextFrame();
+        assertEquals(start + 70 * MILLI, scheduler.now);
+    }
+
+    /**
+     * A scheduler that has already finished its first frame, so the next frame starts now.
+     */
+    private FakeScheduler startedScheduler(long intervalMillis) {
+        FakeScheduler scheduler = new FakeScheduler(intervalMillis);
+        scheduler.waitForNextFrame();
+        return scheduler;
+    }
+
+
+    /**
+     * A scheduler whose clock only moves when the test (or a sleep) moves it.
+     */
+    private static class FakeScheduler extends FrameScheduler {
+
+        long now = 1000 * MILLI;
+
+        FakeScheduler(long intervalMillis) {
+            super(intervalMillis);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+
+        @Override
+        protected void sleepNanos(long nanos) {
+            now += nanos;
+        }
+    }
+}
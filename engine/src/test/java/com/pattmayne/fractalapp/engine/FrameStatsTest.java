@@ -0,0 +1,114 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times pretend frames against a pretend clock.
+ */
+public class FrameStatsTest {
+
+    private static final long MILLI = 1000000L;
+
+    private static class FakeFrameStats extends FrameStats {
+        long now = 1000 * MILLI;
+
+        FakeFrameStats(long reportIntervalMillis) {
+            super(reportIntervalMillis);
+        }
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testStagesAreAddedUp() {
+        FakeFrameStats stats = new FakeFrameStats(1000);
+
+        //Geometry and raster take turns, the way they do when lines are drawn in batches.
+        stats.startStage();
+        stats.now += 2 * MILLI;
+        stats.endStage(FrameStats.GEOMETRY);
+        stats.now += 3 * MILLI;
+        stats.endStage(FrameStats.RASTER);
+        stats.now += 4 * MILLI;
+        stats.endStage(FrameStats.GEOMETRY);
+        stats.now += 1 * MILLI;
+        stats.endStage(FrameStats.BLIT);
+        stats.now += 5 * MILLI;
+        stats.endStage(FrameStats.POST);
+        assertFalse(stats.endFrame());
+
+        assertEquals(6 * MILLI, stats.getHistogram(FrameStats.GEOMETRY).getMax());
+        assertEquals(3 * MILLI, stats.getHistogram(FrameStats.RASTER).getMax());
+        assertEquals(1 * MILLI, stats.getHistogram(FrameStats.BLIT).getMax());
+        assertEquals(5 * MILLI, stats.getHistogram(FrameStats.POST).getMax());
+        assertEquals(15 * MILLI, stats.getHistogram(FrameStats.STAGE_COUNT).getMax());
+        assertEquals(6 * MILLI, stats.getLastStageTime(FrameStats.GEOMETRY));
+        assertEquals(5 * MILLI, stats.getLastStageTime(FrameStats.POST));
+
+        //The next frame starts from zero.
+        stats.startStage();
+        stats.now += 1 * MILLI;
+        stats.endStage(FrameStats.GEOMETRY);
+        stats.endFrame();
+        assertEquals(2, stats.getHistogram(FrameStats.GEOMETRY).getCount());
+        assertEquals(1 * MILLI, stats.getLastStageTime(FrameStats.GEOMETRY));
+        assertEquals(0, stats.getLastStageTime(FrameStats.POST));
+        long median = stats.getHistogram(FrameStats.GEOMETRY).getPercentile(0.5);
+        assertTrue(median >= 1 * MILLI && median < 2 * MILLI);
+        assertTrue(stats.getHistogram(FrameStats.RASTER).getPercentile(0.5) < MILLI);
+    }
+
+    @Test
+    public void testReportsAfterTheInterval() {
+        FakeFrameStats stats = new FakeFrameStats(1000);
+        assertEquals(1, stats.getReportLines().length);
+
+        int frames = 0;
+        boolean reported = false;
+        while (!reported) {
+            stats.startStage();
+            stats.now += 10 * MILLI;
+            stats.endStage(FrameStats.RASTER);
+            stats.now += 10 * MILLI;
+            stats.endStage(FrameStats.POST);
+            reported = stats.endFrame();
+            frames++;
+        }
+
+        //The first frame starts the window, and 50 frames of 20ms later it has lasted a second.
+        assertEquals(51, frames);
+        String[] lines = stats.getReportLines();
+        assertEquals(FrameStats.STAGE_COUNT + 2, lines.length);
+        assertTrue(lines[0].startsWith("51 frames"));
+        assertTrue(lines[2].startsWith("raster"));
+        assertTrue(lines[2].contains("max  10.00"));
+        assertTrue(stats.getReport().contains("; frame "));
+
+        //The histograms start again for the next report.
+        assertEquals(0, stats.getHistogram(FrameStats.STAGE_COUNT).getCount());
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentileIsNeverTooLow() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long time = 1000; time <= 100000000L; time = time * 3 / 2 + 7) {
+            histogram.record(time);
+            long bucketTop = LatencyHistogram.getBucketTop(LatencyHistogram.getBucket(time));
+            assertTrue(bucketTop >= time);
+
+            //A bucket is never wider than an eighth of the doubling it belongs to.
+            assertTrue(bucketTop - time <= time / LatencyHistogram.SUB_BUCKETS + 1);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(millis * 1000000L);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(100000000L, histogram.getPercentile(1.0));
+
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 50000000L);
+        assertTrue(median < 50000000L + 50000000L / LatencyHistogram.SUB_BUCKETS);
+
+        long p95 = histogram.getPercentile(0.95);
+        assertTrue(p95 >= 95000000L);
+        assertTrue(p95 <= 100000000L);
+    }
+
+    @Test
+    public void testClear() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.record(40000000000L);
+        histogram.clear();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        histogram.record(5000);
+        assertEquals(5000, histogram.getPercentile(0.5));
+    }
+}
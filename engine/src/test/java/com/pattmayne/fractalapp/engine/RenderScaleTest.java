@@ -0,0 +1,108 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderScaleTest {
+
+    private static final long MILLI = 1000000L;
+    private static final long BUDGET = 20 * MILLI;
+
+    @Test
+    public void testScaledSize() {
+        RenderScale half = new RenderScale(0.5f, false);
+        assertEquals(1920, half.getScaledSize(3840));
+        assertEquals(1080, half.getScaledSize(2160));
+        assertEquals(1, half.getScaledSize(1));
+
+        //Out of range scales are kept in range.
+        assertEquals(1f, new RenderScale(2f, false).getScale(), 0);
+        assertEquals(RenderScale.MIN_SCALE, new RenderScale(0, false).getScale(), 0);
+    }
+
+    @Test
+    public void testFixedScaleNeverChanges() {
+        RenderScale fixed = new RenderScale(0.75f, false);
+        for (int i = 0; i < RenderScale.WINDOW_FRAMES * 10; i++) {
+            assertFalse(fixed.onFrame(100 * MILLI, BUDGET));
+        }
+        assertEquals(0.75f, fixed.getScale(), 0);
+    }
+
+    @Test
+    public void testSlowFramesLowerTheScale() {
+        RenderScale scale = new RenderScale(1, true);
+
+        //One window of slow frames is one step down.
+        assertTrue(runWindow(scale, 19 * MILLI, BUDGET));
+        assertEquals(RenderScale.STEP, scale.getScale(), 0.001f);
+
+        //It never goes below the minimum.
+        for (int i = 0; i < 20; i++) {
+            runWindow(scale, 100 * MILLI, BUDGET);
+        }
+        assertEquals(RenderScale.MIN_SCALE, scale.getScale(), 0);
+        assertFalse(runWindow(scale, 100 * MILLI, BUDGET));
+
+        //Frames with time to spare bring it back up, but never past the scale it started with.
+        for (int i = 0; i < 20; i++) {
+            runWindow(scale, 2 * MILLI, BUDGET);
+        }
+        assertEquals(1f, scale.getScale(), 0);
+    }
+
+    @Test
+    public void testFramesInsideTheBudgetKeepTheScale() {
+        RenderScale scale = new RenderScale(1, true);
+        runWindow(scale, 19 * MILLI, BUDGET);
+        float lowered = scale.getScale();
+
+        //Half the budget is neither too slow, nor fast enough to risk a step up.
+        for (int i = 0; i < 10; i++) {
+            assertFalse(runWindow(scale, BUDGET / 2, BUDGET));
+        }
+        assertEquals(lowered, scale.getScale(), 0);
+    }
+
+    @Test
+    public void testShortBudgetsCountAsOneScreenRefresh() {
+        //A 1 millisecond frame interval can't be met at any scale, and shouldn't drag the scale down.
+        RenderScale scale = new RenderScale(1, true);
+        for (int i = 0; i < 10; i++) {
+            assertFalse(runWindow(scale, 10 * MILLI, MILLI));
+        }
+        assertEquals(1f, scale.getScale(), 0);
+    }
+
+    /**
+     * Count one window of frames that all take the same time. The scale can only change on the last one.
+     * @return whether the scale changed
+     */
+    private static boolean runWindow(RenderScale scale, long frameNanos, long budgetNanos)
+    {
+        for (int i = 0; i < RenderScale.WINDOW_FRAMES - 1; i++) {
+            assertFalse(scale.onFrame(frameNanos, budgetNanos));
+        }
+        return scale.onFrame(frameNanos, budgetNanos);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks which pixels the software renderer colors.
+ */
+public class SoftwareRendererTest {
+
+    private static final int BACKGROUND = 0xff0066ff;
+    private static final int RED = 0xffff0000;
+
+    @Test
+    public void testClear() {
+        SoftwareRenderer renderer = new SoftwareRenderer(16, 8);
+        renderer.clear(BACKGROUND);
+        for (int pixel : renderer.getPixels()) {
+            assertEquals(BACKGROUND, pixel);
+        }
+    }
+
+    @Test
+    public void testHorizontalLine() {
+        SoftwareRenderer renderer = new SoftwareRenderer(16, 8);
+        renderer.clear(BACKGROUND);
+        renderer.setColor(RED);
+        renderer.addSegment(2.5f, 3.5f, 10.5f, 3.5f);
+
+        for (int x = 0; x < 16; x++) {
+            int expected = (x >= 2 && x <= 10) ? RED : BACKGROUND;
+            assertEquals("x = " + x, expected, renderer.getPixel(x, 3));
+            assertEquals(BACKGROUND, renderer.getPixel(x, 2));
+            assertEquals(BACKGROUND, renderer.getPixel(x, 4));
+        }
+    }
+
+    @Test
+    public void testLinesAreClippedToTheRaster() {
+        SoftwareRenderer renderer = new SoftwareRenderer(16, 8);
+        renderer.clear(BACKGROUND);
+        renderer.setColor(RED);
+
+        //Runs right through the raster from far outside it, then one that never touches it.
+        renderer.addSegment(-100000, 4.5f, 100000, 4.5f);
+        renderer.addSegment(-50, -50, -10, 200);
+
+        for (int x = 0; x < 16; x++) {
+            assertEquals(RED, renderer.getPixel(x, 4));
+        }
+        assertEquals(BACKGROUND, renderer.getPixel(0, 0));
+    }
+
+    @Test
+    public void testFilledTriangle() {
+        SoftwareRenderer renderer = new SoftwareRenderer(16, 16);
+        renderer.clear(BACKGROUND);
+        renderer.addTriangle(0, 0, 16, 0, 0, 16, RED);
+
+        //Every pixel whose center is above the diagonal is inside.
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                int expected = (x + y + 1 < 16) ? RED : BACKGROUND;
+                assertEquals("(" + x + ", " + y + ")", expected, renderer.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testOutlinedTriangleLeavesTheMiddleAlone() {
+        SoftwareRenderer renderer = new SoftwareRenderer(32, 32);
+        renderer.clear(BACKGROUND);
+        renderer.setFill(false);
+        renderer.addTriangle(1.5f, 1.5f, 30.5f, 1.5f, 1.5f, 30.5f, RED);
+
+        assertEquals(RED, renderer.getPixel(1, 1));
+        assertEquals(RED, renderer.getPixel(15, 1));
+        assertEquals(RED, renderer.getPixel(1, 15));
+        assertEquals(BACKGROUND, renderer.getPixel(8, 8));
+    }
+
+    @Test
+    public void testTransparentColorsDrawNothing() {
+        SoftwareRenderer renderer = new SoftwareRenderer(8, 8);
+        renderer.clear(BACKGROUND);
+        renderer.addTriangle(0, 0, 8, 0, 0, 8, 0x001e90ff);
+        renderer.setColor(0x00ff0000);
+        renderer.addSegment(0, 4, 8, 4);
+
+        for (int pixel : renderer.getPixels()) {
+            assertEquals(BACKGROUND, pixel);
+        }
+    }
+}
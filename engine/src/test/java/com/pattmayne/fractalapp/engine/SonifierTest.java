@@ -0,0 +1,177 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SonifierTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void testDirectionsPlayTheScale() {
+        float lowest = Sonifier.directionToFrequency(0);
+        assertEquals(Sonifier.ROOT_FREQUENCY, lowest, 0.01f);
+
+        //Once around the circle is the same direction, so the same note.
+        assertEquals(Sonifier.directionToFrequency(0.3f), Sonifier.directionToFrequency(2.3f), 0);
+        assertEquals(Sonifier.directionToFrequency(-0.3f), Sonifier.directionToFrequency(1.7f), 0);
+
+        float previous = 0;
+        for (float direction = 0; direction < 2; direction += 0.01f)
+        {
+            float frequency = Sonifier.directionToFrequency(direction);
+            assertTrue(frequency >= previous);
+            assertTrue(frequency < Sonifier.ROOT_FREQUENCY * (1 << Sonifier.SCALE_OCTAVES));
+            previous = frequency;
+        }
+        assertTrue(previous > lowest * 4);
+    }
+
+    @Test
+    public void testEveryGenerationPlaysNotes() {
+        for (int kind = 0; kind < 2; kind++) {
+            BranchingScene scene = new BranchingScene(7);
+            if (kind == 1) {
+                scene.toggleDepthFirst();
+            }
+            CommandQueue events = new CommandQueue(64);
+            Sonifier sonifier = new Sonifier(events);
+            EventRecorder recorder = new EventRecorder();
+            SegmentSink nowhere = new SegmentSink() {
+                @Override
+                public void addSegment(float x1, float y1, float x2, float y2) {
+                }
+            };
+
+            //Only lines that are drawn play notes, so the canvas is big enough for the whole tree.
+            for (int i = 0; i < 4; i++) {
+                scene.beginFrame(1000, 1000);
+                scene.drawGeneration(nowhere);
+                sonifier.onGeneration(scene);
+
+                recorder.notes = 0;
+                events.drain(recorder);
+                assertTrue(recorder.notes > 0);
+                assertTrue(recorder.notes <= Sonifier.NOTES_PER_GENERATION);
+            }
+        }
+    }
+
+    @Test
+    public void testDepthFirstNotesFollowTheTree() {
+        //The canvas is big enough that no line is clipped, so every line ends where its direction put it.
+        final int size = 2000;
+        BranchingScene scene = new BranchingScene(7);
+        scene.toggleDepthFirst();
+        CommandQueue events = new CommandQueue(64);
+        Sonifier sonifier = new Sonifier(events);
+        EventRecorder recorder = new EventRecorder();
+        final float[] lineFrequencies = new float[64];
+        final int[] lineCount = new int[1];
+        SegmentSink lines = new SegmentSink() {
+            @Override
+            public void addSegment(float x1, float y1, float x2, float y2) {
+                float direction = (float) (Math.atan2(x2 - size / 2, y2 - size / 2) / Math.PI);
+                lineFrequencies[lineCount[0]++] = Sonifier.directionToFrequency(direction);
+            }
+        };
+
+        for (int generation = 1; generation <= 5; generation++) {
+            scene.beginFrame(size, size);
+            lineCount[0] = 0;
+            scene.drawGeneration(lines);
+            sonifier.onGeneration(scene);
+
+            recorder.notes = 0;
+            events.drain(recorder);
+            assertEquals(Math.min(lineCount[0], Sonifier.NOTES_PER_GENERATION), recorder.notes);
+
+            //The first note is the first line drawn, and the others are lines spread across the generation.
+            assertEquals(lineFrequencies[0], recorder.frequencies[0], 0);
+            int stretch = Math.max(1, lineCount[0] / BranchStreamer.SAMPLED_DIRECTIONS);
+            for (int i = 1; i < recorder.notes; i++) {
+                assertEquals(lineFrequencies[i * stretch], recorder.frequencies[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testTrianglesSweepTheFilter() {
+        TriangleScene scene = new TriangleScene(7);
+        CommandQueue events = new CommandQueue(64);
+        Sonifier sonifier = new Sonifier(events);
+        EventRecorder recorder = new EventRecorder();
+        TriangleSink nowhere = new TriangleSink() {
+            @Override
+            public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+            }
+
+            @Override
+            public void addEdge(float startX, float startY, float endX, float endY, int color) {
+            }
+        };
+
+        float lowest = Float.MAX_VALUE;
+        float highest = 0;
+        int rises = 0;
+        for (int i = 0; i < 200; i++) {
+            scene.beginFrame(WIDTH, HEIGHT);
+            scene.drawTriangles(nowhere);
+            sonifier.onTriangles(scene);
+            scene.advance();
+
+            float lastCutoff = recorder.cutoff;
+            events.drain(recorder);
+            assertTrue(recorder.cutoff >= Sonifier.MIN_SWEEP && recorder.cutoff <= Sonifier.MAX_SWEEP);
+            if (i > 0 && recorder.cutoff > lastCutoff) {
+                rises++;
+            }
+            lowest = Math.min(lowest, recorder.cutoff);
+            highest = Math.max(highest, recorder.cutoff);
+        }
+
+        //The cutoff mostly rises as the triangles grow, and starts over with a note whenever a new one appears.
+        assertTrue(rises > 150);
+        assertTrue(highest > lowest * 10);
+        assertTrue(recorder.notes > 5);
+    }
+
+    private static class EventRecorder implements CommandQueue.Consumer {
+
+        int notes;
+        float[] frequencies = new float[Sonifier.NOTES_PER_GENERATION];
+        float cutoff;
+
+        @Override
+        public void onCommand(int code, float x, float y) {
+            if (code == Synth.NOTE) {
+                if (notes < frequencies.length) {
+                    frequencies[notes] = x;
+                }
+                notes++;
+            } else if (code == Synth.CUTOFF) {
+                cutoff = x;
+            }
+        }
+    }
+}
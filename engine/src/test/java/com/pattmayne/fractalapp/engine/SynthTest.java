@@ -0,0 +1,201 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders the synth into arrays, the same way SynthPlayer renders it for an AudioTrack.
+ */
+public class SynthTest {
+
+    private static final int SAMPLE_RATE = 22050;
+
+    @Test
+    public void testSilentWithoutNotes() {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        events.offer(Synth.CUTOFF, 500, 0);
+
+        short[] samples = new short[SAMPLE_RATE];
+        Arrays.fill(samples, (short) 1);
+        synth.render(samples, 0, samples.length);
+        assertEquals(0, rms(samples, 0, samples.length), 0);
+    }
+
+    @Test
+    public void testNoteDiesAway() {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        events.offer(Synth.NOTE, 440, 1);
+
+        //Rendered in uneven pieces, the way an audio thread might ask for it
+        short[] samples = new short[SAMPLE_RATE];
+        for (int offset = 0; offset < samples.length; offset += 1000)
+        {
+            synth.render(samples, offset, Math.min(1000, samples.length - offset));
+        }
+
+        int tenth = SAMPLE_RATE / 10;
+        double start = rms(samples, 0, tenth);
+        assertTrue(start > 1000);
+        assertTrue(rms(samples, 3 * tenth, tenth) < start);
+
+        //The note is over well within a second.
+        int end = samples.length - tenth;
+        assertTrue(rms(samples, end, tenth) < 50);
+    }
+
+    @Test
+    public void testAttackDoesNotClick() {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        events.offer(Synth.NOTE, 440, 1);
+
+        short[] samples = new short[SAMPLE_RATE / 100];
+        synth.render(samples, 0, samples.length);
+
+        //Nothing jumps straight to a loud sample.
+        assertTrue(Math.abs(samples[0]) < 500);
+        assertTrue(Math.abs(samples[1]) < 500);
+    }
+
+    @Test
+    public void testCutoffDarkensTheSound() {
+        double bright = renderNote(Synth.DEFAULT_CUTOFF * 2);
+        double dark = renderNote(Synth.MIN_CUTOFF);
+        assertTrue(dark < bright / 10);
+    }
+
+    private static double renderNote(float cutoff)
+    {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        events.offer(Synth.CUTOFF, cutoff, 0);
+        events.offer(Synth.NOTE, 220, 1);
+
+        short[] samples = new short[SAMPLE_RATE / 5];
+        synth.render(samples, 0, samples.length);
+
+        //The cutoff starts at DEFAULT_CUTOFF, and takes a few milliseconds to glide to the new one.
+        return rms(samples, samples.length / 2, samples.length / 2);
+    }
+
+    @Test
+    public void testMoreNotesThanVoices() {
+        CommandQueue events = new CommandQueue(64);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        for (int i = 0; i < Synth.MAX_VOICES * 3; i++)
+        {
+            events.offer(Synth.NOTE, 110 + 20 * i, 1);
+        }
+        //Notes the synth can't play are ignored.
+        events.offer(Synth.NOTE, SAMPLE_RATE, 1);
+        events.offer(Synth.NOTE, -1, 1);
+
+        short[] samples = new short[SAMPLE_RATE / 5];
+        synth.render(samples, 0, samples.length);
+
+        //Soft clipping keeps a loud chord from wrapping around.
+        for (short sample : samples)
+        {
+            assertTrue(sample > Short.MIN_VALUE && sample < Short.MAX_VALUE);
+        }
+        assertTrue(rms(samples, 0, samples.length) > 1000);
+    }
+
+    @Test
+    public void testWavOutput() throws IOException {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        events.offer(Synth.NOTE, 330, 0.8f);
+        short[] samples = new short[SAMPLE_RATE / 2];
+        synth.render(samples, 0, samples.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WavWriter.write(out, samples, 0, samples.length, SAMPLE_RATE);
+        byte[] wav = out.toByteArray();
+        assertEquals(WavWriter.HEADER_SIZE + samples.length * 2, wav.length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("RIFF", new String(wav, 0, 4, "US-ASCII"));
+        assertEquals(wav.length - 8, buffer.getInt(4));
+        assertEquals("WAVE", new String(wav, 8, 4, "US-ASCII"));
+        assertEquals("fmt ", new String(wav, 12, 4, "US-ASCII"));
+        assertEquals(1, buffer.getShort(20));
+        assertEquals(1, buffer.getShort(22));
+        assertEquals(SAMPLE_RATE, buffer.getInt(24));
+        assertEquals(16, buffer.getShort(34));
+        assertEquals("data", new String(wav, 36, 4, "US-ASCII"));
+        assertEquals(samples.length * 2, buffer.getInt(40));
+
+        boolean heard = false;
+        for (int i = 0; i < samples.length; i++)
+        {
+            assertEquals(samples[i], buffer.getShort(WavWriter.HEADER_SIZE + i * 2));
+            heard |= samples[i] != 0;
+        }
+        assertTrue(heard);
+    }
+
+    @Test
+    public void testSameEventsSameSound() {
+        short[] first = renderSequence();
+        short[] second = renderSequence();
+        assertTrue(Arrays.equals(first, second));
+        assertFalse(rms(first, 0, first.length) == 0);
+    }
+
+    private static short[] renderSequence()
+    {
+        CommandQueue events = new CommandQueue(16);
+        Synth synth = new Synth(SAMPLE_RATE, events);
+        short[] samples = new short[SAMPLE_RATE];
+        int block = 512;
+        for (int offset = 0, step = 0; offset < samples.length; offset += block, step++)
+        {
+            if (step % 8 == 0)
+            {
+                events.offer(Synth.NOTE, Sonifier.directionToFrequency(step * 0.1f), 0.5f);
+                events.offer(Synth.CUTOFF, Sonifier.sweepToCutoff((step % 16) / 16.0), 0);
+            }
+            synth.render(samples, offset, Math.min(block, samples.length - offset));
+        }
+        return samples;
+    }
+
+    private static double rms(short[] samples, int offset, int length)
+    {
+        double sum = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            sum += (double) samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / length);
+    }
+}
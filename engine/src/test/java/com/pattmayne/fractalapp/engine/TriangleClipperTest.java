@@ -0,0 +1,218 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which triangles the clipper passes on, cuts down or drops.
+ */
+public class TriangleClipperTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int BACKGROUND = 0xff0066ff;
+    private static final int RED = 0xffff0000;
+
+    private static TriangleClipper newClipper() {
+        TriangleClipper clipper = new TriangleClipper();
+        clipper.setViewport(WIDTH, HEIGHT, 16);
+        clipper.startFrame();
+        return clipper;
+    }
+
+    @Test
+    public void testTrianglesInsideTheGuardBandAreUntouched() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+
+        clipper.clipTriangle(-10, -10, 70, 5, 20, 40, RED, true, collector);
+
+        assertEquals(1, clipper.visibleTriangles);
+        assertEquals(1, collector.count);
+        assertEquals(-10, collector.minX, 0);
+        assertEquals(70, collector.maxX, 0);
+    }
+
+    @Test
+    public void testInvisibleTrianglesAreDropped() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+
+        clipper.clipTriangle(-100, -100, -50, -100, -75, -60, RED, true, collector);
+        clipper.clipTriangle(100, 10, 200, 10, 150, 40, RED, false, collector);
+        clipper.clipTriangle(10.1f, 10.1f, 10.6f, 10.2f, 10.3f, 10.8f, RED, true, collector);
+
+        assertEquals(0, collector.count);
+        assertEquals(2, clipper.culledTriangles);
+        assertEquals(1, clipper.subPixelTriangles);
+    }
+
+    @Test
+    public void testHugeTrianglesAreCutToTheGuardBand() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+        SoftwareRenderer clipped = new SoftwareRenderer(WIDTH, HEIGHT);
+        SoftwareRenderer unclipped = new SoftwareRenderer(WIDTH, HEIGHT);
+        clipped.clear(BACKGROUND);
+        unclipped.clear(BACKGROUND);
+
+        //A corner far off to each side, with one edge running across the canvas.
+        float[] corners = {-5000, -3000, 9000, 20, 30, 8000};
+        clipper.clipTriangle(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], RED, true, collector);
+        collector.replay(clipped);
+        unclipped.addTriangle(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], RED);
+
+        assertEquals(1, clipper.clippedTriangles);
+        assertTrue(collector.count > 1);
+        assertTrue(collector.minX >= -16 && collector.maxX <= WIDTH + 16);
+        assertTrue(collector.minY >= -16 && collector.maxY <= HEIGHT + 16);
+
+        //The pieces cover exactly the same pixels as the whole triangle.
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("(" + x + ", " + y + ")", unclipped.getPixel(x, y), clipped.getPixel(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testSmallOutlinesAreUntouched() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+
+        clipper.clipTriangle(-10, -10, 70, 5, 20, 40, RED, false, collector);
+
+        assertEquals(1, clipper.visibleTriangles);
+        assertEquals(1, collector.count);
+        assertEquals(0, collector.edgeCount);
+    }
+
+    @Test
+    public void testHugeOutlinesAreCutIntoEdges() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+        SoftwareRenderer clipped = new SoftwareRenderer(WIDTH, HEIGHT);
+        SoftwareRenderer unclipped = new SoftwareRenderer(WIDTH, HEIGHT);
+        clipped.clear(BACKGROUND);
+        unclipped.clear(BACKGROUND);
+        unclipped.setFill(false);
+
+        //Corners far off to each side, with only the top edge running across the canvas.
+        float[] corners = {-5000, 20, 9000, 30, 30, 8000};
+        clipper.clipTriangle(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], RED, false, collector);
+        collector.replay(clipped);
+        unclipped.addTriangle(corners[0], corners[1], corners[2], corners[3], corners[4], corners[5], RED);
+
+        assertEquals(1, clipper.clippedTriangles);
+        assertEquals(0, collector.count);
+        assertTrue(collector.edgeCount >= 1 && collector.edgeCount <= 3);
+        assertTrue(collector.minX >= -16 && collector.maxX <= WIDTH + 16);
+        assertTrue(collector.minY >= -16 && collector.maxY <= HEIGHT + 16);
+
+        int redPixels = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals("(" + x + ", " + y + ")", unclipped.getPixel(x, y), clipped.getPixel(x, y));
+                if (clipped.getPixel(x, y) == RED) {
+                    redPixels++;
+                }
+            }
+        }
+        assertTrue(redPixels > 0);
+    }
+
+    @Test
+    public void testOutlinesAroundTheCanvasAreDropped() {
+        TriangleClipper clipper = newClipper();
+        TriangleCollector collector = new TriangleCollector();
+
+        //The canvas is inside this triangle, but none of its edges come near it.
+        clipper.clipTriangle(-5000, -5000, 9000, -5000, -5000, 9000, RED, false, collector);
+
+        assertEquals(1, clipper.culledTriangles);
+        assertEquals(0, collector.count);
+        assertEquals(0, collector.edgeCount);
+    }
+
+    /**
+     * Remembers every triangle and edge it is given, and the box around all of them.
+     */
+    private static class TriangleCollector implements TriangleSink {
+
+        int count;
+        float[] vertices = new float[6 * 8];
+        int[] colors = new int[8];
+        int edgeCount;
+        float[] edges = new float[4 * 3];
+        int[] edgeColors = new int[3];
+        float minX = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+
+        @Override
+        public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+            int v = count * 6;
+            vertices[v] = x1;
+            vertices[v + 1] = y1;
+            vertices[v + 2] = x2;
+            vertices[v + 3] = y2;
+            vertices[v + 4] = x3;
+            vertices[v + 5] = y3;
+            colors[count] = color;
+            count++;
+
+            minX = Math.min(minX, Math.min(x1, Math.min(x2, x3)));
+            maxX = Math.max(maxX, Math.max(x1, Math.max(x2, x3)));
+            minY = Math.min(minY, Math.min(y1, Math.min(y2, y3)));
+            maxY = Math.max(maxY, Math.max(y1, Math.max(y2, y3)));
+        }
+
+        @Override
+        public void addEdge(float startX, float startY, float endX, float endY, int color) {
+            int e = edgeCount * 4;
+            edges[e] = startX;
+            edges[e + 1] = startY;
+            edges[e + 2] = endX;
+            edges[e + 3] = endY;
+            edgeColors[edgeCount] = color;
+            edgeCount++;
+
+            minX = Math.min(minX, Math.min(startX, endX));
+            maxX = Math.max(maxX, Math.max(startX, endX));
+            minY = Math.min(minY, Math.min(startY, endY));
+            maxY = Math.max(maxY, Math.max(startY, endY));
+        }
+
+        void replay(TriangleSink sink) {
+            for (int i = 0; i < count; i++) {
+                int v = i * 6;
+                sink.addTriangle(vertices[v], vertices[v + 1], vertices[v + 2], vertices[v + 3],
+                        vertices[v + 4], vertices[v + 5], colors[i]);
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                int e = i * 4;
+                sink.addEdge(edges[e], edges[e + 1], edges[e + 2], edges[e + 3], edgeColors[i]);
+            }
+        }
+    }
+}
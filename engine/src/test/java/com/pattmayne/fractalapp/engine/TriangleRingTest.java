@@ -0,0 +1,101 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class TriangleRingTest {
+
+    @Test
+    public void testBothEnds() {
+        TriangleRing ring = new TriangleRing(4);
+        ring.addLast(2, 20, 1);
+        ring.addFirst(1, 10, 0);
+        ring.addLast(3, 30, 2);
+
+        assertEquals(3, ring.size());
+        assertEquals(1, ring.getFirstRadius(), 0);
+        assertEquals(3, ring.getLastRadius(), 0);
+        assertEquals(20, ring.getColor(1));
+        assertEquals(2, ring.getPhase(2));
+
+        ring.removeFirst();
+        ring.removeLast();
+        assertEquals(1, ring.size());
+        assertEquals(2, ring.getFirstRadius(), 0);
+        assertEquals(2, ring.getLastRadius(), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPositionOutsideTheRing() {
+        TriangleRing ring = new TriangleRing(4);
+        ring.addLast(1, 0, 0);
+        ring.getRadius(1);
+    }
+
+    /**
+     * Add, remove and scale at random, wrapping around and growing, and compare with an ArrayDeque doing the same.
+     */
+    @Test
+    public void testMatchesADeque() {
+        Random random = new Random(5);
+        TriangleRing ring = new TriangleRing(2);
+        ArrayDeque<double[]> expected = new ArrayDeque<double[]>();
+
+        for (int step = 0; step < 5000; step++) {
+            int action = random.nextInt(5);
+            double radius = random.nextDouble() * 100;
+            int color = random.nextInt();
+            int phase = random.nextInt(4);
+
+            if (action == 0) {
+                ring.addFirst(radius, color, phase);
+                expected.addFirst(new double[]{radius, color, phase});
+            } else if (action == 1) {
+                ring.addLast(radius, color, phase);
+                expected.addLast(new double[]{radius, color, phase});
+            } else if (action == 2 && !expected.isEmpty()) {
+                ring.removeFirst();
+                expected.removeFirst();
+            } else if (action == 3 && !expected.isEmpty()) {
+                ring.removeLast();
+                expected.removeLast();
+            } else {
+                ring.scaleRadii(1.04);
+                for (double[] triangle : expected) {
+                    triangle[0] *= 1.04;
+                }
+            }
+
+            assertEquals(expected.size(), ring.size());
+            int position = 0;
+            for (Iterator<double[]> it = expected.iterator(); it.hasNext(); position++) {
+                double[] triangle = it.next();
+                assertEquals(triangle[0], ring.getRadius(position), 0);
+                assertEquals((int) triangle[1], ring.getColor(position));
+                assertEquals((int) triangle[2], ring.getPhase(position));
+            }
+        }
+    }
+}
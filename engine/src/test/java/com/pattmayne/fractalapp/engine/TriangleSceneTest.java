@@ -0,0 +1,425 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Draws the triangle scene with the software renderer, the same way TriangleFractalView draws it onto a Canvas.
+ */
+public class TriangleSceneTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void testErasing() {
+        TriangleScene scene = new TriangleScene(7);
+        assertEquals(TriangleScene.BACKGROUND_COLOR, scene.beginFrame(WIDTH, HEIGHT));
+
+        scene.toggleErase();
+        assertEquals(TriangleScene.NO_CLEAR, scene.beginFrame(WIDTH, HEIGHT));
+
+        //Resetting the canvas clears it once, even when erasing is off.
+        scene.resetCanvas();
+        assertEquals(TriangleScene.BACKGROUND_COLOR, scene.beginFrame(WIDTH, HEIGHT));
+        assertEquals(TriangleScene.NO_CLEAR, scene.beginFrame(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testSeizureModeFlashes() {
+        TriangleScene scene = new TriangleScene(7);
+        scene.toggleSeizureMode();
+
+        boolean fill = scene.isFill();
+        int clearColor = scene.beginFrame(WIDTH, HEIGHT);
+        assertTrue(clearColor != TriangleScene.NO_CLEAR && clearColor != TriangleScene.BACKGROUND_COLOR);
+        assertTrue(fill != scene.isFill());
+    }
+
+    @Test
+    public void testNewTrianglesAppearInTheMiddle() {
+        TriangleScene scene = new TriangleScene(7);
+        TriangleCounter counter = new TriangleCounter();
+
+        for (int i = 0; i < 60; i++) {
+            scene.beginFrame(WIDTH, HEIGHT);
+            counter.count = 0;
+            scene.drawTriangles(counter);
+            scene.advance();
+        }
+        assertTrue(counter.count > 2);
+
+        //The triangles are handed over from the largest to the smallest.
+        assertTrue(counter.firstSize > counter.lastSize);
+    }
+
+    @Test
+    public void testDrawsTriangles() {
+        for (int kind = 0; kind < 2; kind++) {
+            TriangleScene scene = new TriangleScene(7);
+            if (kind == 1) {
+                scene.toggleEquilateral();
+            }
+
+            SoftwareRenderer renderer = new SoftwareRenderer(WIDTH, HEIGHT);
+            for (int i = 0; i < 100; i++) {
+                int clearColor = scene.beginFrame(WIDTH, HEIGHT);
+                if (clearColor != TriangleScene.NO_CLEAR) {
+                    renderer.clear(clearColor);
+                }
+                renderer.setFill(scene.isFill());
+                scene.drawTriangles(renderer);
+                scene.advance();
+            }
+
+            assertFalse(renderer.getPixel(WIDTH / 2, HEIGHT / 2) == TriangleScene.BACKGROUND_COLOR);
+        }
+    }
+
+    @Test
+    public void testEveryTriangleTurnsTogether() {
+        for (int kind = 0; kind < 2; kind++) {
+            TriangleScene scene = new TriangleScene(7);
+            if (kind == 1) {
+                scene.toggleEquilateral();
+            }
+            //Outlines are never cut into smaller triangles by the clipper (only into edges), so every corner the sink gets is a real one.
+            scene.toggleFill();
+            //Equilateral triangles come in two orientations, and right-angled ones in four.
+            CornerAngles angles = new CornerAngles(kind == 0 ? 2 : 4);
+
+            //Change the spin part-way through, then stop it altogether.
+            for (int i = 0; i < 200; i++) {
+                if (i == 100) {
+                    scene.moreSpin();
+                }
+                if (i == 150) {
+                    for (int j = 0; j < 6; j++) {
+                        scene.lessSpin();
+                    }
+                }
+
+                scene.beginFrame(WIDTH, HEIGHT);
+                angles.count = 0;
+                angles.sameOrientation = true;
+                scene.drawTriangles(angles);
+                scene.advance();
+
+                //Every triangle in a frame is turned by the same angle, even in the frame where the spin changes.
+                assertTrue(angles.sameOrientation);
+
+                if (i == 160) {
+                    angles.rememberOrientations();
+                }
+                if (i > 160) {
+                    //Once the spin has stopped, the triangles only grow (and the biggest ones drop off the edge).
+                    assertTrue(angles.hasRememberedOrientation(angles.firstAngle));
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out the angle from the center to the first corner of every triangle in a frame,
+     * and checks that triangles in the same orientation point the same way.
+     */
+    private static class CornerAngles implements TriangleSink {
+
+        //How many triangles apart the orientations repeat
+        final int period;
+
+        int count;
+        boolean sameOrientation;
+        double firstAngle;
+        double[] recent;
+        double[] remembered;
+
+        CornerAngles(int period) {
+            this.period = period;
+            recent = new double[period];
+            remembered = new double[period];
+        }
+
+        @Override
+        public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+            float centerX = (x1 + x2 + x3) / 3;
+            float centerY = (y1 + y2 + y3) / 3;
+            double angle = Math.atan2(y1 - centerY, x1 - centerX);
+
+            //Triangles smaller than a few pixels don't have a meaningful angle.
+            boolean bigEnough = Math.abs(x1 - centerX) + Math.abs(y1 - centerY) > 5;
+            if (count >= period && bigEnough && angleBetween(angle, recent[count % period]) > 1e-3) {
+                sameOrientation = false;
+            }
+            if (count == 0) {
+                firstAngle = angle;
+            }
+            recent[count % period] = angle;
+            count++;
+        }
+
+        @Override
+        public void addEdge(float startX, float startY, float endX, float endY, int color) {
+            //The biggest outlines only come as edges, and have no corners to measure.
+        }
+
+        void rememberOrientations() {
+            System.arraycopy(recent, 0, remembered, 0, period);
+        }
+
+        boolean hasRememberedOrientation(double angle) {
+            for (double rememberedAngle : remembered) {
+                if (angleBetween(angle, rememberedAngle) < 1e-3) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static double angleBetween(double a, double b) {
+            double difference = Math.abs(a - b) % (2 * Math.PI);
+            return Math.min(difference, 2 * Math.PI - difference);
+        }
+    }
+
+    @Test
+    public void testHiddenTrianglesAreNotDrawn() {
+        TriangleScene scene = new TriangleScene(7);
+        TriangleCounter counter = new TriangleCounter();
+
+        int clearColor = 0;
+        for (int i = 0; i < 250; i++) {
+            clearColor = scene.beginFrame(WIDTH, HEIGHT);
+            counter.count = 0;
+            scene.drawTriangles(counter);
+            scene.advance();
+        }
+
+        //By now the biggest triangles cover the whole canvas, so neither they nor the clear underneath them are drawn.
+        assertEquals(TriangleScene.NO_CLEAR, clearColor);
+        assertTrue(countClipped(scene.getClipper()) < scene.getTriangleCount());
+
+        //Outlines don't hide anything.
+        scene.toggleFill();
+        assertEquals(TriangleScene.BACKGROUND_COLOR, scene.beginFrame(WIDTH, HEIGHT));
+        scene.drawTriangles(counter);
+        assertEquals(scene.getTriangleCount(), countClipped(scene.getClipper()));
+    }
+
+    /**
+     * How many whole triangles the clipper was given in the last frame (it can pass on more, by cutting them into pieces).
+     */
+    private static int countClipped(TriangleClipper clipper) {
+        return clipper.visibleTriangles + clipper.clippedTriangles + clipper.culledTriangles + clipper.subPixelTriangles;
+    }
+
+    @Test
+    public void testHidingTrianglesDoesNotChangeThePicture() {
+        TriangleScene culled = new TriangleScene(7);
+        TriangleScene everything = new TriangleScene(7);
+        SoftwareRenderer culledRenderer = new SoftwareRenderer(WIDTH, HEIGHT);
+        SoftwareRenderer everythingRenderer = new SoftwareRenderer(WIDTH, HEIGHT);
+
+        for (int i = 0; i < 400; i++) {
+            if (i == 200) {
+                culled.resetCanvas();
+                everything.resetCanvas();
+            }
+            if (i == 300) {
+                culled.toggleReverse();
+                everything.toggleReverse();
+            }
+
+            int clearColor = culled.beginFrame(WIDTH, HEIGHT);
+            if (clearColor != TriangleScene.NO_CLEAR) {
+                culledRenderer.clear(clearColor);
+            }
+            culledRenderer.setFill(culled.isFill());
+            culled.drawTriangles(culledRenderer);
+            culled.advance();
+
+            //Outlined triangles are never hidden, so beginning the frame without fill draws every triangle and clears underneath.
+            everything.toggleFill();
+            clearColor = everything.beginFrame(WIDTH, HEIGHT);
+            everything.toggleFill();
+            if (clearColor != TriangleScene.NO_CLEAR) {
+                everythingRenderer.clear(clearColor);
+            }
+            everythingRenderer.setFill(everything.isFill());
+            everything.drawTriangles(everythingRenderer);
+            everything.advance();
+
+            assertTrue(Arrays.equals(everythingRenderer.getPixels(), culledRenderer.getPixels()));
+        }
+    }
+
+    @Test
+    public void testRightTriangleCoversACanvasThatShrankAwayFromTheCenter() {
+        //A right-angled triangle's hypotenuse runs through the center, so it can only cover the canvas
+        //when the center is outside it, as it is once the canvas shrinks and the center stays where it was.
+        TriangleScene culled = new TriangleScene(7);
+        TriangleScene everything = new TriangleScene(7);
+        culled.toggleEquilateral();
+        everything.toggleEquilateral();
+        TriangleCounter counter = new TriangleCounter();
+        for (int i = 0; i < 20; i++) {
+            culled.beginFrame(WIDTH, HEIGHT);
+            culled.drawTriangles(counter);
+            culled.advance();
+            everything.beginFrame(WIDTH, HEIGHT);
+            everything.drawTriangles(counter);
+            everything.advance();
+        }
+
+        int width = WIDTH / 2 - 10;
+        SoftwareRenderer culledRenderer = new SoftwareRenderer(width, HEIGHT);
+        SoftwareRenderer everythingRenderer = new SoftwareRenderer(width, HEIGHT);
+        int coveredFrames = 0;
+        for (int i = 0; i < 400; i++) {
+            int clearColor = culled.beginFrame(width, HEIGHT);
+            if (clearColor != TriangleScene.NO_CLEAR) {
+                culledRenderer.clear(clearColor);
+            }
+            culledRenderer.setFill(culled.isFill());
+            culled.drawTriangles(culledRenderer);
+            culled.advance();
+            if (countClipped(culled.getClipper()) < culled.getTriangleCount()) {
+                coveredFrames++;
+            }
+
+            everything.toggleFill();
+            clearColor = everything.beginFrame(width, HEIGHT);
+            everything.toggleFill();
+            if (clearColor != TriangleScene.NO_CLEAR) {
+                everythingRenderer.clear(clearColor);
+            }
+            everythingRenderer.setFill(everything.isFill());
+            everything.drawTriangles(everythingRenderer);
+            everything.advance();
+
+            assertTrue(Arrays.equals(everythingRenderer.getPixels(), culledRenderer.getPixels()));
+        }
+        assertTrue(coveredFrames > 0);
+    }
+
+    @Test
+    public void testTimedModeDoesNotDependOnTheFrameRate() {
+        for (int kind = 0; kind < 2; kind++) {
+            //Both scenes run for two seconds, one at 50 frames a second and the other dropping every other frame.
+            TriangleRecorder smooth = runTimed(kind == 1, 20, 100);
+            TriangleRecorder dropping = runTimed(kind == 1, 40, 50);
+
+            assertTrue(smooth.count > 2);
+            assertEquals(smooth.count, dropping.count);
+            for (int i = 0; i < smooth.count * 6; i++) {
+                assertEquals(smooth.vertices[i], dropping.vertices[i], 0.01f);
+            }
+        }
+    }
+
+    private static TriangleRecorder runTimed(boolean right, long frameMillis, int frames) {
+        TriangleScene scene = new TriangleScene(7);
+        if (right) {
+            scene.toggleEquilateral();
+        }
+        scene.setIterationLength(20);
+        scene.toggleTimed();
+
+        TriangleRecorder recorder = new TriangleRecorder();
+        for (int i = 0; i <= frames; i++) {
+            scene.setFrameTime(i * frameMillis * 1000000L);
+            scene.beginFrame(WIDTH, HEIGHT);
+            recorder.count = 0;
+            scene.drawTriangles(recorder);
+            scene.advance();
+        }
+        return recorder;
+    }
+
+    @Test
+    public void testSkipAhead() {
+        TriangleScene scene = new TriangleScene(7);
+        scene.beginFrame(WIDTH, HEIGHT);
+        TriangleCounter counter = new TriangleCounter();
+        scene.drawTriangles(counter);
+        assertEquals(1, counter.count);
+
+        //A whole day of iterations, straight away.
+        scene.skip(24 * 60 * 60 * 50);
+        counter.count = 0;
+        scene.drawTriangles(counter);
+        assertTrue(counter.count > 2);
+        assertTrue(counter.firstSize > counter.lastSize);
+    }
+
+    /**
+     * Remembers every corner of one frame.
+     */
+    private static class TriangleRecorder implements TriangleSink {
+
+        int count;
+        float[] vertices = new float[6 * 100];
+
+        @Override
+        public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+            int v = count * 6;
+            vertices[v] = x1;
+            vertices[v + 1] = y1;
+            vertices[v + 2] = x2;
+            vertices[v + 3] = y2;
+            vertices[v + 4] = x3;
+            vertices[v + 5] = y3;
+            count++;
+        }
+
+        @Override
+        public void addEdge(float startX, float startY, float endX, float endY, int color) {
+        }
+    }
+
+    /**
+     * Counts the triangles in one frame, and remembers how big the first and last ones were.
+     */
+    private static class TriangleCounter implements TriangleSink {
+
+        int count;
+        float firstSize;
+        float lastSize;
+
+        @Override
+        public void addTriangle(float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+            float size = Math.abs(x1 - x2) + Math.abs(y1 - y2);
+            if (count == 0) {
+                firstSize = size;
+            }
+            lastSize = size;
+            count++;
+        }
+
+        @Override
+        public void addEdge(float startX, float startY, float endX, float endY, int color) {
+        }
+    }
+}
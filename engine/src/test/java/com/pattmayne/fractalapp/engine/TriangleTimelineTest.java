@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Matthew Payne
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+ or in the assets folder of this application.
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+ */
+
+package com.pattmayne.fractalapp.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TriangleTimelineTest {
+
+    /**
+     * Numbers the triangles in the order they are born, and uses the number as both color and phase.
+     */
+    private static class CountingBirths implements TriangleTimeline.Births {
+        int born = 0;
+
+        @Override
+        public int nextColor() {
+            return born;
+        }
+
+        @Override
+        public int nextPhase() {
+            return born++;
+        }
+
+        @Override
+        public void skip(int count) {
+            born += count;
+        }
+    }
+
+    private static TriangleTimeline growing() {
+        TriangleTimeline timeline = new TriangleTimeline();
+        timeline.configure(1.04, 2, 0.5, 0, 1600);
+        return timeline;
+    }
+
+    private static TriangleTimeline shrinking() {
+        TriangleTimeline timeline = new TriangleTimeline();
+        timeline.configure(0.95, 720, 2, 0, 1);
+        return timeline;
+    }
+
+    private static TriangleRing start(double radius) {
+        TriangleRing ring = new TriangleRing(4);
+        ring.addLast(radius, -1, -1);
+        return ring;
+    }
+
+    /**
+     * However the time is cut up, the same triangles end up in the same places.
+     */
+    private static void assertSameAtAnyFrameRate(TriangleTimeline timeline, double startRadius) {
+        double[] frameLengths = {1, 0.25, 3, 0.1, 7.5, 20};
+        TriangleRing expected = start(startRadius);
+        timeline.advance(expected, 300, new CountingBirths());
+        assertTrue(expected.size() > 3);
+
+        for (double frameLength : frameLengths) {
+            TriangleRing ring = start(startRadius);
+            CountingBirths births = new CountingBirths();
+            for (int frame = 0; frame < Math.round(300 / frameLength); frame++) {
+                timeline.advance(ring, frameLength, births);
+            }
+
+            assertEquals(expected.size(), ring.size());
+            for (int i = 0; i < ring.size(); i++) {
+                assertEquals(expected.getColor(i), ring.getColor(i));
+                assertEquals(expected.getRadius(i), ring.getRadius(i), expected.getRadius(i) * 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testGrowingAtAnyFrameRate() {
+        assertSameAtAnyFrameRate(growing(), 1);
+    }
+
+    @Test
+    public void testShrinkingAtAnyFrameRate() {
+        assertSameAtAnyFrameRate(shrinking(), 2000);
+    }
+
+    @Test
+    public void testGrowingSeries() {
+        TriangleRing ring = start(1);
+        growing().advance(ring, 1000, new CountingBirths());
+
+        //Every triangle is half the size of the one before, and they run from the removal threshold down to the spawn threshold.
+        for (int i = 1; i < ring.size(); i++) {
+            assertEquals(0.5, ring.getRadius(i) / ring.getRadius(i - 1), 1e-9);
+            assertEquals(ring.getColor(i - 1) + 1, ring.getColor(i));
+        }
+        assertTrue(ring.getFirstRadius() <= 1600 && ring.getFirstRadius() > 800);
+        assertTrue(ring.getLastRadius() < 2 && ring.getLastRadius() >= 1);
+    }
+
+    @Test
+    public void testSkippingFarAhead() {
+        TriangleRing ring = start(1);
+        CountingBirths births = new CountingBirths();
+        growing().advance(ring, 1e7, births);
+
+        //A triangle is born about every 17.7 iterations, but only the ones still on the screen are created.
+        double period = Math.log(2) / Math.log(1.04);
+        assertEquals(1e7 / period, births.born, 2);
+        assertTrue(ring.size() < 15);
+        assertTrue(ring.getFirstRadius() <= 1600);
+        assertEquals(births.born - 1, ring.getColor(ring.size() - 1));
+    }
+
+    @Test
+    public void testAtMostOneBirthPerIteration() {
+        //Every new triangle is born already past the spawn threshold, so one is born in every iteration.
+        TriangleTimeline timeline = new TriangleTimeline();
+        timeline.configure(0.95, 720, 0, 700, 1);
+        assertSameAtAnyFrameRate(timeline, 2000);
+
+        TriangleRing ring = start(2000);
+        CountingBirths births = new CountingBirths();
+        timeline.advance(ring, 100, births);
+        assertTrue(births.born <= 100);
+        assertTrue(births.born >= 75);
+    }
+}